@@ -0,0 +1,130 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.OrderQueueService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the mixed HTTP-like traffic: producers adding and cancelling orders, clients polling
+ * their state and a picker taking the carts, all at the same time. The services which are not thread-safe
+ * are measured behind a single monitor, see {@link SynchronizedOrderQueueService}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentOrderQueueBenchmark {
+
+    private static final int PRODUCER_CLIENTS = 1000;
+    private static final String SYNCHRONIZED = "Synchronized";
+
+    @Param({"SynchronizedCustom", "SynchronizedPriority", "Tiered"})
+    private String implementation;
+
+    @Param({"1000", "10000"})
+    private int queueDepth;
+
+    @Param({"0.05"})
+    private double premiumShare;
+
+    private OrderQueueService service;
+    private long[] queuedClientIds;
+    private BitSet queuedClients;
+    private long[] producerClientIds;
+    private final AtomicInteger producers = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        // Enough spare clients for every producer thread of the group
+        long[] clientIds = OrderQueueServices.clientIds(queueDepth + 8 * PRODUCER_CLIENTS, premiumShare, random);
+        service = implementation.startsWith(SYNCHRONIZED)
+                ? new SynchronizedOrderQueueService(
+                        OrderQueueServices.create(implementation.substring(SYNCHRONIZED.length())))
+                : OrderQueueServices.create(implementation);
+        OrderQueueServices.fill(service, clientIds, 0, queueDepth, random);
+        queuedClientIds = new long[queueDepth];
+        queuedClients = new BitSet();
+        for (int i = 0; i < queueDepth; i++) {
+            queuedClientIds[i] = clientIds[i];
+            queuedClients.set((int) clientIds[i]);
+        }
+        producerClientIds = new long[clientIds.length - queueDepth];
+        System.arraycopy(clientIds, queueDepth, producerClientIds, 0, producerClientIds.length);
+    }
+
+    /**
+     * Client IDs owned by one producer thread, so the producers never add the same client twice
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private int first = -1;
+        private int next;
+
+        long nextClientId(ConcurrentOrderQueueBenchmark benchmark) {
+            if (first < 0) {
+                first = benchmark.producers.getAndIncrement() * PRODUCER_CLIENTS;
+            }
+            return benchmark.producerClientIds[first + next++ % PRODUCER_CLIENTS];
+        }
+
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean addAndCancelOrder(Producer producer) throws InvalidOrderParameterException {
+        long clientId = producer.nextClientId(this);
+        service.addOrder(new OrderItem(clientId, 1 + ThreadLocalRandom.current().nextInt(OrderQueueServices.CART_CAPACITY)));
+        return service.removeOrder(clientId);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public ClientOrderState getClientOrderState() throws InvalidOrderParameterException {
+        return service.getClientOrderState(queuedClientIds[ThreadLocalRandom.current().nextInt(queuedClientIds.length)]);
+    }
+
+    /**
+     * Takes the next cart and puts the clients of the initial queue back to its end,
+     * the orders of the producers are just taken away
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int getNextDeliveryAndRefill() throws InvalidOrderParameterException {
+        List<OrderItem> cart = service.getNextDelivery();
+        for (OrderItem order : cart) {
+            if (queuedClients.get(order.getClientId().intValue())) {
+                service.addOrder(new OrderItem(order.getClientId(), order.getQuantity()));
+            }
+        }
+        return cart.size();
+    }
+
+}
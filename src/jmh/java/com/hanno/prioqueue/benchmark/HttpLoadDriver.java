@@ -0,0 +1,307 @@
+package com.hanno.prioqueue.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drives a running application over HTTP with thousands of concurrent connections, to compare the servlet
+ * and the reactive web stacks under the same load, see the README. Run it with:
+ * <pre>
+ * ./gradlew loadTest -PloadArgs="--scenario=state --connections=2000 --seconds=30 --warmup=10"
+ * </pre>
+ * Scenarios:
+ * <ul>
+ *     <li>{@code state}: every connection polls the state of a random queued order in a loop, the driver reports
+ *     the throughput and the latency percentiles after {@code warmup} seconds of opening the connections
+ *     and warming up the JIT;</li>
+ *     <li>{@code subscribe}: every connection holds a Server-Sent Events subscription to one order while
+ *     the carts are taken every {@code deliveryMs}, the driver reports the latency from taking a cart
+ *     to receiving the new state.</li>
+ * </ul>
+ */
+public class HttpLoadDriver {
+
+    private static final long FIRST_CLIENT_ID = 1001L;
+    private static final int BATCH_SIZE = 1000;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final String orderUrl;
+    private final int connections;
+    private final int seconds;
+    private final int warmupSeconds;
+    private final long deliveryMillis;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    HttpLoadDriver(String baseUrl, int connections, int seconds, int warmupSeconds, long deliveryMillis) {
+        this.orderUrl = baseUrl + "/storehouse/order";
+        this.connections = connections;
+        this.seconds = seconds;
+        this.warmupSeconds = warmupSeconds;
+        this.deliveryMillis = deliveryMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        HttpLoadDriver driver = new HttpLoadDriver(options.getOrDefault("url", "http://localhost:8080"),
+                Integer.parseInt(options.getOrDefault("connections", "1000")),
+                Integer.parseInt(options.getOrDefault("seconds", "30")),
+                Integer.parseInt(options.getOrDefault("warmup", "10")),
+                Long.parseLong(options.getOrDefault("deliveryMs", "100")));
+        String scenario = options.getOrDefault("scenario", "state");
+        switch (scenario) {
+            case "state":
+                driver.runStatePolling();
+                break;
+            case "subscribe":
+                driver.runSubscriptions();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /**
+     * Every connection sends the next request as soon as the previous response has arrived
+     */
+    void runStatePolling() throws Exception {
+        addOrders();
+        pollState(warmupSeconds);
+        latencies.reset();
+        errors.set(0L);
+        long requests = pollState(seconds);
+        System.out.printf("state: %d connections, %d requests in %d s, %.0f requests/s, %d errors%n",
+                connections, requests, seconds, requests / (double) seconds, errors.get());
+        latencies.print("response");
+    }
+
+    /**
+     * Every connection subscribes to one order, then the carts are taken until the time is up
+     */
+    void runSubscriptions() throws Exception {
+        addOrders();
+        AtomicLong lastDeliveryNanos = new AtomicLong(System.nanoTime());
+        AtomicLong states = new AtomicLong();
+        AtomicInteger removed = new AtomicInteger();
+        for (int i = 0; i < connections; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(orderUrl + "/state/subscribe?clientId="
+                    + (FIRST_CLIENT_ID + i))).header("Accept", "text/event-stream").build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(
+                    new EventLineSubscriber(lastDeliveryNanos, states, removed)))
+                    .exceptionally(e -> {
+                        errors.incrementAndGet();
+                        return null;
+                    });
+        }
+        // Let the subscriptions receive their first state before the queue starts to move
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        latencies.reset();
+        states.set(0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        int deliveries = 0;
+        while (System.nanoTime() < deadline && removed.get() < connections) {
+            lastDeliveryNanos.set(System.nanoTime());
+            send(HttpRequest.newBuilder(URI.create(orderUrl + "/delivery")).build());
+            deliveries++;
+            Thread.sleep(deliveryMillis);
+        }
+        System.out.printf("subscribe: %d connections, %d deliveries, %d states pushed, %d orders removed, %d errors%n",
+                connections, deliveries, states.get(), removed.get(), errors.get());
+        latencies.print("delivery to state");
+    }
+
+    /**
+     * @return number of the successful requests
+     */
+    private long pollState(int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong requests = new AtomicLong();
+        CountDownLatch finished = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            pollState(deadline, requests, finished);
+        }
+        finished.await();
+        return requests.get();
+    }
+
+    private void pollState(long deadline, AtomicLong requests, CountDownLatch finished) {
+        if (System.nanoTime() >= deadline) {
+            finished.countDown();
+            return;
+        }
+        long clientId = FIRST_CLIENT_ID + ThreadLocalRandom.current().nextInt(connections);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(orderUrl + "/state?clientId=" + clientId)).build();
+        long start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e != null || response.statusCode() != 200) {
+                errors.incrementAndGet();
+            } else {
+                latencies.record(System.nanoTime() - start);
+                requests.incrementAndGet();
+            }
+            pollState(deadline, requests, finished);
+        });
+    }
+
+    /**
+     * Queue one order per connection, the clients which already have an order keep it
+     */
+    private void addOrders() {
+        Random random = new Random(42);
+        CompletableFuture<?>[] batches = new CompletableFuture<?>[(connections + BATCH_SIZE - 1) / BATCH_SIZE];
+        for (int batch = 0; batch < batches.length; batch++) {
+            StringBuilder body = new StringBuilder("[");
+            for (int i = batch * BATCH_SIZE; i < Math.min(connections, (batch + 1) * BATCH_SIZE); i++) {
+                body.append(body.length() > 1 ? "," : "")
+                        .append("{\"clientId\":").append(FIRST_CLIENT_ID + i)
+                        .append(",\"quantity\":").append(1 + random.nextInt(25)).append('}');
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(orderUrl + "/batch"))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(body.append(']').toString()))
+                    .build();
+            batches[batch] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        }
+        CompletableFuture.allOf(batches).join();
+    }
+
+    private void send(HttpRequest request) throws InterruptedException {
+        try {
+            if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+                errors.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the {@code state} and {@code removed} events of one subscription
+     */
+    private class EventLineSubscriber implements Flow.Subscriber<String> {
+
+        private final AtomicLong lastDeliveryNanos;
+        private final AtomicLong states;
+        private final AtomicInteger removed;
+
+        EventLineSubscriber(AtomicLong lastDeliveryNanos, AtomicLong states, AtomicInteger removed) {
+            this.lastDeliveryNanos = lastDeliveryNanos;
+            this.states = states;
+            this.removed = removed;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.equals("event:state")) {
+                latencies.record(System.nanoTime() - lastDeliveryNanos.get());
+                states.incrementAndGet();
+            } else if (line.equals("event:removed")) {
+                removed.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+    }
+
+    /**
+     * Lock-free histogram of the latencies in microseconds, with 16 buckets per power of two,
+     * so the reported percentiles are within about 6% of the measured values
+     */
+    static final class LatencyHistogram {
+
+        private static final int SUB_BUCKETS = 16;
+        private static final int SUB_BUCKET_BITS = 4;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long nanos) {
+            counts.incrementAndGet(index(Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos))));
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0L);
+            }
+        }
+
+        void print(String name) {
+            long total = 0L;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                System.out.printf("%s latency: no samples%n", name);
+                return;
+            }
+            System.out.printf("%s latency, us: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n", name,
+                    percentile(total, 0.5), percentile(total, 0.9), percentile(total, 0.99),
+                    percentile(total, 0.999), percentile(total, 1.0));
+        }
+
+        private long percentile(long total, double fraction) {
+            long rank = Math.max(1L, (long) Math.ceil(total * fraction));
+            long seen = 0L;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return lowerBound(i);
+                }
+            }
+            return lowerBound(counts.length() - 1);
+        }
+
+        private static int index(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            return (1L << exponent) | ((long) (index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS));
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.dto.OrderDto;
+import com.hanno.prioqueue.dto.OrderMapper;
+import com.hanno.prioqueue.entity.OrderItem;
+import org.dozer.DozerBeanMapper;
+import org.dozer.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of mapping the orders between the API and the queue per request: the whole queue for {@code /all}
+ * and a single order for {@code PUT}, by the {@link OrderMapper} and by the Dozer mapper it has replaced.
+ * Run with {@code -prof gc} to see the allocation per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderMappingBenchmark {
+
+    @Param({"1000", "10000"})
+    private int queueDepth;
+
+    private final OrderMapper orderMapper = new OrderMapper();
+    private final Mapper dozerMapper = new DozerBeanMapper();
+    private List<OrderItem> orders;
+    private OrderDto dto;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime now = LocalDateTime.now();
+        orders = new ArrayList<>(queueDepth);
+        for (int i = 0; i < queueDepth; i++) {
+            orders.add(new OrderItem(1L + i, 1 + i % OrderQueueServices.CART_CAPACITY, now, i % 10 == 0 ? "premium" : null));
+        }
+        dto = orderMapper.toDto(orders.get(0));
+    }
+
+    @Benchmark
+    public List<OrderDto> allOrdersMapped() {
+        return orderMapper.toDtos(orders);
+    }
+
+    @Benchmark
+    public List<OrderDto> allOrdersDozer() {
+        return orders.stream()
+                .map(o -> dozerMapper.map(o, OrderDto.class))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public OrderItem addedOrderMapped() {
+        return orderMapper.toOrderItem(dto);
+    }
+
+    @Benchmark
+    public OrderItem addedOrderDozer() {
+        return dozerMapper.map(dto, OrderItem.class);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.OrderQueueService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of the queue operations for every {@link OrderQueueService} implementation.
+ * Each benchmark keeps the queue depth constant, so the numbers for different depths are comparable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderQueueServiceBenchmark {
+
+    private static final int SPARE_CLIENTS = 1000;
+
+    @Param({"Custom", "Priority", "Tiered", "TieredLookAhead"})
+    private String implementation;
+
+    @Param({"1000", "10000"})
+    private int queueDepth;
+
+    @Param({"0.02", "0.1"})
+    private double premiumShare;
+
+    private OrderQueueService service;
+    private long[] queuedClientIds;
+    private long[] spareClientIds;
+    private int nextSpareClient;
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        long[] clientIds = OrderQueueServices.clientIds(queueDepth + SPARE_CLIENTS, premiumShare, random);
+        service = OrderQueueServices.create(implementation);
+        OrderQueueServices.fill(service, clientIds, 0, queueDepth, random);
+        queuedClientIds = Arrays.copyOfRange(clientIds, 0, queueDepth);
+        spareClientIds = Arrays.copyOfRange(clientIds, queueDepth, clientIds.length);
+    }
+
+    @Benchmark
+    public boolean addAndCancelOrder() throws InvalidOrderParameterException {
+        long clientId = spareClientIds[nextSpareClient++ % spareClientIds.length];
+        service.addOrder(new OrderItem(clientId, 1 + random.nextInt(OrderQueueServices.CART_CAPACITY)));
+        return service.removeOrder(clientId);
+    }
+
+    @Benchmark
+    public ClientOrderState getClientOrderState() throws InvalidOrderParameterException {
+        return service.getClientOrderState(queuedClientIds[random.nextInt(queuedClientIds.length)]);
+    }
+
+    /**
+     * Takes the next cart and puts the same clients back to the end of the queue
+     */
+    @Benchmark
+    public int getNextDeliveryAndRefill() throws InvalidOrderParameterException {
+        List<OrderItem> cart = service.getNextDelivery();
+        for (OrderItem order : cart) {
+            service.addOrder(new OrderItem(order.getClientId(), order.getQuantity()));
+        }
+        return cart.size();
+    }
+
+    @Benchmark
+    public List<OrderItem> getAllOrders() {
+        return service.getAllOrders();
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryCustomPriorityOrderQueueService;
+import com.hanno.prioqueue.service.InMemoryPriorityOrderQueueService;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.service.ShardedOrderQueueService;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Creates and fills the {@link OrderQueueService} implementations outside of the Spring context
+ */
+final class OrderQueueServices {
+
+    static final long MAX_CLIENT_ID = 100_000L;
+    static final long PREMIUM_CLIENTS_RANGE = 1000L;
+    static final int CART_CAPACITY = 25;
+    static final long PICKUP_TIMEOUT = 300L;
+    static final int LOOK_AHEAD = 8;
+
+    private OrderQueueServices() {
+    }
+
+    /**
+     * @param implementation one of "Custom", "Priority", "Tiered" or "TieredLookAhead"
+     */
+    static OrderQueueService create(String implementation) {
+        Supplier<OrderQueueService> constructor;
+        int lookAhead = 0;
+        switch (implementation) {
+            case "Custom":
+                constructor = InMemoryCustomPriorityOrderQueueService::new;
+                break;
+            case "Priority":
+                constructor = InMemoryPriorityOrderQueueService::new;
+                break;
+            case "Tiered":
+                constructor = InMemoryTieredPriorityOrderQueueService::new;
+                break;
+            case "TieredLookAhead":
+                constructor = InMemoryTieredPriorityOrderQueueService::new;
+                lookAhead = LOOK_AHEAD;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+        OrderQueueService service = constructor.get();
+        setField(service, "maxClientId", MAX_CLIENT_ID);
+        setField(service, "cartCapacity", CART_CAPACITY);
+        setField(service, "pickupTimeoutSeconds", PICKUP_TIMEOUT);
+        if (lookAhead > 0) {
+            setField(service, "lookAhead", lookAhead);
+        }
+        return service;
+    }
+
+    /**
+     * Sharded tiered queue, see {@link ShardedOrderQueueService}
+     */
+    static ShardedOrderQueueService createSharded(int shards) {
+        return new ShardedOrderQueueService((InMemoryTieredPriorityOrderQueueService) create("Tiered"), shards);
+    }
+
+    /**
+     * Shuffled client IDs with the given share of premium clients
+     */
+    static long[] clientIds(int number, double premiumShare, Random random) {
+        int premiumClients = (int) Math.min(PREMIUM_CLIENTS_RANGE, Math.round(number * premiumShare));
+        List<Long> clientIds = new ArrayList<>(number);
+        for (long clientId = 1; clientId <= premiumClients; clientId++) {
+            clientIds.add(clientId);
+        }
+        for (long clientId = PREMIUM_CLIENTS_RANGE + 1; clientIds.size() < number; clientId++) {
+            clientIds.add(clientId);
+        }
+        Collections.shuffle(clientIds, random);
+        return clientIds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    static void fill(OrderQueueService service, long[] clientIds, int from, int to, Random random) {
+        try {
+            for (int i = from; i < to; i++) {
+                service.addOrder(new OrderItem(clientIds[i], 1 + random.nextInt(CART_CAPACITY)));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot fill the queue", e);
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        if (field == null) {
+            throw new IllegalArgumentException("No field '" + name + "' in " + target.getClass());
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.OrderQueueService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the concurrent producers adding and cancelling orders as the queue is split into more shards.
+ * With a single shard the producers serialize on its write lock, every added shard adds a writer running in parallel,
+ * so the throughput should grow close to linearly up to the number of the producer threads or the cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ShardedOrderQueueBenchmark {
+
+    private static final int PRODUCER_CLIENTS = 1000;
+    private static final int MAX_PRODUCERS = 64;
+
+    @Param({"1", "2", "4", "8"})
+    private int shards;
+
+    @Param({"10000"})
+    private int queueDepth;
+
+    private OrderQueueService service;
+    private long[] producerClientIds;
+    private final AtomicInteger producers = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long[] clientIds = OrderQueueServices.clientIds(queueDepth + MAX_PRODUCERS * PRODUCER_CLIENTS, 0.05, random);
+        service = OrderQueueServices.createSharded(shards);
+        OrderQueueServices.fill(service, clientIds, 0, queueDepth, random);
+        producerClientIds = new long[clientIds.length - queueDepth];
+        System.arraycopy(clientIds, queueDepth, producerClientIds, 0, producerClientIds.length);
+    }
+
+    /**
+     * Client IDs owned by one producer thread, so the producers never add the same client twice
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private int first = -1;
+        private int next;
+
+        long nextClientId(ShardedOrderQueueBenchmark benchmark) {
+            if (first < 0) {
+                first = benchmark.producers.getAndIncrement() * PRODUCER_CLIENTS;
+            }
+            return benchmark.producerClientIds[first + next++ % PRODUCER_CLIENTS];
+        }
+
+    }
+
+    @Benchmark
+    public boolean addAndCancelOrder(Producer producer) throws InvalidOrderParameterException {
+        long clientId = producer.nextClientId(this);
+        service.addOrder(new OrderItem(clientId, 1 + ThreadLocalRandom.current().nextInt(OrderQueueServices.CART_CAPACITY)));
+        return service.removeOrder(clientId);
+    }
+
+}
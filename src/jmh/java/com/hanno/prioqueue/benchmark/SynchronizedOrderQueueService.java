@@ -0,0 +1,47 @@
+package com.hanno.prioqueue.benchmark;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.OrderQueueService;
+
+import java.util.List;
+
+/**
+ * Guards a service which is not thread-safe with a single monitor,
+ * as a baseline for the concurrent benchmarks
+ */
+final class SynchronizedOrderQueueService implements OrderQueueService {
+
+    private final OrderQueueService delegate;
+
+    SynchronizedOrderQueueService(OrderQueueService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized OrderItem addOrder(OrderItem order) throws InvalidOrderParameterException {
+        return delegate.addOrder(order);
+    }
+
+    @Override
+    public synchronized List<OrderItem> getAllOrders() {
+        return delegate.getAllOrders();
+    }
+
+    @Override
+    public synchronized List<OrderItem> getNextDelivery() {
+        return delegate.getNextDelivery();
+    }
+
+    @Override
+    public synchronized ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
+        return delegate.getClientOrderState(clientId);
+    }
+
+    @Override
+    public synchronized boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
+        return delegate.removeOrder(clientId);
+    }
+
+}
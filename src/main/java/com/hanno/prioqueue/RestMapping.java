@@ -4,5 +4,6 @@ public class RestMapping {
 
     public static final String STOREHOUSE = "storehouse";
     public static final String ORDER = STOREHOUSE + "/order";
+    public static final String STOREHOUSE_ORDER = STOREHOUSE + "/{storehouseId}/order";
 
 }
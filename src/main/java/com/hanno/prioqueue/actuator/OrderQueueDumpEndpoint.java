@@ -0,0 +1,41 @@
+package com.hanno.prioqueue.actuator;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.OrderQueueService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-demand dump of the whole queue at {@code /actuator/orderqueue}, which replaces logging the queue
+ * on every change. The queue is read only when the dump is requested. The served queue is dumped, so with
+ * {@code queue.shards} above one the orders of all the shards are merged.
+ */
+@Component
+@Endpoint(id = "orderqueue")
+public class OrderQueueDumpEndpoint {
+
+    private final OrderQueueService orderQueueService;
+
+    @Autowired
+    public OrderQueueDumpEndpoint(@Qualifier("ExpiringOrderQueue") OrderQueueService orderQueueService) {
+        this.orderQueueService = orderQueueService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> dump() {
+        List<OrderItem> orders = orderQueueService.getAllOrders();
+        Map<String, Object> dump = new LinkedHashMap<>();
+        dump.put("size", orders.size());
+        dump.put("tiers", orderQueueService.getTierDepths());
+        dump.put("orders", orders);
+        return dump;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.hanno.prioqueue.actuator;
+
+import com.hanno.prioqueue.replication.ReplicationFollower;
+import com.hanno.prioqueue.replication.ReplicationLeader;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replication state at {@code /actuator/replication}. A {@code POST} to it promotes the follower, so it stops
+ * following the leader and can take over the clients.
+ */
+@Component
+@Endpoint(id = "replication")
+public class ReplicationEndpoint {
+
+    private final ObjectProvider<ReplicationLeader> leader;
+    private final ObjectProvider<ReplicationFollower> follower;
+
+    @Autowired
+    public ReplicationEndpoint(ObjectProvider<ReplicationLeader> leader, ObjectProvider<ReplicationFollower> follower) {
+        this.leader = leader;
+        this.follower = follower;
+    }
+
+    @ReadOperation
+    public Map<String, Object> state() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        ReplicationLeader leader = this.leader.getIfAvailable();
+        ReplicationFollower follower = this.follower.getIfAvailable();
+        if (leader != null) {
+            state.put("role", "leader");
+            state.put("followerConnected", leader.isFollowerConnected());
+            state.put("lagEvents", leader.getLagEvents());
+            state.put("lagMillis", leader.getLagMillis());
+        } else if (follower != null) {
+            state.put("role", follower.isPromoted() ? "promoted" : "follower");
+            state.put("connected", follower.isConnected());
+            state.put("appliedEvents", follower.getAppliedEvents());
+        } else {
+            state.put("role", "none");
+        }
+        return state;
+    }
+
+    @WriteOperation
+    public Map<String, Object> promote() {
+        ReplicationFollower follower = this.follower.getIfAvailable();
+        if (follower != null) {
+            follower.promote();
+        }
+        return state();
+    }
+
+}
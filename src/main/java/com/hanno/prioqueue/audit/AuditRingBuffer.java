@@ -0,0 +1,75 @@
+package com.hanno.prioqueue.audit;
+
+import com.hanno.prioqueue.service.OrderQueueEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer with a single producer and a single consumer.
+ * <p>
+ * The producer only writes the tail and the consumer only writes the head, so neither of them waits for the other:
+ * the producer drops the event when the buffer is full, and the consumer finds nothing to read when it is empty.
+ * The slot is written before the tail is released, which makes it visible to the consumer that reads the tail.
+ */
+final class AuditRingBuffer {
+
+    private final OrderQueueEvent[] events;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // Last head seen by the producer, so it reads the consumer's counter only when the buffer looks full
+    private long producerHead;
+
+    /**
+     * @param capacity number of the events, must be a power of two
+     */
+    AuditRingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity should be a power of two: " + capacity);
+        }
+        this.events = new OrderQueueEvent[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Called by the producer only
+     *
+     * @return false if the buffer is full and the event has been dropped
+     */
+    boolean offer(OrderQueueEvent event) {
+        long currentTail = tail.get();
+        if (currentTail - producerHead == events.length) {
+            producerHead = head.get();
+            if (currentTail - producerHead == events.length) {
+                return false;
+            }
+        }
+        events[(int) currentTail & mask] = event;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer only
+     *
+     * @return number of the events passed to the consumer
+     */
+    int drain(Consumer<OrderQueueEvent> consumer) {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        for (long i = currentHead; i < currentTail; i++) {
+            int index = (int) i & mask;
+            OrderQueueEvent event = events[index];
+            events[index] = null;
+            consumer.accept(event);
+        }
+        head.lazySet(currentTail);
+        return (int) (currentTail - currentHead);
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.hanno.prioqueue.audit;
+
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import com.hanno.prioqueue.service.OrderQueueListener;
+import com.hanno.prioqueue.service.OrderTimestamps;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Audit stream of the queue changes: every added, cancelled and delivered order with its tier and position.
+ * <p>
+ * The queue only puts the event into an {@link AuditRingBuffer}, and a background thread formats and writes
+ * the events, so the request path never waits for the audit writer. The queue publishes the events under its
+ * write lock, which makes it the single producer of the buffer. Every attached queue, like every shard of
+ * the sharded queue, has a buffer of its own, and the events of different queues are written in no particular
+ * order. When the writer falls behind and the buffer is full, the new events are dropped and counted instead
+ * of blocking the queue. An idle writer is parked until
+ * the queue hands it the next event, so an idle instance doesn't pay for polling the buffer.
+ * <p>
+ * By default the events are written to the {@code orderqueue.audit} logger, one {@code key=value} line per event.
+ */
+@Slf4j
+public class OrderAuditLog implements Closeable {
+
+    private static final Logger AUDIT_LOG = LoggerFactory.getLogger("orderqueue.audit");
+    // Only bounds the delay of an event whose wakeup has raced with the writer parking
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int bufferSize;
+    private final List<AuditedQueue> queues = new CopyOnWriteArrayList<>();
+    private final Consumer<OrderQueueEvent> writer;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Thread writerThread;
+    private final AtomicBoolean writerParked = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    public OrderAuditLog(int bufferSize) {
+        this(bufferSize, OrderAuditLog::writeToLog);
+    }
+
+    /**
+     * @param bufferSize number of the events of one queue which may wait for the writer, must be a power of two
+     * @param writer     called from the background thread for every event
+     */
+    public OrderAuditLog(int bufferSize, Consumer<OrderQueueEvent> writer) {
+        this.bufferSize = bufferSize;
+        this.writer = writer;
+        this.writerThread = new Thread(this::drainLoop, "order-audit-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Start receiving the changes of the queue into a buffer of its own
+     */
+    public synchronized void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        for (AuditedQueue queue : queues) {
+            if (queue.orderQueueService == orderQueueService) {
+                throw new IllegalStateException("Audit log is already attached to the queue");
+            }
+        }
+        AuditedQueue queue = new AuditedQueue(orderQueueService, new AuditRingBuffer(bufferSize));
+        queues.add(queue);
+        orderQueueService.addListener(queue);
+    }
+
+    /**
+     * @return number of the events dropped because the writer was behind
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stop receiving the events, write the buffered ones and stop the writer
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            for (AuditedQueue queue : queues) {
+                queue.orderQueueService.removeListener(queue);
+            }
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drain() > 0) {
+                continue;
+            }
+            writerParked.set(true);
+            // An event offered before the flag was raised has not woken the writer up
+            if (drain() == 0 && running) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            writerParked.set(false);
+        }
+        drain();
+    }
+
+    private int drain() {
+        int drained = 0;
+        for (AuditedQueue queue : queues) {
+            drained += queue.buffer.drain(this::write);
+        }
+        return drained;
+    }
+
+    private void write(OrderQueueEvent event) {
+        try {
+            writer.accept(event);
+        } catch (RuntimeException e) {
+            log.error("Failed to write the audit event {}", event, e);
+        }
+    }
+
+    /**
+     * Attached queue, the single producer of its buffer
+     */
+    private final class AuditedQueue implements OrderQueueListener {
+
+        private final InMemoryTieredPriorityOrderQueueService orderQueueService;
+        private final AuditRingBuffer buffer;
+
+        private AuditedQueue(InMemoryTieredPriorityOrderQueueService orderQueueService, AuditRingBuffer buffer) {
+            this.orderQueueService = orderQueueService;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void onEvent(OrderQueueEvent event) {
+            if (!buffer.offer(event)) {
+                droppedEvents.incrementAndGet();
+            } else if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+                LockSupport.unpark(writerThread);
+            }
+        }
+
+    }
+
+    private static void writeToLog(OrderQueueEvent event) {
+        AUDIT_LOG.info("event={} clientId={} quantity={} tier={} position={} orderAdded={}", event.getType(),
+                event.getClientId(), event.getQuantity(), event.getTier(), event.getPosition(),
+                OrderTimestamps.fromEpochNanos(event.getOrderAddedNanos()));
+    }
+
+}
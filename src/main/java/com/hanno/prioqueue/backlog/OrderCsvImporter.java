@@ -0,0 +1,162 @@
+package com.hanno.prioqueue.backlog;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.ImportReport;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.OrderQueueService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a backlog of orders from CSV into the queue, to preload it after an outage.
+ * <p>
+ * Every row is {@code clientId,quantity[,orderAdded]}, the time the order has been added being an ISO-8601 local
+ * date and time like {@code 2021-08-01T10:15:30}, and a {@code clientId,...} header is skipped. The rows are parsed
+ * one by one and imported in batches of {@code queue.import.batchSize} with
+ * {@link OrderQueueService#importOrders(List)}, so every batch is validated as a whole and appended to the queue
+ * under a single write lock, and the memory used by the import doesn't depend on the size of the file.
+ * The orders keep their time and are sorted by it within a batch, while a later batch is queued after the earlier
+ * ones, so the backlog is expected to be sorted by time, as it is exported.
+ * <p>
+ * The rows which can't be parsed, have a time in the future or are rejected by the queue are reported with
+ * their line numbers, the first {@code MAX_REPORTED_ROWS} of them in detail.
+ */
+@Slf4j
+public class OrderCsvImporter {
+
+    private static final int MAX_REPORTED_ROWS = 1000;
+    private static final String HEADER = "clientId";
+
+    private final int batchSize;
+
+    public OrderCsvImporter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Import batch size should be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public ImportReport importOrders(Reader reader, OrderQueueService orderQueueService) throws IOException {
+        Import backlog = start(orderQueueService);
+        BufferedReader lines = new BufferedReader(reader);
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            backlog.addLine(line);
+        }
+        return backlog.finish();
+    }
+
+    /**
+     * Start an import which is fed line by line, like a request body read asynchronously
+     */
+    public Import start(OrderQueueService orderQueueService) {
+        return new Import(orderQueueService);
+    }
+
+    /**
+     * One import in progress, not safe for the concurrent use
+     */
+    public final class Import {
+
+        private final OrderQueueService orderQueueService;
+        private final long startNanos = System.nanoTime();
+        private final List<OrderItem> batch = new ArrayList<>(batchSize);
+        private final long[] batchLines = new long[batchSize];
+        private final List<ImportReport.RejectedRow> rejectedRows = new ArrayList<>();
+        private long lineNumber;
+        private long rows;
+        private long imported;
+        private long rejected;
+
+        private Import(OrderQueueService orderQueueService) {
+            this.orderQueueService = orderQueueService;
+        }
+
+        public void addLine(String line) {
+            lineNumber++;
+            String row = line.trim();
+            if (row.isEmpty() || lineNumber == 1 && row.startsWith(HEADER)) {
+                return;
+            }
+            rows++;
+            String[] fields = row.split(",", -1);
+            if (fields.length < 2 || fields.length > 3) {
+                reject(lineNumber, null, "Row should be clientId,quantity[,orderAdded]");
+                return;
+            }
+            Long clientId;
+            try {
+                clientId = Long.valueOf(fields[0].trim());
+            } catch (NumberFormatException e) {
+                reject(lineNumber, null, "Invalid client ID '" + fields[0].trim() + "'");
+                return;
+            }
+            Integer quantity;
+            try {
+                quantity = Integer.valueOf(fields[1].trim());
+            } catch (NumberFormatException e) {
+                reject(lineNumber, clientId, "Invalid quantity '" + fields[1].trim() + "'");
+                return;
+            }
+            LocalDateTime orderAdded = null;
+            if (fields.length == 3 && !fields[2].trim().isEmpty()) {
+                try {
+                    orderAdded = LocalDateTime.parse(fields[2].trim());
+                } catch (DateTimeParseException e) {
+                    reject(lineNumber, clientId, "Invalid order time '" + fields[2].trim() + "'");
+                    return;
+                }
+                if (orderAdded.isAfter(LocalDateTime.now())) {
+                    reject(lineNumber, clientId, "Order time '" + orderAdded + "' is in the future");
+                    return;
+                }
+            }
+            batchLines[batch.size()] = lineNumber;
+            batch.add(new OrderItem(clientId, quantity, orderAdded, null));
+            if (batch.size() == batchSize) {
+                flush();
+            }
+        }
+
+        public ImportReport finish() {
+            flush();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            ImportReport report = ImportReport.of(rows, imported, rejectedRows, rejected, elapsedMillis);
+            log.info("Imported {} of {} order rows in {} ms, {} orders/s", imported, rows, elapsedMillis,
+                    report.getOrdersPerSecond());
+            return report;
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<BatchOrderResult> results = orderQueueService.importOrders(batch);
+            for (int i = 0; i < results.size(); i++) {
+                BatchOrderResult result = results.get(i);
+                if (result.isAccepted()) {
+                    imported++;
+                } else {
+                    reject(batchLines[i], result.getClientId(), result.getError());
+                }
+            }
+            batch.clear();
+        }
+
+        private void reject(long line, Long clientId, String error) {
+            rejected++;
+            if (rejectedRows.size() < MAX_REPORTED_ROWS) {
+                rejectedRows.add(ImportReport.RejectedRow.of(line, clientId, error));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderAging;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Background promotion of the orders which have waited too long in the lower priority tiers of the unsharded queue,
+ * the shards are promoted by {@link ShardingConfig}
+ */
+@Configuration
+@ConditionalOnExpression("${queue.aging.promoteAfterMs} > 0 and ${queue.shards} == 1")
+public class AgingConfig {
+
+    @Value("${queue.aging.tickMs}")
+    private long tickMillis;
+
+    @Bean(destroyMethod = "close")
+    public OrderAging orderAging(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) {
+        OrderAging aging = new OrderAging(tickMillis);
+        aging.attach(orderQueueService);
+        FunctionCounter.builder("orderqueue.promoted", orderQueueService,
+                        InMemoryTieredPriorityOrderQueueService::getPromotedOrders)
+                .description("Number of the orders promoted to a higher tier by their age")
+                .register(meterRegistry);
+        return aging;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.audit.OrderAuditLog;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.ShardedOrderQueueService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+
+/**
+ * Writes the audit stream of the tiered order queue, or of every shard with {@code queue.shards} above one,
+ * see {@link OrderAuditLog}. Disabled with {@code queue.audit.enabled=false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "queue.audit.enabled", havingValue = "true", matchIfMissing = true)
+public class AuditConfig {
+
+    @Value("${queue.audit.bufferSize}")
+    private int bufferSize;
+
+    @Bean(destroyMethod = "close")
+    public OrderAuditLog orderAuditLog(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            ObjectProvider<ShardedOrderQueueService> shardedOrderQueue,
+            MeterRegistry meterRegistry) {
+        OrderAuditLog auditLog = new OrderAuditLog(bufferSize);
+        // The sharded queue is there only with queue.shards above one, see ShardingConfig
+        ShardedOrderQueueService sharded = shardedOrderQueue.getIfAvailable();
+        for (InMemoryTieredPriorityOrderQueueService queue
+                : sharded != null ? sharded.getShards() : Collections.singletonList(orderQueueService)) {
+            auditLog.attach(queue);
+        }
+        Gauge.builder("orderqueue.audit.dropped", auditLog, OrderAuditLog::getDroppedEvents)
+                .description("Number of audit events dropped because the writer was behind")
+                .register(meterRegistry);
+        return auditLog;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.ExpiringOrderQueueService;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderExpiry;
+import com.hanno.prioqueue.service.ShardedOrderQueueService;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+
+/**
+ * Eviction of the orders which have outlived their time to live, see {@link ExpiringOrderQueueService}
+ */
+@Configuration
+public class ExpiryConfig {
+
+    @Value("${queue.client.maxId}")
+    private long maxClientId;
+
+    @Value("${queue.expiry.ttlSeconds}")
+    private long ttlSeconds;
+
+    @Value("${queue.expiry.tickMs}")
+    private long tickMillis;
+
+    @Bean
+    @Qualifier("ExpiringOrderQueue")
+    public ExpiringOrderQueueService expiringOrderQueue(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            ObjectProvider<ShardedOrderQueueService> shardedOrderQueue,
+            MeterRegistry meterRegistry) {
+        // The sharded queue is there only with queue.shards above one, see ShardingConfig
+        ShardedOrderQueueService sharded = shardedOrderQueue.getIfAvailable();
+        ExpiringOrderQueueService expiring = new ExpiringOrderQueueService(
+                sharded != null ? sharded : orderQueueService, maxClientId, ttlSeconds, tickMillis);
+        for (InMemoryTieredPriorityOrderQueueService queue
+                : sharded != null ? sharded.getShards() : Collections.singletonList(orderQueueService)) {
+            expiring.attach(queue);
+        }
+        FunctionCounter.builder("orderqueue.orders", expiring, ExpiringOrderQueueService::getExpiredOrders)
+                .description("Number of processed orders")
+                .tag("outcome", "expired")
+                .tag(StorehouseRegistry.STOREHOUSE_TAG, StorehouseRegistry.DEFAULT_STOREHOUSE)
+                .register(meterRegistry);
+        return expiring;
+    }
+
+    @Bean(destroyMethod = "close")
+    public OrderExpiry orderExpiry(@Qualifier("ExpiringOrderQueue") ExpiringOrderQueueService expiringOrderQueue) {
+        OrderExpiry expiry = new OrderExpiry(tickMillis);
+        expiry.attach(expiringOrderQueue);
+        return expiry;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.backlog.OrderCsvImporter;
+import com.hanno.prioqueue.entity.ImportReport;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Bulk import of the order backlogs from CSV, see {@link OrderCsvImporter}
+ */
+@Slf4j
+@Configuration
+public class ImportConfig {
+
+    private static final String IMPORTED_MARKER = "imported.sha256";
+
+    @Value("${queue.import.batchSize}")
+    private int batchSize;
+
+    @Value("${queue.journal.enabled}")
+    private boolean journalEnabled;
+
+    @Value("${queue.journal.dir}")
+    private String journalDirectory;
+
+    @Bean
+    public OrderCsvImporter orderCsvImporter() {
+        return new OrderCsvImporter(batchSize);
+    }
+
+    /**
+     * Imports {@code queue.import.file} into {@code queue.import.storehouse} once the application has started,
+     * so the imported orders are journaled and replicated like the added ones. With the journal enabled the queue
+     * outlives the restarts, so the checksum of the imported file is recorded next to the journal of the storehouse,
+     * and the same file is not imported again, which would bring back its delivered and cancelled orders.
+     */
+    @Bean
+    @ConditionalOnExpression("!'${queue.import.file}'.isEmpty()")
+    public ApplicationRunner startupImport(OrderCsvImporter importer, StorehouseRegistry storehouses,
+                                           @Value("${queue.import.file}") String file,
+                                           @Value("${queue.import.storehouse}") String storehouse) {
+        return args -> {
+            Path path = Paths.get(file);
+            Path marker = null;
+            String checksum = null;
+            if (journalEnabled) {
+                marker = journalDirectory(storehouse).resolve(IMPORTED_MARKER);
+                checksum = checksum(path);
+                if (Files.exists(marker) && Files.readString(marker).trim().equals(checksum)) {
+                    log.info("Skipping the import of {}, it has been imported into the journaled queue already", file);
+                    return;
+                }
+            }
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                ImportReport report = importer.importOrders(reader, storehouses.get(storehouse).getOrderQueueService());
+                if (report.getRejected() > 0) {
+                    log.warn("{} of {} order rows of {} have been rejected: {}", report.getRejected(),
+                            report.getRows(), file, report.getRejectedRows());
+                }
+            }
+            if (marker != null) {
+                Path temporary = marker.resolveSibling(IMPORTED_MARKER + ".tmp");
+                Files.writeString(temporary, checksum);
+                Files.move(temporary, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        };
+    }
+
+    /**
+     * See {@link StorehouseConfig}, the storehouses besides the default one have the journals in subdirectories
+     */
+    private Path journalDirectory(String storehouse) {
+        return StorehouseRegistry.DEFAULT_STOREHOUSE.equals(storehouse)
+                ? Paths.get(journalDirectory) : Paths.get(journalDirectory, storehouse);
+    }
+
+    private static String checksum(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = new DigestInputStream(Files.newInputStream(path), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+}
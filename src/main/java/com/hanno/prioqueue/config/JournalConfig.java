@@ -0,0 +1,63 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.journal.OrderJournal;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Makes the tiered order queue durable, see {@link OrderJournal}. Enabled with {@code queue.journal.enabled=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "queue.journal.enabled", havingValue = "true")
+public class JournalConfig {
+
+    @Value("${queue.journal.dir}")
+    private String directory;
+
+    @Value("${queue.journal.segmentSize}")
+    private int segmentSize;
+
+    @Value("${queue.journal.flushIntervalMs}")
+    private long flushIntervalMillis;
+
+    @Value("${queue.journal.snapshotIntervalMs}")
+    private long snapshotIntervalMillis;
+
+    @Bean(destroyMethod = "close")
+    public OrderJournal orderJournal(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) throws IOException {
+        OrderJournal journal = new OrderJournal(Paths.get(directory), segmentSize, flushIntervalMillis,
+                snapshotIntervalMillis);
+        journal.attach(orderQueueService);
+        Gauge.builder("orderqueue.journal.recovery", journal, OrderJournal::getRecoveryTimeMillis)
+                .description("Time spent restoring the queue from the journal on startup")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("orderqueue.journal.recovered", journal, OrderJournal::getRecoveredOrders)
+                .description("Number of orders restored from the journal on startup")
+                .register(meterRegistry);
+        return journal;
+    }
+
+    /**
+     * Down while the journal doesn't record the changes of the queue, see {@link OrderJournal#getFailure()}
+     */
+    @Bean
+    public HealthIndicator orderJournalHealthIndicator(OrderJournal orderJournal) {
+        return () -> orderJournal.getFailure() == null ? Health.up().build()
+                : Health.down(orderJournal.getFailure()).build();
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.ReservationSweeper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Background return of the expired cart reservations of the pickers working in parallel
+ */
+@Configuration
+@ConditionalOnExpression("${queue.shards} == 1")
+public class PickingConfig {
+
+    @Value("${joe.reservation.sweepIntervalMs}")
+    private long sweepIntervalMillis;
+
+    @Bean(destroyMethod = "close")
+    public ReservationSweeper reservationSweeper(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) {
+        ReservationSweeper sweeper = new ReservationSweeper(sweepIntervalMillis);
+        sweeper.attach(orderQueueService);
+        Gauge.builder("orderqueue.pickers", orderQueueService, InMemoryTieredPriorityOrderQueueService::getActivePickers)
+                .description("Number of the pickers which have claimed a cart recently")
+                .register(meterRegistry);
+        return sweeper;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.RestMapping;
+import com.hanno.prioqueue.profiling.RequestCostEndpoint;
+import com.hanno.prioqueue.profiling.RequestCostInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Allocation and CPU time accounting of the order queue API requests, see {@link RequestCostInterceptor}.
+ * Enabled with {@code queue.profiling.enabled=true} on the Spring MVC stack.
+ */
+@Configuration
+@ConditionalOnProperty(name = "queue.profiling.enabled", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ProfilingConfig implements WebMvcConfigurer {
+
+    private final ObjectProvider<RequestCostInterceptor> interceptor;
+
+    public ProfilingConfig(ObjectProvider<RequestCostInterceptor> interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @Bean
+    public RequestCostInterceptor requestCostInterceptor(MeterRegistry meterRegistry) {
+        return new RequestCostInterceptor(meterRegistry);
+    }
+
+    @Bean
+    public RequestCostEndpoint requestCostEndpoint(RequestCostInterceptor requestCostInterceptor) {
+        return new RequestCostEndpoint(requestCostInterceptor);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(interceptor.getObject()).addPathPatterns("/" + RestMapping.ORDER + "/**",
+                "/" + RestMapping.STOREHOUSE + "/*/order/**");
+    }
+
+}
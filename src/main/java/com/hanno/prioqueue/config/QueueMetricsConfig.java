@@ -0,0 +1,23 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.MeteredOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class QueueMetricsConfig {
+
+    @Bean
+    @Qualifier("MeteredOrderQueue")
+    public OrderQueueService meteredOrderQueue(@Qualifier("ExpiringOrderQueue") OrderQueueService orderQueueService,
+                                               MeterRegistry meterRegistry) {
+        return new MeteredOrderQueueService(orderQueueService, meterRegistry,
+                Tags.of(StorehouseRegistry.STOREHOUSE_TAG, StorehouseRegistry.DEFAULT_STOREHOUSE));
+    }
+
+}
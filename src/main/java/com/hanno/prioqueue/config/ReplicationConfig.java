@@ -0,0 +1,73 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.replication.ReplicationFollower;
+import com.hanno.prioqueue.replication.ReplicationLeader;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Replication of the tiered order queue to a hot standby, see {@link ReplicationLeader} and
+ * {@link ReplicationFollower}. Enabled with {@code queue.replication.role=leader} or {@code follower}.
+ */
+@Configuration
+public class ReplicationConfig {
+
+    @Value("${queue.replication.host}")
+    private String host;
+
+    @Value("${queue.replication.port}")
+    private int port;
+
+    @Value("${queue.replication.maxBatchSize}")
+    private int maxBatchSize;
+
+    @Value("${queue.replication.maxPendingEvents}")
+    private int maxPendingEvents;
+
+    @Value("${queue.replication.reconnectMs}")
+    private long reconnectMillis;
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "queue.replication.role", havingValue = "leader")
+    public ReplicationLeader replicationLeader(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) throws IOException {
+        ReplicationLeader leader = new ReplicationLeader(InetAddress.getByName(host), port, maxBatchSize,
+                maxPendingEvents);
+        leader.attach(orderQueueService);
+        Gauge.builder("orderqueue.replication.lag", leader, ReplicationLeader::getLagEvents)
+                .description("Number of the queue changes the follower has not acknowledged yet")
+                .register(meterRegistry);
+        Gauge.builder("orderqueue.replication.lag.time", leader, ReplicationLeader::getLagMillis)
+                .description("Age of the oldest queue change the follower has not acknowledged yet")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("orderqueue.replication.followers", leader, l -> l.isFollowerConnected() ? 1 : 0)
+                .description("Number of the connected followers")
+                .register(meterRegistry);
+        return leader;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "queue.replication.role", havingValue = "follower")
+    public ReplicationFollower replicationFollower(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) {
+        ReplicationFollower follower = new ReplicationFollower(host, port, reconnectMillis);
+        follower.attach(orderQueueService);
+        Gauge.builder("orderqueue.replication.applied", follower, ReplicationFollower::getAppliedEvents)
+                .description("Sequence of the last leader's change applied by the follower")
+                .register(meterRegistry);
+        return follower;
+    }
+
+}
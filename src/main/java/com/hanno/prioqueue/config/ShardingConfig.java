@@ -0,0 +1,72 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderAging;
+import com.hanno.prioqueue.service.ShardedOrderQueueService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharded queue served by the API instead of the single one, when {@code queue.shards} is above one
+ */
+@Configuration
+@ConditionalOnExpression("${queue.shards} > 1")
+public class ShardingConfig {
+
+    @Value("${queue.shards}")
+    private int shards;
+
+    @Value("${queue.aging.tickMs}")
+    private long agingTickMillis;
+
+    @Value("${queue.journal.enabled}")
+    private boolean journalEnabled;
+
+    @Value("${queue.replication.role}")
+    private String replicationRole;
+
+    /**
+     * The journal and the replication follow the changes of a single queue, so they would see only the template
+     * queue, which stays empty
+     */
+    @Bean
+    public ShardedOrderQueueService shardedOrderQueue(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        List<String> unsupported = new ArrayList<>();
+        if (journalEnabled) {
+            unsupported.add("queue.journal.enabled=true");
+        }
+        if (!"none".equals(replicationRole)) {
+            unsupported.add("queue.replication.role=" + replicationRole);
+        }
+        if (!unsupported.isEmpty()) {
+            throw new IllegalStateException("queue.shards=" + shards + " cannot be combined with "
+                    + String.join(", ", unsupported));
+        }
+        return new ShardedOrderQueueService(orderQueueService, shards);
+    }
+
+    @Bean(destroyMethod = "close")
+    public OrderAging shardAging(ShardedOrderQueueService shardedOrderQueue, MeterRegistry meterRegistry) {
+        OrderAging aging = new OrderAging(agingTickMillis);
+        for (InMemoryTieredPriorityOrderQueueService shard : shardedOrderQueue.getShards()) {
+            if (shard.isAging()) {
+                aging.attach(shard);
+            }
+        }
+        FunctionCounter.builder("orderqueue.promoted", shardedOrderQueue, sharded -> sharded.getShards().stream()
+                        .mapToLong(InMemoryTieredPriorityOrderQueueService::getPromotedOrders).sum())
+                .description("Number of the orders promoted to a higher tier by their age")
+                .register(meterRegistry);
+        return aging;
+    }
+
+}
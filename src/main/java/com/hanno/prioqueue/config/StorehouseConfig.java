@@ -0,0 +1,164 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.journal.OrderJournal;
+import com.hanno.prioqueue.service.ExpiringOrderQueueService;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.MeteredOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriptions;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Storehouses served besides the default one, listed in {@code queue.storehouses}. The limits of a storehouse
+ * are set with {@code queue.storehouse.<id>.client.maxId}, {@code queue.storehouse.<id>.cart.capacity} and
+ * {@code queue.storehouse.<id>.cart.pickupTimeout}, and default to the ones of the default storehouse.
+ * <p>
+ * Every storehouse expires its orders like the default one, and with {@code queue.journal.enabled=true} has
+ * a journal of its own in the subdirectory of {@code queue.journal.dir} named after the storehouse.
+ */
+@Configuration
+public class StorehouseConfig {
+
+    @Value("${queue.storehouses}")
+    private String[] storehouseIds;
+
+    @Value("${queue.client.maxId}")
+    private long maxClientId;
+
+    @Value("${joe.cart.capacity}")
+    private int cartCapacity;
+
+    @Value("${joe.cart.pickupTimeout}")
+    private long pickupTimeoutSeconds;
+
+    @Value("${joe.reservation.sweepIntervalMs}")
+    private long sweepIntervalMillis;
+
+    @Value("${queue.aging.tickMs}")
+    private long agingTickMillis;
+
+    @Value("${queue.expiry.ttlSeconds}")
+    private long ttlSeconds;
+
+    @Value("${queue.expiry.tickMs}")
+    private long expiryTickMillis;
+
+    @Value("${queue.journal.enabled}")
+    private boolean journalEnabled;
+
+    @Value("${queue.journal.dir}")
+    private String journalDirectory;
+
+    @Value("${queue.journal.segmentSize}")
+    private int journalSegmentSize;
+
+    @Value("${queue.journal.flushIntervalMs}")
+    private long journalFlushIntervalMillis;
+
+    @Value("${queue.journal.snapshotIntervalMs}")
+    private long journalSnapshotIntervalMillis;
+
+    @Value("${queue.replication.role}")
+    private String replicationRole;
+
+    /**
+     * The replication follows the queue of the default storehouse only, so a follower would lose the others
+     */
+    @Bean(destroyMethod = "close")
+    public StorehouseRegistry storehouseRegistry(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            @Qualifier("MeteredOrderQueue") OrderQueueService meteredOrderQueue,
+            ObjectProvider<ClientOrderStateSubscriptions> subscriptions,
+            Environment environment,
+            MeterRegistry meterRegistry) throws IOException {
+        StorehouseRegistry registry = new StorehouseRegistry(sweepIntervalMillis, agingTickMillis, expiryTickMillis);
+        // There are no subscriptions with queue.shards above one, see SubscriptionConfig
+        registry.registerDefault(meteredOrderQueue, subscriptions.getIfAvailable());
+        if (storehouseIds.length > 0 && !"none".equals(replicationRole)) {
+            registry.close();
+            throw new IllegalStateException("queue.storehouses=" + String.join(",", storehouseIds)
+                    + " cannot be combined with queue.replication.role=" + replicationRole);
+        }
+        try {
+            for (String storehouseId : storehouseIds) {
+                register(registry, storehouseId.trim(), orderQueueService, environment, meterRegistry);
+            }
+        } catch (IOException | RuntimeException e) {
+            registry.close();
+            throw e;
+        }
+        return registry;
+    }
+
+    /**
+     * Down while the journal of any storehouse besides the default one doesn't record the changes,
+     * see {@link OrderJournal#getFailure()}
+     */
+    @Bean
+    @ConditionalOnProperty(name = "queue.journal.enabled", havingValue = "true")
+    public HealthIndicator storehouseJournalsHealthIndicator(StorehouseRegistry storehouseRegistry) {
+        return () -> {
+            Health.Builder health = Health.up();
+            for (Map.Entry<String, OrderJournal> journal : storehouseRegistry.getJournals().entrySet()) {
+                Exception failure = journal.getValue().getFailure();
+                if (failure != null) {
+                    health.down().withDetail(journal.getKey(), failure.toString());
+                }
+            }
+            return health.build();
+        };
+    }
+
+    private void register(StorehouseRegistry registry, String id,
+                          InMemoryTieredPriorityOrderQueueService orderQueueService, Environment environment,
+                          MeterRegistry meterRegistry) throws IOException {
+        StorehouseRegistry.validateId(id);
+        String prefix = "queue.storehouse." + id;
+        long storehouseMaxClientId = environment.getProperty(prefix + ".client.maxId", Long.class, maxClientId);
+        long pickupTimeout = environment.getProperty(prefix + ".cart.pickupTimeout", Long.class, pickupTimeoutSeconds);
+        InMemoryTieredPriorityOrderQueueService storehouseQueue = orderQueueService.newStorehouse(
+                storehouseMaxClientId,
+                environment.getProperty(prefix + ".cart.capacity", Integer.class, cartCapacity),
+                pickupTimeout);
+        ExpiringOrderQueueService expiringQueue = new ExpiringOrderQueueService(storehouseQueue,
+                storehouseMaxClientId, ttlSeconds, expiryTickMillis);
+        Tags tags = Tags.of(StorehouseRegistry.STOREHOUSE_TAG, id);
+        OrderJournal journal = null;
+        try {
+            if (journalEnabled) {
+                journal = new OrderJournal(Paths.get(journalDirectory, id), journalSegmentSize,
+                        journalFlushIntervalMillis, journalSnapshotIntervalMillis);
+                journal.attach(storehouseQueue);
+            }
+            registry.register(id, storehouseQueue, expiringQueue,
+                    new MeteredOrderQueueService(expiringQueue, meterRegistry, tags), journal, pickupTimeout);
+        } catch (IOException | RuntimeException e) {
+            if (journal != null) {
+                journal.close();
+            }
+            throw e;
+        }
+        FunctionCounter.builder("orderqueue.orders", expiringQueue, ExpiringOrderQueueService::getExpiredOrders)
+                .description("Number of processed orders")
+                .tag("outcome", "expired")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.hanno.prioqueue.config;
+
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriptions;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * State subscriptions of the default storehouse, which follow the changes of the unsharded queue only
+ */
+@Configuration
+@ConditionalOnExpression("${queue.shards} == 1")
+public class SubscriptionConfig {
+
+    @Value("${joe.cart.pickupTimeout}")
+    private long pickupTimeoutSeconds;
+
+    @Bean(destroyMethod = "close")
+    public ClientOrderStateSubscriptions clientOrderStateSubscriptions(
+            @Qualifier("TieredPriorityOrderQueue") InMemoryTieredPriorityOrderQueueService orderQueueService,
+            MeterRegistry meterRegistry) {
+        ClientOrderStateSubscriptions subscriptions = new ClientOrderStateSubscriptions(pickupTimeoutSeconds);
+        subscriptions.attach(orderQueueService);
+        Gauge.builder("orderqueue.subscriptions", subscriptions, ClientOrderStateSubscriptions::getSubscriptionsNumber)
+                .description("Number of the clients subscribed to their order state")
+                .register(meterRegistry);
+        return subscriptions;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.hanno.prioqueue.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.hanno.prioqueue.dto.OrderDto;
+import com.hanno.prioqueue.dto.OrderMapper;
+import com.hanno.prioqueue.service.OrderQueueService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized response of {@code GET /all} for the current version of every storehouse queue, see
+ * {@link OrderQueueService#getVersion()}. The dashboards poll the whole queue every few seconds while it usually
+ * stays the same, so a burst of the polls of the same version costs a single read and serialization of the queue,
+ * and with {@code queue.all.gzip=true} a single compression. The response carries the version as its ETag, so
+ * a poll with the same {@code If-None-Match} is answered with 304 by the controllers before the queue is read.
+ * <p>
+ * A queue which is not versioned is read and serialized on every request.
+ */
+@Component
+public class AllOrdersResponseCache {
+
+    private static final String GZIP = "gzip";
+
+    private final OrderMapper mapper;
+    private final ObjectWriter writer;
+    private final Map<OrderQueueService, Slot> slots = new ConcurrentHashMap<>();
+
+    @Value("${queue.all.gzip}")
+    private boolean gzipEnabled;
+
+    @Autowired
+    public AllOrdersResponseCache(OrderMapper mapper, ObjectMapper objectMapper) {
+        this.mapper = mapper;
+        this.writer = objectMapper.writerFor(new TypeReference<List<OrderDto>>() {
+        });
+    }
+
+    /**
+     * @param acceptEncoding {@code Accept-Encoding} header of the request, may be null
+     * @return true if the response is compressed for the request
+     */
+    public boolean isGzip(String acceptEncoding) {
+        return gzipEnabled && acceptEncoding != null && acceptEncoding.contains(GZIP);
+    }
+
+    /**
+     * @return ETag of the queue version, the compressed response being another representation, or null if
+     * the queue is not versioned
+     */
+    public static String etag(long version, boolean gzip) {
+        if (version < 0) {
+            return null;
+        }
+        return "\"" + version + (gzip ? "-" + GZIP : "") + "\"";
+    }
+
+    public static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    /**
+     * @param version version of the queue read before checking {@code If-None-Match}
+     */
+    public ResponseEntity<byte[]> response(OrderQueueService orderQueueService, long version, boolean gzip) {
+        Entry entry = get(orderQueueService, version);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON);
+        String etag = etag(version, gzip);
+        if (etag != null) {
+            response.eTag(etag);
+        }
+        if (gzipEnabled) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, GZIP).body(entry.gzip());
+        }
+        return response.body(entry.json);
+    }
+
+    /**
+     * The concurrent requests of the same version wait for the one which serializes the queue. The queue may change
+     * while it is read, then the response is newer than the version and it is not cached.
+     */
+    private Entry get(OrderQueueService orderQueueService, long version) {
+        Slot slot = slots.computeIfAbsent(orderQueueService, queue -> new Slot());
+        Entry entry = slot.entry;
+        if (version >= 0 && entry != null && entry.version == version) {
+            return entry;
+        }
+        synchronized (slot) {
+            entry = slot.entry;
+            if (version >= 0 && entry != null && entry.version == version) {
+                return entry;
+            }
+            try {
+                entry = new Entry(version, writer.writeValueAsBytes(mapper.toDtos(orderQueueService.getAllOrders())));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize the orders", e);
+            }
+            if (version >= 0 && orderQueueService.getVersion() == version) {
+                slot.entry = entry;
+            }
+            return entry;
+        }
+    }
+
+    private static final class Slot {
+
+        volatile Entry entry;
+
+    }
+
+    private static final class Entry {
+
+        final long version;
+        final byte[] json;
+        private byte[] gzip;
+
+        Entry(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+
+        synchronized byte[] gzip() {
+            if (gzip == null) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+                try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+                    output.write(json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                gzip = compressed.toByteArray();
+            }
+            return gzip;
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.hanno.prioqueue.controller;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriber;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Emits the order states into a {@link FluxSink} as the same {@code state} and {@code removed} events
+ * as {@link SseClientOrderStateSubscriber}. The sink never blocks the dispatcher, a slow client gets
+ * only the latest state according to the overflow strategy of the sink.
+ */
+class FluxClientOrderStateSubscriber implements ClientOrderStateSubscriber {
+
+    private final FluxSink<ServerSentEvent<Object>> sink;
+
+    FluxClientOrderStateSubscriber(FluxSink<ServerSentEvent<Object>> sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onStateChanged(ClientOrderState state) {
+        sink.next(ServerSentEvent.builder((Object) state).event("state").build());
+    }
+
+    @Override
+    public void onOrderRemoved(long clientId) {
+        sink.next(ServerSentEvent.builder((Object) clientId).event("removed").build());
+        sink.complete();
+    }
+
+}
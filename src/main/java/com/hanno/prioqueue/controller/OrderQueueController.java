@@ -1,73 +1,243 @@
 package com.hanno.prioqueue.controller;
 
 import com.hanno.prioqueue.RestMapping;
+import com.hanno.prioqueue.backlog.OrderCsvImporter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.hanno.prioqueue.dto.OrderDto;
+import com.hanno.prioqueue.dto.OrderMapper;
+import com.hanno.prioqueue.dto.OrderPageDto;
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
 import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.ImportReport;
 import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
 import com.hanno.prioqueue.exception.InvalidOrderParameterException;
 import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriptions;
 import lombok.extern.slf4j.Slf4j;
-import org.dozer.Mapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Order queue API served by Spring MVC, see {@link ReactiveOrderQueueController} for the reactive stack
+ */
 @Slf4j
 @RestController
-@RequestMapping(RestMapping.ORDER)
+@RequestMapping({RestMapping.ORDER, RestMapping.STOREHOUSE_ORDER})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class OrderQueueController {
 
-    private final OrderQueueService orderQueueService;
-    private final Mapper mapper;
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final String CSV_MEDIA_TYPE = "text/csv";
+
+    private final StorehouseRegistry storehouses;
+    private final OrderMapper mapper;
+    private final ObjectMapper objectMapper;
+    private final AllOrdersResponseCache allOrdersCache;
+    private final OrderCsvImporter importer;
+
+    @Value("${queue.page.maxLimit}")
+    private int maxPageLimit;
+
+    @Value("${queue.subscription.timeoutMs}")
+    private long subscriptionTimeoutMillis;
 
     @Autowired
-    public OrderQueueController(@Qualifier("CustomPriorityOrderQueue") OrderQueueService orderQueueService, Mapper mapper) {
-        this.orderQueueService = orderQueueService;
+    public OrderQueueController(StorehouseRegistry storehouses, OrderMapper mapper, ObjectMapper objectMapper,
+                                AllOrdersResponseCache allOrdersCache, OrderCsvImporter importer) {
+        this.storehouses = storehouses;
         this.mapper = mapper;
+        this.objectMapper = objectMapper;
+        this.allOrdersCache = allOrdersCache;
+        this.importer = importer;
     }
 
-    @GetMapping("all")
-    List<OrderDto> getAllOrders() {
-        return convertToDto(orderQueueService.getAllOrders());
+    /**
+     * Answered with 304 without reading the queue if it has not changed since the ETag of the client,
+     * see {@link AllOrdersResponseCache}
+     */
+    @GetMapping(value = "all", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<byte[]> getAllOrders(@PathVariable(required = false) String storehouseId,
+                                        WebRequest request) {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        long version = orderQueueService.getVersion();
+        boolean gzip = allOrdersCache.isGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String etag = AllOrdersResponseCache.etag(version, gzip);
+        if (etag != null && request.checkNotModified(etag)) {
+            return AllOrdersResponseCache.notModified(etag);
+        }
+        return allOrdersCache.response(orderQueueService, version, gzip);
+    }
+
+    @GetMapping("all/page")
+    OrderPageDto getOrdersPage(@PathVariable(required = false) String storehouseId,
+                               @RequestParam(required = false) String cursor,
+                               @RequestParam(defaultValue = "100") int limit) throws InvalidOrderParameterException {
+        if (limit > maxPageLimit) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Page limit '%d' should be in range [1-%d]", limit, maxPageLimit));
+        }
+        OrderPage page = queue(storehouseId).getOrders(cursor, limit);
+        return new OrderPageDto(convertToDto(page.getOrders()), page.getNextCursor());
+    }
+
+    /**
+     * Streams all the orders as newline delimited JSON. The queue is read page by page while writing
+     * the response, so the memory used by the request doesn't depend on the queue length.
+     * Orders added, delivered or cancelled during the streaming may or may not be included.
+     */
+    @GetMapping(value = "all/stream", produces = NDJSON_MEDIA_TYPE)
+    ResponseEntity<StreamingResponseBody> streamAllOrders(@PathVariable(required = false) String storehouseId) {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        ObjectWriter orderWriter = objectMapper.writerFor(OrderDto.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        StreamingResponseBody body = outputStream -> {
+            String cursor = null;
+            do {
+                OrderPage page;
+                try {
+                    page = orderQueueService.getOrders(cursor, maxPageLimit);
+                } catch (InvalidOrderParameterException e) {
+                    throw new IllegalStateException(e);
+                }
+                for (OrderItem order : page.getOrders()) {
+                    orderWriter.writeValue(outputStream, mapper.toDto(order));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_MEDIA_TYPE)).body(body);
     }
 
     @PutMapping
-    ResponseEntity<OrderItem> addOrder(@RequestBody OrderDto order) throws InvalidOrderParameterException {
-        OrderItem addedOrder = orderQueueService.addOrder(mapper.map(order, OrderItem.class));
+    ResponseEntity<OrderItem> addOrder(@PathVariable(required = false) String storehouseId,
+                                       @RequestBody OrderDto order) throws InvalidOrderParameterException {
+        OrderItem addedOrder = queue(storehouseId).addOrder(mapper.toOrderItem(order));
         return new ResponseEntity<>(addedOrder, HttpStatus.OK);
     }
 
+    @PutMapping("batch")
+    List<BatchOrderResult> addOrders(@PathVariable(required = false) String storehouseId,
+                                     @RequestBody List<OrderDto> orders) {
+        return queue(storehouseId).addOrders(mapper.toOrderItems(orders));
+    }
+
+    /**
+     * Imports a backlog of orders from the CSV body, which is parsed while it is read, see {@link OrderCsvImporter}
+     */
+    @PostMapping(value = "import", consumes = CSV_MEDIA_TYPE)
+    ImportReport importOrders(@PathVariable(required = false) String storehouseId, InputStream body)
+            throws IOException {
+        return importer.importOrders(new InputStreamReader(body, StandardCharsets.UTF_8), queue(storehouseId));
+    }
+
+    /**
+     * The state changes only with the queue, so it is answered with 304 without reading the queue
+     * if the queue has not changed since the ETag of the client
+     */
     @GetMapping("state")
-    ResponseEntity<ClientOrderState> checkClientState(@RequestParam Long clientId) throws InvalidOrderParameterException {
+    ResponseEntity<ClientOrderState> checkClientState(@PathVariable(required = false) String storehouseId,
+                                                      @RequestParam Long clientId, WebRequest request)
+            throws InvalidOrderParameterException {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        String etag = AllOrdersResponseCache.etag(orderQueueService.getVersion(), false);
+        if (etag != null && request.checkNotModified(etag)) {
+            return AllOrdersResponseCache.notModified(etag);
+        }
         ClientOrderState orderState = orderQueueService.getClientOrderState(clientId);
-        return new ResponseEntity<>(orderState, orderState == null ? HttpStatus.NOT_FOUND : HttpStatus.OK);
+        return ResponseEntity.status(orderState == null ? HttpStatus.NOT_FOUND : HttpStatus.OK).eTag(etag).body(orderState);
+    }
+
+    /**
+     * Streams the state of the client's order as Server-Sent Events, see {@link SseClientOrderStateSubscriber}.
+     * A new state is sent only when the order has moved, so the clients don't need to poll {@code state}.
+     */
+    @GetMapping(value = "state/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    ResponseEntity<SseEmitter> subscribeClientState(@PathVariable(required = false) String storehouseId,
+                                                    @RequestParam Long clientId) throws InvalidOrderParameterException {
+        StorehouseRegistry.Storehouse storehouse = storehouses.get(storehouseId);
+        if (storehouse.getOrderQueueService().getClientOrderState(clientId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(subscriptionTimeoutMillis);
+        ClientOrderStateSubscriptions.Subscription subscription =
+                storehouse.getSubscriptions().subscribe(clientId, new SseClientOrderStateSubscriber(emitter));
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
     }
 
     @GetMapping("delivery")
-    List<OrderDto> getNextDelivery() {
-        return convertToDto(orderQueueService.getNextDelivery());
+    List<OrderDto> getNextDelivery(@PathVariable(required = false) String storehouseId) {
+        return convertToDto(queue(storehouseId).getNextDelivery());
+    }
+
+    /**
+     * Claim the next cart for one of the pickers working in parallel, see {@link OrderQueueService#reserveNextDelivery}
+     */
+    @PutMapping("delivery/reservation")
+    ResponseEntity<CartReservation> reserveNextDelivery(@PathVariable(required = false) String storehouseId,
+                                                        @RequestParam String pickerId)
+            throws InvalidOrderParameterException {
+        CartReservation reservation = queue(storehouseId).reserveNextDelivery(pickerId);
+        return reservation == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(reservation);
+    }
+
+    @PostMapping("delivery/reservation/confirm")
+    ResponseEntity<List<OrderDto>> confirmDelivery(@PathVariable(required = false) String storehouseId,
+                                                   @RequestParam Long reservationId) {
+        List<OrderItem> delivery = queue(storehouseId).confirmDelivery(reservationId);
+        return delivery == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(convertToDto(delivery));
+    }
+
+    @DeleteMapping("delivery/reservation")
+    ResponseEntity<Void> returnDelivery(@PathVariable(required = false) String storehouseId,
+                                        @RequestParam Long reservationId) {
+        return queue(storehouseId).returnDelivery(reservationId)
+                ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
     }
 
     @DeleteMapping
-    void cancelOrder(@RequestParam Long clientId) throws InvalidOrderParameterException {
-        orderQueueService.removeOrder(clientId);
+    void cancelOrder(@PathVariable(required = false) String storehouseId,
+                     @RequestParam Long clientId) throws InvalidOrderParameterException {
+        queue(storehouseId).removeOrder(clientId);
+    }
+
+    private OrderQueueService queue(String storehouseId) {
+        return storehouses.get(storehouseId).getOrderQueueService();
     }
 
     private List<OrderDto> convertToDto(List<OrderItem> orders) {
-        return orders.stream()
-                .map(o -> mapper.map(o, OrderDto.class))
-                .collect(Collectors.toList());
+        return mapper.toDtos(orders);
     }
 
 }
@@ -0,0 +1,240 @@
+package com.hanno.prioqueue.controller;
+
+import com.hanno.prioqueue.RestMapping;
+import com.hanno.prioqueue.backlog.OrderCsvImporter;
+import com.hanno.prioqueue.dto.OrderDto;
+import com.hanno.prioqueue.dto.OrderMapper;
+import com.hanno.prioqueue.dto.OrderPageDto;
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.ImportReport;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.storehouse.StorehouseRegistry;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Order queue API served by WebFlux on the same routes as {@link OrderQueueController}.
+ * <p>
+ * The queue operations take microseconds and never wait for I/O, so they run right on the event loop.
+ * The streaming endpoints hold no thread per connection and follow the demand of the client: the orders are
+ * read page by page only when the client is ready for more, and a client which reads the order states slower
+ * than they change gets only the latest one.
+ */
+@Slf4j
+@RestController
+@RequestMapping({RestMapping.ORDER, RestMapping.STOREHOUSE_ORDER})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveOrderQueueController {
+
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final String CSV_MEDIA_TYPE = "text/csv";
+    private static final String FIRST_PAGE = "";
+
+    private final StorehouseRegistry storehouses;
+    private final OrderMapper mapper;
+    private final AllOrdersResponseCache allOrdersCache;
+    private final OrderCsvImporter importer;
+
+    @Value("${queue.page.maxLimit}")
+    private int maxPageLimit;
+
+    @Value("${queue.subscription.timeoutMs}")
+    private long subscriptionTimeoutMillis;
+
+    @Autowired
+    public ReactiveOrderQueueController(StorehouseRegistry storehouses, OrderMapper mapper,
+                                        AllOrdersResponseCache allOrdersCache, OrderCsvImporter importer) {
+        this.storehouses = storehouses;
+        this.mapper = mapper;
+        this.allOrdersCache = allOrdersCache;
+        this.importer = importer;
+    }
+
+    /**
+     * Answered with 304 without reading the queue if it has not changed since the ETag of the client,
+     * see {@link AllOrdersResponseCache}
+     */
+    @GetMapping(value = "all", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<byte[]> getAllOrders(@PathVariable(required = false) String storehouseId,
+                                        ServerWebExchange exchange) {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        long version = orderQueueService.getVersion();
+        boolean gzip = allOrdersCache.isGzip(exchange.getRequest().getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+        String etag = AllOrdersResponseCache.etag(version, gzip);
+        if (etag != null && exchange.checkNotModified(etag)) {
+            return AllOrdersResponseCache.notModified(etag);
+        }
+        return allOrdersCache.response(orderQueueService, version, gzip);
+    }
+
+    @GetMapping("all/page")
+    OrderPageDto getOrdersPage(@PathVariable(required = false) String storehouseId,
+                               @RequestParam(required = false) String cursor,
+                               @RequestParam(defaultValue = "100") int limit) throws InvalidOrderParameterException {
+        if (limit > maxPageLimit) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Page limit '%d' should be in range [1-%d]", limit, maxPageLimit));
+        }
+        OrderPage page = queue(storehouseId).getOrders(cursor, limit);
+        return new OrderPageDto(convertToDto(page.getOrders()), page.getNextCursor());
+    }
+
+    /**
+     * Streams all the orders as newline delimited JSON. The next page of the queue is read only when
+     * the orders of the previous one have been written, so a slow client doesn't make the orders pile up
+     * in memory. Orders added, delivered or cancelled during the streaming may or may not be included.
+     */
+    @GetMapping(value = "all/stream", produces = NDJSON_MEDIA_TYPE)
+    Flux<OrderDto> streamAllOrders(@PathVariable(required = false) String storehouseId) {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        return Flux.<List<OrderItem>, String>generate(() -> FIRST_PAGE, (cursor, sink) -> {
+            OrderPage page;
+            try {
+                page = orderQueueService.getOrders(FIRST_PAGE.equals(cursor) ? null : cursor, maxPageLimit);
+            } catch (InvalidOrderParameterException e) {
+                throw new IllegalStateException(e);
+            }
+            sink.next(page.getOrders());
+            if (page.getNextCursor() == null) {
+                sink.complete();
+                return cursor;
+            }
+            return page.getNextCursor();
+        }).flatMapIterable(this::convertToDto, 1);
+    }
+
+    @PutMapping
+    ResponseEntity<OrderItem> addOrder(@PathVariable(required = false) String storehouseId,
+                                       @RequestBody OrderDto order) throws InvalidOrderParameterException {
+        OrderItem addedOrder = queue(storehouseId).addOrder(mapper.toOrderItem(order));
+        return new ResponseEntity<>(addedOrder, HttpStatus.OK);
+    }
+
+    @PutMapping("batch")
+    List<BatchOrderResult> addOrders(@PathVariable(required = false) String storehouseId,
+                                     @RequestBody List<OrderDto> orders) {
+        return queue(storehouseId).addOrders(mapper.toOrderItems(orders));
+    }
+
+    /**
+     * Imports a backlog of orders from the CSV body, whose lines are parsed as they arrive,
+     * see {@link OrderCsvImporter}
+     */
+    @PostMapping(value = "import", consumes = CSV_MEDIA_TYPE)
+    Mono<ImportReport> importOrders(@PathVariable(required = false) String storehouseId,
+                                    @RequestBody Flux<String> lines) {
+        OrderCsvImporter.Import backlog = importer.start(queue(storehouseId));
+        return lines.doOnNext(backlog::addLine).then(Mono.fromSupplier(backlog::finish));
+    }
+
+    /**
+     * The state changes only with the queue, so it is answered with 304 without reading the queue
+     * if the queue has not changed since the ETag of the client
+     */
+    @GetMapping("state")
+    ResponseEntity<ClientOrderState> checkClientState(@PathVariable(required = false) String storehouseId,
+                                                      @RequestParam Long clientId, ServerWebExchange exchange)
+            throws InvalidOrderParameterException {
+        OrderQueueService orderQueueService = queue(storehouseId);
+        String etag = AllOrdersResponseCache.etag(orderQueueService.getVersion(), false);
+        if (etag != null && exchange.checkNotModified(etag)) {
+            return AllOrdersResponseCache.notModified(etag);
+        }
+        ClientOrderState orderState = orderQueueService.getClientOrderState(clientId);
+        return ResponseEntity.status(orderState == null ? HttpStatus.NOT_FOUND : HttpStatus.OK).eTag(etag).body(orderState);
+    }
+
+    /**
+     * Streams the state of the client's order as Server-Sent Events, see {@link FluxClientOrderStateSubscriber}.
+     * The subscription is cancelled as soon as the client disconnects.
+     */
+    @GetMapping(value = "state/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    ResponseEntity<Flux<ServerSentEvent<Object>>> subscribeClientState(
+            @PathVariable(required = false) String storehouseId, @RequestParam Long clientId)
+            throws InvalidOrderParameterException {
+        StorehouseRegistry.Storehouse storehouse = storehouses.get(storehouseId);
+        if (storehouse.getOrderQueueService().getClientOrderState(clientId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Flux<ServerSentEvent<Object>> events = Flux.<ServerSentEvent<Object>>create(sink -> {
+            ClientOrderStateSubscriptions.Subscription subscription =
+                    storehouse.getSubscriptions().subscribe(clientId, new FluxClientOrderStateSubscriber(sink));
+            sink.onDispose(subscription::cancel);
+        }, FluxSink.OverflowStrategy.LATEST).take(Duration.ofMillis(subscriptionTimeoutMillis));
+        return ResponseEntity.ok(events);
+    }
+
+    @GetMapping("delivery")
+    List<OrderDto> getNextDelivery(@PathVariable(required = false) String storehouseId) {
+        return convertToDto(queue(storehouseId).getNextDelivery());
+    }
+
+    /**
+     * Claim the next cart for one of the pickers working in parallel, see {@link OrderQueueService#reserveNextDelivery}
+     */
+    @PutMapping("delivery/reservation")
+    ResponseEntity<CartReservation> reserveNextDelivery(@PathVariable(required = false) String storehouseId,
+                                                        @RequestParam String pickerId)
+            throws InvalidOrderParameterException {
+        CartReservation reservation = queue(storehouseId).reserveNextDelivery(pickerId);
+        return reservation == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(reservation);
+    }
+
+    @PostMapping("delivery/reservation/confirm")
+    ResponseEntity<List<OrderDto>> confirmDelivery(@PathVariable(required = false) String storehouseId,
+                                                   @RequestParam Long reservationId) {
+        List<OrderItem> delivery = queue(storehouseId).confirmDelivery(reservationId);
+        return delivery == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(convertToDto(delivery));
+    }
+
+    @DeleteMapping("delivery/reservation")
+    ResponseEntity<Void> returnDelivery(@PathVariable(required = false) String storehouseId,
+                                        @RequestParam Long reservationId) {
+        return queue(storehouseId).returnDelivery(reservationId)
+                ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    @DeleteMapping
+    void cancelOrder(@PathVariable(required = false) String storehouseId,
+                     @RequestParam Long clientId) throws InvalidOrderParameterException {
+        queue(storehouseId).removeOrder(clientId);
+    }
+
+    private OrderQueueService queue(String storehouseId) {
+        return storehouses.get(storehouseId).getOrderQueueService();
+    }
+
+    private List<OrderDto> convertToDto(List<OrderItem> orders) {
+        return mapper.toDtos(orders);
+    }
+
+}
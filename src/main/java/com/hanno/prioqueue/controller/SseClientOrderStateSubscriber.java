@@ -0,0 +1,42 @@
+package com.hanno.prioqueue.controller;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriber;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Sends the order states as Server-Sent Events: {@code state} with the new {@link ClientOrderState},
+ * and {@code removed} when the order has left the queue, which also ends the stream
+ */
+class SseClientOrderStateSubscriber implements ClientOrderStateSubscriber {
+
+    private final SseEmitter emitter;
+
+    SseClientOrderStateSubscriber(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void onStateChanged(ClientOrderState state) {
+        send(SseEmitter.event().name("state").data(state));
+    }
+
+    @Override
+    public void onOrderRemoved(long clientId) {
+        send(SseEmitter.event().name("removed").data(clientId));
+        emitter.complete();
+    }
+
+    private void send(SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException e) {
+            // The client has gone, the subscription is cancelled by the caller
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.hanno.prioqueue.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -7,5 +8,15 @@ public class OrderDto {
 
     private Long clientId;
     private Integer quantity;
+    /**
+     * Optional name of the priority tier, by default the tier of the client's ID range
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String tier;
+    /**
+     * Optional time to live of the order, by default {@code queue.expiry.ttlSeconds}
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long ttlSeconds;
 
 }
@@ -0,0 +1,51 @@
+package com.hanno.prioqueue.dto;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the orders between the API and the queue field by field, without any reflection, so a mapped order
+ * costs the target object only. The lists are presized, so mapping the whole queue for {@code /all}
+ * allocates the target list and the orders and nothing else.
+ */
+@Component
+public class OrderMapper {
+
+    public OrderItem toOrderItem(OrderDto dto) {
+        OrderItem order = new OrderItem(dto.getClientId(), dto.getQuantity(), null, dto.getTier());
+        order.setTtlSeconds(dto.getTtlSeconds());
+        return order;
+    }
+
+    public OrderDto toDto(OrderItem order) {
+        OrderDto dto = new OrderDto();
+        dto.setClientId(order.getClientId());
+        dto.setQuantity(order.getQuantity());
+        dto.setTier(order.getTier());
+        dto.setTtlSeconds(order.getTtlSeconds());
+        return dto;
+    }
+
+    /**
+     * @param dtos orders of a batch, the empty ones stay empty
+     */
+    public List<OrderItem> toOrderItems(List<OrderDto> dtos) {
+        List<OrderItem> orders = new ArrayList<>(dtos.size());
+        for (OrderDto dto : dtos) {
+            orders.add(dto == null ? null : toOrderItem(dto));
+        }
+        return orders;
+    }
+
+    public List<OrderDto> toDtos(List<OrderItem> orders) {
+        List<OrderDto> dtos = new ArrayList<>(orders.size());
+        for (OrderItem order : orders) {
+            dtos.add(toDto(order));
+        }
+        return dtos;
+    }
+
+}
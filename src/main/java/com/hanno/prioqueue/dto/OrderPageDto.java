@@ -0,0 +1,17 @@
+package com.hanno.prioqueue.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderPageDto {
+
+    private List<OrderDto> orders;
+    private String nextCursor;
+
+}
@@ -0,0 +1,23 @@
+package com.hanno.prioqueue.entity;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class BatchOrderResult {
+
+    private Long clientId;
+    private boolean accepted;
+    private String error;
+
+    public static BatchOrderResult accepted(Long clientId) {
+        return new BatchOrderResult(clientId, true, null);
+    }
+
+    public static BatchOrderResult rejected(Long clientId, String error) {
+        return new BatchOrderResult(clientId, false, error);
+    }
+
+}
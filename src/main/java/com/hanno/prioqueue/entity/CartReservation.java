@@ -0,0 +1,28 @@
+package com.hanno.prioqueue.entity;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Cart claimed by one of the pickers. The orders stay reserved for the clients until the cart is delivered,
+ * or returned to the queue by the picker or when the reservation expires.
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class CartReservation {
+
+    private Long reservationId;
+    private String pickerId;
+    private List<OrderItem> orders;
+    private LocalDateTime expiresAt;
+
+    public static CartReservation of(Long reservationId, String pickerId, List<OrderItem> orders,
+                                     LocalDateTime expiresAt) {
+        return new CartReservation(reservationId, pickerId, orders, expiresAt);
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.hanno.prioqueue.entity;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import of orders. Only the first rejected rows are listed, the rest are counted.
+ */
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ImportReport {
+
+    private long rows;
+    private long imported;
+    private long rejected;
+    private List<RejectedRow> rejectedRows;
+    private long elapsedMillis;
+    private long ordersPerSecond;
+
+    public static ImportReport of(long rows, long imported, List<RejectedRow> rejectedRows, long rejected,
+                                  long elapsedMillis) {
+        long ordersPerSecond = elapsedMillis == 0 ? imported * 1000 : imported * 1000 / elapsedMillis;
+        return new ImportReport(rows, imported, rejected, rejectedRows, elapsedMillis, ordersPerSecond);
+    }
+
+    @Data
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class RejectedRow {
+
+        private long line;
+        private Long clientId;
+        private String error;
+
+        public static RejectedRow of(long line, Long clientId, String error) {
+            return new RejectedRow(line, clientId, error);
+        }
+
+    }
+
+}
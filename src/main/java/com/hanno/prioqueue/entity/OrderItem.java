@@ -1,5 +1,6 @@
 package com.hanno.prioqueue.entity;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -16,12 +17,35 @@ public class OrderItem implements Comparable<OrderItem> {
     private Long clientId;
     private Integer quantity;
     private LocalDateTime orderAdded;
+    /**
+     * Name of the priority tier the order is queued in, when it is not the tier of the client's ID range
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String tier;
+    /**
+     * Optional time to live of the order, after which it is evicted from the queue unless delivered
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long ttlSeconds;
+    /**
+     * Time the order is evicted at unless delivered, set from its time to live when it is added
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private LocalDateTime expiresAt;
 
     public OrderItem(Long clientId, Integer quantity) {
         this.clientId = clientId;
         this.quantity = quantity;
     }
 
+    public OrderItem(Long clientId, Integer quantity, LocalDateTime orderAdded) {
+        this(clientId, quantity, orderAdded, null);
+    }
+
+    public OrderItem(Long clientId, Integer quantity, LocalDateTime orderAdded, String tier) {
+        this(clientId, quantity, orderAdded, tier, null, null);
+    }
+
     @Override
     public int compareTo(OrderItem o) {
         if (isPremiumCustomer(this) && !isPremiumCustomer(o)) {
@@ -33,7 +57,11 @@ public class OrderItem implements Comparable<OrderItem> {
         return this.orderAdded.isBefore(o.orderAdded) ? -1 : 1;
     }
 
+    public static boolean isPremiumClient(long clientId) {
+        return clientId <= PREMIUM_CLIENTS_RANGE;
+    }
+
     private boolean isPremiumCustomer(OrderItem order) {
-        return order.getClientId() <= PREMIUM_CLIENTS_RANGE;
+        return isPremiumClient(order.getClientId());
     }
 }
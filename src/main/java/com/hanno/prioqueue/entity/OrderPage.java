@@ -0,0 +1,20 @@
+package com.hanno.prioqueue.entity;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class OrderPage {
+
+    private List<OrderItem> orders;
+    private String nextCursor;
+
+    public static OrderPage of(List<OrderItem> orders, String nextCursor) {
+        return new OrderPage(orders, nextCursor);
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.hanno.prioqueue.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.GONE)
+public class OrderExpiredException extends RuntimeException {
+
+    public OrderExpiredException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.hanno.prioqueue.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class StorehouseNotFoundException extends RuntimeException {
+
+    public StorehouseNotFoundException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.hanno.prioqueue.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Operation which the configured queue doesn't implement, for example the reservations of the sharded queue
+ */
+@ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+public class UnsupportedQueueOperationException extends UnsupportedOperationException {
+
+    public UnsupportedQueueOperationException(String message) {
+        super(message);
+    }
+
+}
@@ -2,7 +2,11 @@ package com.hanno.prioqueue.exception.handler;
 
 import com.hanno.prioqueue.exception.DuplicateClientOrderException;
 import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.OrderExpiredException;
+import com.hanno.prioqueue.exception.StorehouseNotFoundException;
+import com.hanno.prioqueue.exception.UnsupportedQueueOperationException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -11,6 +15,7 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 
 @Slf4j
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class OrderQueueExceptionHandler extends ResponseEntityExceptionHandler {
 
     @ExceptionHandler(InvalidOrderParameterException.class)
@@ -25,4 +30,22 @@ public class OrderQueueExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_ACCEPTABLE);
     }
 
+    @ExceptionHandler(OrderExpiredException.class)
+    public ResponseEntity<Object> handleOrderExpiredException(OrderExpiredException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.GONE);
+    }
+
+    @ExceptionHandler(StorehouseNotFoundException.class)
+    public ResponseEntity<Object> handleStorehouseNotFoundException(StorehouseNotFoundException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(UnsupportedQueueOperationException.class)
+    public ResponseEntity<Object> handleUnsupportedQueueOperationException(UnsupportedQueueOperationException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_IMPLEMENTED);
+    }
+
 }
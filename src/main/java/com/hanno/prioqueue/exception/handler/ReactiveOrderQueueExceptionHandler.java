@@ -0,0 +1,54 @@
+package com.hanno.prioqueue.exception.handler;
+
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.OrderExpiredException;
+import com.hanno.prioqueue.exception.StorehouseNotFoundException;
+import com.hanno.prioqueue.exception.UnsupportedQueueOperationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+/**
+ * Same responses as {@link OrderQueueExceptionHandler} for the reactive stack, which has no
+ * {@code ResponseEntityExceptionHandler} to extend
+ */
+@Slf4j
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveOrderQueueExceptionHandler {
+
+    @ExceptionHandler(InvalidOrderParameterException.class)
+    public ResponseEntity<Object> handleInvalidOrderParametersException(InvalidOrderParameterException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(DuplicateClientOrderException.class)
+    public ResponseEntity<Object> handleDuplicateClientOrderException(DuplicateClientOrderException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_ACCEPTABLE);
+    }
+
+    @ExceptionHandler(OrderExpiredException.class)
+    public ResponseEntity<Object> handleOrderExpiredException(OrderExpiredException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.GONE);
+    }
+
+    @ExceptionHandler(StorehouseNotFoundException.class)
+    public ResponseEntity<Object> handleStorehouseNotFoundException(StorehouseNotFoundException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(UnsupportedQueueOperationException.class)
+    public ResponseEntity<Object> handleUnsupportedQueueOperationException(UnsupportedQueueOperationException e) {
+        log.error(e.getMessage());
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_IMPLEMENTED);
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.hanno.prioqueue.journal;
+
+import com.hanno.prioqueue.service.OrderQueueEvent;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the journal records.
+ * <pre>
+ * added:              type (1) | client ID (8) | quantity (4) | order added, epoch nanos (8) | CRC32 (4)
+ * added in tier:      type (1) | client ID (8) | quantity (4) | order added, epoch nanos (8) | tier (1) | CRC32 (4)
+ * cancelled/delivered: type (1) | client ID (8) | CRC32 (4)
+ * </pre>
+ * The tier is recorded only for the orders which have named it, the others go to the tier of the client's ID range.
+ * The orders with a deadline have the expiring variants of the added records, where it follows the order added
+ * timestamp, or the tier if there is one, as epoch nanos (8).
+ * Zero type marks the end of the written records, since the new segments are filled with zeros.
+ */
+final class JournalRecord {
+
+    static final byte END = 0;
+    static final byte ADDED = 1;
+    static final byte CANCELLED = 2;
+    static final byte DELIVERED = 3;
+    static final byte ADDED_IN_TIER = 4;
+    static final byte ADDED_EXPIRING = 5;
+    static final byte ADDED_IN_TIER_EXPIRING = 6;
+
+    static final int ADDED_SIZE = 1 + 8 + 4 + 8 + 4;
+    static final int ADDED_IN_TIER_SIZE = ADDED_SIZE + 1;
+    static final int REMOVED_SIZE = 1 + 8 + 4;
+    static final int MAX_SIZE = ADDED_IN_TIER_SIZE + 8;
+
+    private JournalRecord() {
+    }
+
+    /**
+     * Receives the records read from the journal
+     */
+    @FunctionalInterface
+    interface Visitor {
+
+        /**
+         * @param quantity         order quantity, zero for the removed orders
+         * @param orderAddedNanos  time the order was added, zero for the removed orders
+         * @param tier             index of the tier the order has named, -1 if it has not
+         * @param expiresAtNanos   deadline of the order, zero if it has none
+         */
+        void visit(byte type, long clientId, int quantity, long orderAddedNanos, int tier, long expiresAtNanos);
+
+    }
+
+    /**
+     * Encode the event into the buffer, which is cleared first and flipped afterwards
+     *
+     * @param namedTier true if the added order has named its tier, which is recorded then
+     */
+    static void encode(OrderQueueEvent event, boolean namedTier, ByteBuffer buffer) {
+        buffer.clear();
+        switch (event.getType()) {
+            case ADDED:
+                boolean expiring = event.getExpiresAtNanos() != 0L;
+                buffer.put(addedType(namedTier, expiring))
+                        .putLong(event.getClientId())
+                        .putInt(event.getQuantity())
+                        .putLong(event.getOrderAddedNanos());
+                if (namedTier) {
+                    buffer.put((byte) event.getTier());
+                }
+                if (expiring) {
+                    buffer.putLong(event.getExpiresAtNanos());
+                }
+                break;
+            case CANCELLED:
+                buffer.put(CANCELLED).putLong(event.getClientId());
+                break;
+            case DELIVERED:
+                buffer.put(DELIVERED).putLong(event.getClientId());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event type: " + event.getType());
+        }
+        CRC32 crc = new CRC32();
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        buffer.limit(buffer.limit() + 4);
+        buffer.putInt(buffer.limit() - 4, (int) crc.getValue());
+    }
+
+    static boolean isAdded(byte type) {
+        return type == ADDED || type == ADDED_IN_TIER || type == ADDED_EXPIRING || type == ADDED_IN_TIER_EXPIRING;
+    }
+
+    private static byte addedType(boolean namedTier, boolean expiring) {
+        if (expiring) {
+            return namedTier ? ADDED_IN_TIER_EXPIRING : ADDED_EXPIRING;
+        }
+        return namedTier ? ADDED_IN_TIER : ADDED;
+    }
+
+    /**
+     * Read the record at the current position of the buffer and move the position after it
+     *
+     * @return false if there is no valid record at the position, then the position is not changed
+     */
+    static boolean read(ByteBuffer buffer, Visitor visitor) {
+        int start = buffer.position();
+        if (buffer.remaining() < REMOVED_SIZE) {
+            return false;
+        }
+        byte type = buffer.get(start);
+        boolean namedTier = type == ADDED_IN_TIER || type == ADDED_IN_TIER_EXPIRING;
+        boolean expiring = type == ADDED_EXPIRING || type == ADDED_IN_TIER_EXPIRING;
+        int size;
+        if (isAdded(type)) {
+            size = (namedTier ? ADDED_IN_TIER_SIZE : ADDED_SIZE) + (expiring ? 8 : 0);
+        } else if (type == CANCELLED || type == DELIVERED) {
+            size = REMOVED_SIZE;
+        } else {
+            return false;
+        }
+        if (buffer.remaining() < size) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(start + size - 4);
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(start + size - 4)) {
+            return false;
+        }
+        long clientId = buffer.getLong(start + 1);
+        if (isAdded(type)) {
+            int tierSize = namedTier ? 1 : 0;
+            visitor.visit(type, clientId, buffer.getInt(start + 9), buffer.getLong(start + 13),
+                    namedTier ? buffer.get(start + 21) : -1, expiring ? buffer.getLong(start + 21 + tierSize) : 0L);
+        } else {
+            visitor.visit(type, clientId, 0, 0L, -1, 0L);
+        }
+        buffer.position(start + size);
+        return true;
+    }
+
+}
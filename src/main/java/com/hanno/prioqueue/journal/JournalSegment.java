@@ -0,0 +1,122 @@
+package com.hanno.prioqueue.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped, fixed size file of the journal. The segment is named after the journal offset
+ * of its first byte, so the segments are ordered by their names.
+ */
+final class JournalSegment implements Closeable {
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path path;
+    private final long startOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private JournalSegment(Path path, long startOffset, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.startOffset = startOffset;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open the existing segment with its own size, or create a new one of the given size
+     */
+    static JournalSegment open(Path directory, long startOffset, int size) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, startOffset, SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize > 0 ? fileSize : size);
+            return new JournalSegment(path, startOffset, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long startOffset(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long startOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return journal offset right after the last appended record
+     */
+    long endOffset() {
+        return startOffset + buffer.position();
+    }
+
+    int remaining() {
+        return buffer.remaining();
+    }
+
+    void append(ByteBuffer record) {
+        buffer.put(record);
+    }
+
+    /**
+     * Read all the valid records starting from the given journal offset, which should be a record boundary.
+     * Appending continues right after them, and whatever was left behind them by a crash is cleared.
+     *
+     * @return number of the records read
+     */
+    int replay(long fromOffset, JournalRecord.Visitor visitor) {
+        buffer.position((int) Math.min(Math.max(fromOffset - startOffset, 0L), buffer.limit()));
+        int records = 0;
+        while (JournalRecord.read(buffer, visitor)) {
+            records++;
+        }
+        int end = buffer.position();
+        // A torn record may contain zeros, so at least one record length is cleared
+        for (int i = end; i < buffer.limit() && (i < end + JournalRecord.MAX_SIZE || buffer.get(i) != JournalRecord.END); i++) {
+            buffer.put(i, JournalRecord.END);
+        }
+        return records;
+    }
+
+    /**
+     * Write the appended records to the storage device. May be called from another thread than the appending one,
+     * and even after the segment is closed, since the mapping stays valid until the buffer is collected.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.hanno.prioqueue.journal;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.OrderTimestamps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the live queue, named after the journal offset it was taken at.
+ * <pre>
+ * magic (4) | journal offset (8) | orders number (4) | orders | CRC32 (4)
+ * order: client ID (8) | quantity (4) | order added, epoch nanos (8) | tier name (UTF, empty if not named)
+ *        | expires at, epoch nanos (8, zero if the order has no deadline)
+ * </pre>
+ * Orders are stored in the queue order, so the tiers and the positions are restored by appending them
+ * to the queue one by one. The snapshots of the older versions, without the tier names or the deadlines,
+ * are still read.
+ */
+final class JournalSnapshot {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC_V1 = 0x4F515331;
+    private static final int MAGIC_V2 = 0x4F515332;
+    private static final int MAGIC = 0x4F515333;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final long offset;
+    private final List<OrderItem> orders;
+
+    JournalSnapshot(long offset, List<OrderItem> orders) {
+        this.offset = offset;
+        this.orders = orders;
+    }
+
+    /**
+     * @return journal offset of the first record which is not included into the snapshot
+     */
+    long offset() {
+        return offset;
+    }
+
+    List<OrderItem> orders() {
+        return orders;
+    }
+
+    static boolean isSnapshot(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long offset(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Write the snapshot into a temporary file and move it into place once it is on the disk,
+     * so a crash never leaves a partially written snapshot behind
+     *
+     * @return path of the written snapshot
+     */
+    Path write(Path directory) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, offset, SUFFIX));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(file, BUFFER_SIZE), crc));
+            output.writeInt(MAGIC);
+            output.writeLong(offset);
+            output.writeInt(orders.size());
+            for (OrderItem order : orders) {
+                output.writeLong(order.getClientId());
+                output.writeInt(order.getQuantity());
+                output.writeLong(OrderTimestamps.toEpochNanos(order.getOrderAdded()));
+                output.writeUTF(order.getTier() == null ? "" : order.getTier());
+                LocalDateTime expiresAt = order.getExpiresAt();
+                output.writeLong(expiresAt == null ? 0L : OrderTimestamps.toEpochNanos(expiresAt));
+            }
+            output.writeInt((int) crc.getValue());
+            output.flush();
+            file.getFD().sync();
+        }
+        return Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @throws IOException if the snapshot cannot be read or is damaged
+     */
+    static JournalSnapshot read(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream input = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(file, BUFFER_SIZE), crc));
+            int magic = input.readInt();
+            if (magic != MAGIC && magic != MAGIC_V2 && magic != MAGIC_V1) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+            long offset = input.readLong();
+            int ordersNumber = input.readInt();
+            if (ordersNumber < 0) {
+                throw new IOException("Damaged snapshot: " + path);
+            }
+            List<OrderItem> orders = new ArrayList<>(Math.min(ordersNumber, BUFFER_SIZE));
+            for (int i = 0; i < ordersNumber; i++) {
+                long clientId = input.readLong();
+                int quantity = input.readInt();
+                LocalDateTime orderAdded = OrderTimestamps.fromEpochNanos(input.readLong());
+                String tier = magic == MAGIC_V1 ? "" : input.readUTF();
+                long expiresAtNanos = magic == MAGIC ? input.readLong() : 0L;
+                orders.add(new OrderItem(clientId, quantity, orderAdded, tier.isEmpty() ? null : tier, null,
+                        expiresAtNanos == 0L ? null : OrderTimestamps.fromEpochNanos(expiresAtNanos)));
+            }
+            int expectedCrc = (int) crc.getValue();
+            if (input.readInt() != expectedCrc) {
+                throw new IOException("Damaged snapshot: " + path);
+            }
+            return new JournalSnapshot(offset, orders);
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package com.hanno.prioqueue.journal;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import com.hanno.prioqueue.service.OrderQueueListener;
+import com.hanno.prioqueue.service.OrderTimestamps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the queue changes, which is replayed on startup to rebuild the queue.
+ * <p>
+ * Every added, cancelled and delivered order is written as a small binary record into a memory-mapped segment
+ * while the queue is still locked, so the journal has exactly the order of the queue changes. Records reach
+ * the page cache right away and survive a crash of the application; they are forced to the storage device
+ * by a background thread every {@code flushIntervalMillis} (group commit), so a crash of the whole machine
+ * can lose the changes of the last interval.
+ * <p>
+ * Every {@code snapshotIntervalMillis} the live orders are written into a {@link JournalSnapshot}, and the segments
+ * which hold only the records before it are deleted. The orders are copied under the read lock of the queue,
+ * while encoding and writing them doesn't block the queue. Startup loads the latest snapshot and replays only
+ * the records after it, so the restart time depends on the queue length rather than on the traffic history.
+ * <p>
+ * The queue has already changed when a record cannot be written, so the failure is not thrown back to it.
+ * The journal stops appending and reports the failure instead, see {@link #getFailure()}, until the next snapshot
+ * captures the whole queue again.
+ */
+@Slf4j
+public class OrderJournal implements OrderQueueListener, Closeable {
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalMillis;
+    private final long snapshotIntervalMillis;
+    private final ByteBuffer record = ByteBuffer.allocate(JournalRecord.MAX_SIZE);
+
+    private volatile JournalSegment activeSegment;
+    private volatile long writtenOffset;
+    private long forcedOffset;
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+    private List<String> tierNames;
+    private ScheduledExecutorService executor;
+    private final Object snapshotLock = new Object();
+    private long snapshotOffset = -1L;
+    private volatile Exception failure;
+
+    private int recoveredOrders;
+    private long recoveredRecords;
+    private long recoveryTimeMillis;
+
+    public OrderJournal(Path directory, int segmentSize, long flushIntervalMillis) {
+        this(directory, segmentSize, flushIntervalMillis, 0L);
+    }
+
+    /**
+     * @param snapshotIntervalMillis interval between the snapshots, zero disables them
+     */
+    public OrderJournal(Path directory, int segmentSize, long flushIntervalMillis, long snapshotIntervalMillis) {
+        if (segmentSize < JournalRecord.MAX_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Restore the orders from the journal into the empty queue and start recording its changes
+     */
+    public synchronized void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) throws IOException {
+        if (this.orderQueueService != null) {
+            throw new IllegalStateException("Journal is already attached");
+        }
+        long start = System.nanoTime();
+        tierNames = orderQueueService.getTierNames();
+        Map<Long, OrderItem> orders = recover();
+        orderQueueService.restoreOrders(new ArrayList<>(orders.values()));
+        recoveredOrders = orders.size();
+        recoveryTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Restored {} orders from {} journal records in {} ms", recoveredOrders, recoveredRecords,
+                recoveryTimeMillis);
+
+        this.orderQueueService = orderQueueService;
+        orderQueueService.addListener(this);
+        executor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "order-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushIntervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (snapshotIntervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalMillis, snapshotIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called by the queue under its lock, so the records are appended in the order of the changes. Once a record
+     * has failed, the next ones are not appended either, since they cannot be replayed without it.
+     */
+    @Override
+    public synchronized void onEvent(OrderQueueEvent event) {
+        if (event.getType() == OrderQueueEvent.Type.RESERVED || event.getType() == OrderQueueEvent.Type.RETURNED) {
+            return; // Reserved orders stay live in the journal until they are delivered, a restart returns them
+        }
+        if (event.getType() == OrderQueueEvent.Type.PROMOTED) {
+            return; // Promotions follow from the age of the order, a restart repeats them
+        }
+        if (failure != null) {
+            return;
+        }
+        JournalRecord.encode(event, event.getType() == OrderQueueEvent.Type.ADDED && isNamedTier(event), record);
+        try {
+            if (activeSegment.remaining() < record.remaining()) {
+                roll();
+            }
+            activeSegment.append(record);
+        } catch (IOException | RuntimeException e) {
+            // Thrown back to the queue it would fail the change which has been made, and skip the other listeners
+            failure = e;
+            log.error("Failed to write the journal, the changes are not recorded until the next snapshot", e);
+            return;
+        }
+        writtenOffset = activeSegment.endOffset();
+        if (flushIntervalMillis == 0) {
+            activeSegment.force();
+            forcedOffset = writtenOffset;
+        }
+    }
+
+    /**
+     * @return true if the added order is not in the tier of the client's ID range, so it must have named its tier
+     */
+    private boolean isNamedTier(OrderQueueEvent event) {
+        return !tierNames.get(event.getTier())
+                .equals(orderQueueService.getTierName(event.getClientId()));
+    }
+
+    /**
+     * Force the appended records to the storage device. The queue is not blocked meanwhile.
+     */
+    public void flush() {
+        long offset = writtenOffset;
+        if (offset > forcedOffset) {
+            activeSegment.force();
+            forcedOffset = offset;
+        }
+    }
+
+    /**
+     * Write the snapshot of the live orders and delete the journal records before it. After a failure of the journal
+     * the appending is resumed from the snapshot, which holds the changes the journal has missed.
+     */
+    public void snapshot() throws IOException {
+        if (orderQueueService == null) {
+            throw new IllegalStateException("Journal is not attached");
+        }
+        // Records are appended under the write lock of the queue, so the offset matches the copied orders
+        Exception[] missed = new Exception[1];
+        JournalSnapshot snapshot = orderQueueService.readAllOrders(orders -> {
+            missed[0] = failure;
+            failure = null;
+            return new JournalSnapshot(writtenOffset, orders);
+        });
+        synchronized (snapshotLock) {
+            if (snapshot.offset() <= snapshotOffset && missed[0] == null) {
+                return; // Nothing has changed since the last snapshot
+            }
+            long start = System.nanoTime();
+            Path path;
+            try {
+                path = snapshot.write(directory);
+            } catch (IOException | RuntimeException e) {
+                if (missed[0] != null) {
+                    failure = e;
+                }
+                throw e;
+            }
+            if (missed[0] != null) {
+                log.info("Journal has been recovered from the failure by the snapshot {}", path.getFileName());
+            }
+            snapshotOffset = snapshot.offset();
+            int deletedSegments = deleteBefore(snapshot.offset());
+            log.info("Written snapshot {} of {} orders in {} ms, deleted {} journal segment(s)", path.getFileName(),
+                    snapshot.orders().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), deletedSegments);
+        }
+    }
+
+    /**
+     * @return failure which has stopped the journal from recording the changes of the queue, or null if the journal
+     * is recording them
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public int getRecoveredOrders() {
+        return recoveredOrders;
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public long getRecoveryTimeMillis() {
+        return recoveryTimeMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            if (orderQueueService != null) {
+                orderQueueService.removeListener(this);
+            }
+            if (activeSegment != null) {
+                activeSegment.close();
+            }
+        }
+    }
+
+    /**
+     * Load the latest snapshot and replay the segments after it, the last segment stays open for appending
+     *
+     * @return orders left in the queue, in the order they were added
+     */
+    private Map<Long, OrderItem> recover() throws IOException {
+        Files.createDirectories(directory);
+        Map<Long, OrderItem> orders = new LinkedHashMap<>();
+        JournalSnapshot snapshot = readLatestSnapshot();
+        long fromOffset = 0L;
+        if (snapshot != null) {
+            fromOffset = snapshot.offset();
+            snapshotOffset = snapshot.offset();
+            for (OrderItem order : snapshot.orders()) {
+                orders.put(order.getClientId(), order);
+            }
+        }
+        JournalRecord.Visitor visitor = (type, clientId, quantity, orderAddedNanos, tier, expiresAtNanos) -> {
+            if (JournalRecord.isAdded(type)) {
+                orders.put(clientId, new OrderItem(clientId, quantity, OrderTimestamps.fromEpochNanos(orderAddedNanos),
+                        tier >= 0 && tier < tierNames.size() ? tierNames.get(tier) : null, null,
+                        expiresAtNanos == 0L ? null : OrderTimestamps.fromEpochNanos(expiresAtNanos)));
+            } else {
+                orders.remove(clientId);
+            }
+        };
+        List<Path> paths = list(JournalSegment::isSegment);
+        for (int i = 0; i < paths.size(); i++) {
+            if (i + 1 < paths.size() && JournalSegment.startOffset(paths.get(i + 1)) <= fromOffset) {
+                continue; // All the records of the segment are in the snapshot
+            }
+            if (activeSegment != null) {
+                activeSegment.close();
+            }
+            activeSegment = JournalSegment.open(directory, JournalSegment.startOffset(paths.get(i)), segmentSize);
+            recoveredRecords += activeSegment.replay(fromOffset, visitor);
+        }
+        if (activeSegment == null) {
+            activeSegment = JournalSegment.open(directory, fromOffset, segmentSize);
+        }
+        writtenOffset = activeSegment.endOffset();
+        forcedOffset = writtenOffset;
+        return orders;
+    }
+
+    /**
+     * @return the latest snapshot which can be read, or null if there is none
+     */
+    private JournalSnapshot readLatestSnapshot() throws IOException {
+        List<Path> paths = list(JournalSnapshot::isSnapshot);
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            try {
+                JournalSnapshot snapshot = JournalSnapshot.read(paths.get(i));
+                log.info("Loaded snapshot {} of {} orders", paths.get(i).getFileName(), snapshot.orders().size());
+                return snapshot;
+            } catch (IOException e) {
+                log.warn("Skipping snapshot {} which cannot be read", paths.get(i).getFileName(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the older snapshots and the segments which hold only the records before the given offset
+     *
+     * @return number of the deleted segments
+     */
+    private int deleteBefore(long offset) throws IOException {
+        for (Path path : list(JournalSnapshot::isSnapshot)) {
+            if (JournalSnapshot.offset(path) < offset) {
+                Files.deleteIfExists(path);
+            }
+        }
+        long activeStartOffset = activeSegment.startOffset();
+        List<Path> segments = list(JournalSegment::isSegment);
+        int deletedSegments = 0;
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            long startOffset = JournalSegment.startOffset(segments.get(i));
+            if (startOffset < activeStartOffset && JournalSegment.startOffset(segments.get(i + 1)) <= offset) {
+                Files.deleteIfExists(segments.get(i));
+                deletedSegments++;
+            }
+        }
+        return deletedSegments;
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write the snapshot", e);
+        }
+    }
+
+    private List<Path> list(Predicate<Path> filter) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(filter).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void roll() throws IOException {
+        JournalSegment segment = JournalSegment.open(directory, activeSegment.endOffset(), segmentSize);
+        activeSegment.close();
+        activeSegment = segment;
+    }
+
+}
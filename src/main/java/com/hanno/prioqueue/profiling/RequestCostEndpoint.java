@@ -0,0 +1,58 @@
+package com.hanno.prioqueue.profiling;
+
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation and CPU time per request of every route at {@code /actuator/requestcost}, see
+ * {@link RequestCostInterceptor}. The same distributions are published as metrics for the monitoring system,
+ * the endpoint shows them side by side to spot the expensive routes at a glance.
+ */
+@Endpoint(id = "requestcost")
+public class RequestCostEndpoint {
+
+    private final RequestCostInterceptor interceptor;
+
+    public RequestCostEndpoint(RequestCostInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @ReadOperation
+    public Map<String, Object> costs() {
+        Map<String, Object> routes = new TreeMap<>();
+        interceptor.getRoutes().forEach((route, cost) -> {
+            HistogramSnapshot allocated = cost.getAllocated().takeSnapshot();
+            HistogramSnapshot cpu = cost.getCpu().takeSnapshot();
+            Map<String, Object> routeCost = new LinkedHashMap<>();
+            routeCost.put("requests", allocated.count());
+            routeCost.put("allocatedBytes", summary(allocated, 1.0));
+            routeCost.put("cpuMicros", summary(cpu, TimeUnit.MICROSECONDS.toNanos(1)));
+            routes.put(route, routeCost);
+        });
+        Map<String, Object> costs = new LinkedHashMap<>();
+        costs.put("supported", interceptor.isSupported());
+        costs.put("routes", routes);
+        return costs;
+    }
+
+    /**
+     * @param scale divisor of the recorded values, the timers keep nanoseconds
+     */
+    private static Map<String, Object> summary(HistogramSnapshot snapshot, double scale) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("mean", Math.round(snapshot.mean() / scale));
+        summary.put("max", Math.round(snapshot.max() / scale));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            summary.put("p" + Math.round(percentile.percentile() * 100), Math.round(percentile.value() / scale));
+        }
+        return summary;
+    }
+
+}
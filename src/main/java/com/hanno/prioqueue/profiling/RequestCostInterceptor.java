@@ -0,0 +1,153 @@
+package com.hanno.prioqueue.profiling;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bytes allocated and the CPU time spent by the request thread between entering the handler method
+ * and completing the response, including the serialization of the response body, with the {@link com.sun.management.ThreadMXBean}
+ * of the JVM. The costs are recorded per route, the HTTP method and the mapping pattern of the handler, as:
+ * <ul>
+ *     <li>{@code orderqueue.request.allocated} - bytes allocated by the request</li>
+ *     <li>{@code orderqueue.request.cpu} - CPU time of the request</li>
+ * </ul>
+ * Reading the counters of the current thread costs well under a microsecond, but it is still opt-in.
+ * The asynchronous requests, like the streaming and the subscriptions, are not measured, since they complete
+ * on other threads. The JVMs which don't support the thread allocation or CPU time counters record nothing.
+ */
+@Slf4j
+public class RequestCostInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = RequestCostInterceptor.class.getName() + ".start";
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final MeterRegistry registry;
+    private final com.sun.management.ThreadMXBean threads;
+    private final Map<String, RouteCost> routes = new ConcurrentHashMap<>();
+
+    public RequestCostInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+        this.threads = supportedThreads();
+    }
+
+    public boolean isSupported() {
+        return threads != null;
+    }
+
+    /**
+     * @return costs recorded so far by route
+     */
+    public Map<String, RouteCost> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (threads != null && handler instanceof HandlerMethod) {
+            request.setAttribute(START_ATTRIBUTE, new long[]{allocatedBytes(),
+                    threads.getCurrentThreadCpuTime()});
+        }
+        return true;
+    }
+
+    /**
+     * The request goes on on another thread, so it is not measured
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        request.removeAttribute(START_ATTRIBUTE);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        long[] start = (long[]) request.getAttribute(START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        request.removeAttribute(START_ATTRIBUTE);
+        long allocatedBytes = allocatedBytes() - start[0];
+        long cpuNanos = threads.getCurrentThreadCpuTime() - start[1];
+        routes.computeIfAbsent(route(request), this::routeCost).record(allocatedBytes, cpuNanos);
+    }
+
+    private static String route(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+    }
+
+    private RouteCost routeCost(String route) {
+        DistributionSummary allocated = DistributionSummary.builder("orderqueue.request.allocated")
+                .description("Bytes allocated by the request thread")
+                .baseUnit("bytes")
+                .tag("route", route)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+        Timer cpu = Timer.builder("orderqueue.request.cpu")
+                .description("CPU time of the request thread")
+                .tag("route", route)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+        return new RouteCost(allocated, cpu);
+    }
+
+    /**
+     * The counter of the current thread by ID, since {@code getCurrentThreadAllocatedBytes()} is there only on Java 14+
+     */
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean supportedThreads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            log.warn("Thread allocation counters are not supported by the JVM, request costs are not recorded");
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isCurrentThreadCpuTimeSupported()) {
+            log.warn("Thread allocation or CPU time counters are not supported by the JVM, request costs are not recorded");
+            return null;
+        }
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        sunThreads.setThreadCpuTimeEnabled(true);
+        return sunThreads;
+    }
+
+    /**
+     * Allocation and CPU time distributions of a route
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class RouteCost {
+
+        private final DistributionSummary allocated;
+        private final Timer cpu;
+
+        void record(long allocatedBytes, long cpuNanos) {
+            allocated.record(allocatedBytes);
+            cpu.record(cpuNanos, TimeUnit.NANOSECONDS);
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.hanno.prioqueue.replication;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot standby of the queue, which keeps a copy of the {@link ReplicationLeader}'s queue up to date.
+ * <p>
+ * The follower starts from the leader's snapshot, replacing whatever its own queue holds, and then applies
+ * the batches of the changes and acknowledges them. The added orders keep the time they have been added
+ * to the leader's queue, so the copy has the same order and the same waiting times. If the connection breaks,
+ * the follower connects again and starts over from a new snapshot.
+ * <p>
+ * {@link #promote()} stops the replication, and the follower's queue, which is always ready, takes over the clients.
+ * The follower doesn't fence the writes itself, so the clients should be sent to it only after the promotion.
+ */
+@Slf4j
+public class ReplicationFollower implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final long reconnectMillis;
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+    private Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean promoted;
+    private volatile Socket socket;
+    private volatile long appliedEvents;
+
+    public ReplicationFollower(String host, int port, long reconnectMillis) {
+        this.host = host;
+        this.port = port;
+        this.reconnectMillis = reconnectMillis;
+    }
+
+    /**
+     * Start replicating the leader's queue into the given one
+     */
+    public synchronized void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        if (this.orderQueueService != null) {
+            throw new IllegalStateException("Follower is already attached");
+        }
+        this.orderQueueService = orderQueueService;
+        thread = new Thread(this::replicationLoop, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return sequence of the last leader's event applied to the queue
+     */
+    public long getAppliedEvents() {
+        return appliedEvents;
+    }
+
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /**
+     * Stop following the leader, so the queue takes no more changes from it. The changes which have been
+     * received, but not applied yet, are dropped.
+     */
+    public synchronized void promote() {
+        if (promoted) {
+            return;
+        }
+        stop();
+        promoted = true;
+        log.info("Follower has been promoted at the leader's event {}", appliedEvents);
+    }
+
+    @Override
+    public synchronized void close() {
+        stop();
+    }
+
+    private void stop() {
+        running = false;
+        closeSocket();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void replicationLoop() {
+        while (running) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port));
+                socket.setTcpNoDelay(true);
+                this.socket = socket;
+                if (!running) {
+                    break; // Stopped while connecting
+                }
+                log.info("Following the leader at {}", socket.getRemoteSocketAddress());
+                follow(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            } catch (EOFException e) {
+                if (running) {
+                    log.warn("Leader at {}:{} has closed the connection", host, port);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Failed to follow the leader at {}:{}: {}", host, port, e.getMessage());
+                }
+            } finally {
+                socket = null;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void follow(DataInputStream input, DataOutputStream output) throws IOException {
+        while (running) {
+            byte frame = input.readByte();
+            if (frame == ReplicationProtocol.SNAPSHOT) {
+                applySnapshot(input);
+            } else if (frame == ReplicationProtocol.BATCH) {
+                long sequence = applyBatch(input);
+                if (sequence < 0) {
+                    return;
+                }
+                output.writeLong(sequence);
+                output.flush();
+            } else {
+                throw new IOException("Unknown replication frame: " + frame);
+            }
+        }
+    }
+
+    private void applySnapshot(DataInputStream input) throws IOException {
+        long sequence = input.readLong();
+        int size = input.readInt();
+        List<OrderItem> orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            orders.add(ReplicationProtocol.readOrder(input));
+        }
+        if (!running) {
+            return;
+        }
+        orderQueueService.replaceOrders(orders);
+        appliedEvents = sequence;
+        log.info("Restored {} orders from the leader's snapshot at event {}", size, sequence);
+    }
+
+    /**
+     * The consecutive added orders are restored together, under a single write lock of the queue
+     *
+     * @return sequence of the last applied event, or -1 if the follower has been stopped
+     */
+    private long applyBatch(DataInputStream input) throws IOException {
+        long sequence = input.readLong();
+        int size = input.readInt();
+        List<OrderItem> added = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            byte type = input.readByte();
+            if (type == ReplicationProtocol.ADDED) {
+                added.add(ReplicationProtocol.readOrder(input));
+                continue;
+            }
+            long clientId = input.readLong();
+            if (type != ReplicationProtocol.CANCELLED && type != ReplicationProtocol.DELIVERED) {
+                throw new IOException("Unknown replicated event: " + type);
+            }
+            if (!running) {
+                return -1L;
+            }
+            restore(added);
+            remove(clientId);
+        }
+        if (!running) {
+            return -1L;
+        }
+        restore(added);
+        appliedEvents = sequence;
+        return sequence;
+    }
+
+    private void restore(List<OrderItem> added) {
+        if (!added.isEmpty()) {
+            orderQueueService.restoreOrders(added);
+            added.clear();
+        }
+    }
+
+    private void remove(long clientId) {
+        try {
+            orderQueueService.removeOrder(clientId);
+        } catch (InvalidOrderParameterException e) {
+            log.warn("Skipping replicated removal of an invalid order: {}", e.getMessage());
+        }
+    }
+
+    private void closeSocket() {
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the leader connection", e);
+            }
+        }
+    }
+
+}
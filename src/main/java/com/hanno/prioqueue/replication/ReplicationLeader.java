@@ -0,0 +1,366 @@
+package com.hanno.prioqueue.replication;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import com.hanno.prioqueue.service.OrderQueueListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the changes of the queue to a hot-standby {@link ReplicationFollower} over TCP.
+ * <p>
+ * The added, cancelled and delivered orders are numbered and handed over to the follower's session while the queue
+ * is still locked, so they have exactly the order of the queue changes, like in the journal. A connecting follower
+ * gets a snapshot of the live orders first, copied under the read lock together with the number of the events
+ * it includes, then the events after it. The events are sent in batches of whatever has piled up since the previous
+ * batch, and the follower acknowledges every applied batch, so the replication lag is known on the leader.
+ * <p>
+ * The queue never waits for the follower: a follower which falls more than {@code maxPendingEvents} behind
+ * is disconnected and gets a new snapshot when it connects again. Only one follower is served at a time.
+ */
+@Slf4j
+public class ReplicationLeader implements OrderQueueListener, Closeable {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final InetAddress address;
+    private final int port;
+    private final int maxBatchSize;
+    private final int maxPendingEvents;
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+    private List<String> tierNames;
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private volatile boolean running = true;
+    private volatile Session session;
+    // Changed under the write lock of the queue
+    private volatile long publishedEvents;
+
+    public ReplicationLeader(InetAddress address, int port, int maxBatchSize, int maxPendingEvents) {
+        this.address = address;
+        this.port = port;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * Start recording the changes of the queue and accepting the follower
+     */
+    public synchronized void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) throws IOException {
+        if (this.orderQueueService != null) {
+            throw new IllegalStateException("Leader is already attached");
+        }
+        this.orderQueueService = orderQueueService;
+        this.tierNames = orderQueueService.getTierNames();
+        serverSocket = new ServerSocket(port, 1, address);
+        orderQueueService.addListener(this);
+        acceptor = new Thread(this::acceptLoop, "replication-leader");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Replication leader is listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * @return port the leader listens on, the assigned one if it has been configured as zero
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public boolean isFollowerConnected() {
+        return session != null;
+    }
+
+    /**
+     * @return number of the events the follower has not acknowledged yet, zero without a follower
+     */
+    public long getLagEvents() {
+        Session session = this.session;
+        return session == null ? 0L : Math.max(0L, publishedEvents - session.acknowledged);
+    }
+
+    /**
+     * @return time since the oldest event the follower has not acknowledged yet was published, zero without a follower
+     */
+    public long getLagMillis() {
+        Session session = this.session;
+        return session == null ? 0L : session.lagMillis();
+    }
+
+    /**
+     * Called by the queue under its write lock, so the events are numbered in the order of the changes
+     */
+    @Override
+    public void onEvent(OrderQueueEvent event) {
+        if (event.getType() != OrderQueueEvent.Type.ADDED && event.getType() != OrderQueueEvent.Type.CANCELLED
+                && event.getType() != OrderQueueEvent.Type.DELIVERED) {
+            return; // Reserved orders stay live on the follower until they are delivered, promotions follow from the age
+        }
+        long sequence = publishedEvents + 1;
+        publishedEvents = sequence;
+        Session session = this.session;
+        if (session != null) {
+            String tier = null;
+            if (event.getType() == OrderQueueEvent.Type.ADDED) {
+                String addedTier = tierNames.get(event.getTier());
+                tier = addedTier.equals(orderQueueService.getTierName(event.getClientId())) ? null : addedTier;
+            }
+            session.enqueue(new ReplicatedEvent(sequence, event, tier, System.nanoTime()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (this) {
+            if (orderQueueService != null) {
+                orderQueueService.removeListener(this);
+            }
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        }
+        Session session = this.session;
+        if (session != null) {
+            session.close();
+        }
+        if (acceptor != null) {
+            try {
+                acceptor.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Failed to accept the follower", e);
+                }
+                continue;
+            }
+            Session previous = session;
+            if (previous != null) {
+                log.warn("New follower has connected from {}, dropping the previous one", socket.getRemoteSocketAddress());
+                previous.close();
+            }
+            try {
+                serve(new Session(socket));
+            } catch (IOException e) {
+                log.warn("Replication to the follower {} has failed", socket.getRemoteSocketAddress(), e);
+            }
+        }
+    }
+
+    /**
+     * Send the snapshot and start streaming the events after it in the background
+     */
+    private void serve(Session session) throws IOException {
+        // Written under the read lock, so no event can be published between the snapshot and the session start
+        List<OrderItem> orders = orderQueueService.readAllOrders(live -> {
+            session.acknowledged = publishedEvents;
+            this.session = session;
+            return new ArrayList<>(live);
+        });
+        long sequence = session.acknowledged;
+        DataOutputStream output = session.output;
+        try {
+            output.writeByte(ReplicationProtocol.SNAPSHOT);
+            output.writeLong(sequence);
+            output.writeInt(orders.size());
+            for (OrderItem order : orders) {
+                ReplicationProtocol.writeOrder(output, order);
+            }
+            output.flush();
+        } catch (IOException | RuntimeException e) {
+            // The session has been installed already, so it would keep collecting the events without a sender
+            session.close();
+            throw e;
+        }
+        log.info("Sent snapshot of {} orders at event {} to the follower {}", orders.size(), sequence,
+                session.socket.getRemoteSocketAddress());
+        session.start();
+    }
+
+    private static final class ReplicatedEvent {
+
+        final long sequence;
+        final OrderQueueEvent event;
+        final String tier;
+        final long publishedNanos;
+
+        ReplicatedEvent(long sequence, OrderQueueEvent event, String tier, long publishedNanos) {
+            this.sequence = sequence;
+            this.event = event;
+            this.tier = tier;
+            this.publishedNanos = publishedNanos;
+        }
+
+    }
+
+    /**
+     * Connection to one follower, with a sender thread streaming the batches and a reader of the acknowledgements
+     */
+    private final class Session {
+
+        final Socket socket;
+        final DataOutputStream output;
+        final DataInputStream input;
+        final BlockingQueue<ReplicatedEvent> events = new LinkedBlockingQueue<>();
+        // Sequence and publishing time of the first event of every sent batch which has not been acknowledged yet
+        final Queue<long[]> sentBatches = new ConcurrentLinkedQueue<>();
+        volatile long acknowledged;
+        volatile boolean overflow;
+        volatile boolean closed;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Called under the write lock of the queue, so it never blocks
+         */
+        void enqueue(ReplicatedEvent event) {
+            if (overflow) {
+                return;
+            }
+            if (events.size() >= maxPendingEvents) {
+                overflow = true; // The sender drops the follower, it gets a new snapshot when it connects again
+                return;
+            }
+            events.add(event);
+        }
+
+        void start() {
+            Thread sender = new Thread(this::sendLoop, "replication-sender");
+            sender.setDaemon(true);
+            sender.start();
+            Thread reader = new Thread(this::readAcknowledgements, "replication-acks");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        long lagMillis() {
+            long[] oldest = sentBatches.peek();
+            if (oldest == null) {
+                ReplicatedEvent pending = events.peek();
+                oldest = pending == null ? null : new long[]{pending.sequence, pending.publishedNanos};
+            }
+            return oldest == null ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest[1]);
+        }
+
+        void close() {
+            closed = true;
+            if (session == this) {
+                session = null;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the follower connection", e);
+            }
+        }
+
+        private void sendLoop() {
+            List<ReplicatedEvent> batch = new ArrayList<>();
+            try {
+                while (running && !closed) {
+                    ReplicatedEvent first = events.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (overflow) {
+                        log.warn("Follower {} has fallen {} events behind, disconnecting it",
+                                socket.getRemoteSocketAddress(), maxPendingEvents);
+                        break;
+                    }
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    events.drainTo(batch, maxBatchSize - 1);
+                    send(batch);
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Failed to send the changes to the follower {}", socket.getRemoteSocketAddress(), e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            close();
+        }
+
+        private void send(List<ReplicatedEvent> batch) throws IOException {
+            ReplicatedEvent last = batch.get(batch.size() - 1);
+            sentBatches.add(new long[]{batch.get(0).sequence, batch.get(0).publishedNanos});
+            output.writeByte(ReplicationProtocol.BATCH);
+            output.writeLong(last.sequence);
+            output.writeInt(batch.size());
+            for (ReplicatedEvent replicated : batch) {
+                OrderQueueEvent event = replicated.event;
+                switch (event.getType()) {
+                    case ADDED:
+                        output.writeByte(ReplicationProtocol.ADDED);
+                        ReplicationProtocol.writeOrder(output, event.getClientId(), event.getQuantity(),
+                                event.getOrderAddedNanos(), replicated.tier, event.getExpiresAtNanos());
+                        break;
+                    case CANCELLED:
+                        output.writeByte(ReplicationProtocol.CANCELLED);
+                        output.writeLong(event.getClientId());
+                        break;
+                    default:
+                        output.writeByte(ReplicationProtocol.DELIVERED);
+                        output.writeLong(event.getClientId());
+                        break;
+                }
+            }
+            output.flush();
+        }
+
+        private void readAcknowledgements() {
+            try {
+                while (!closed) {
+                    long sequence = input.readLong();
+                    acknowledged = sequence;
+                    long[] oldest = sentBatches.peek();
+                    while (oldest != null && oldest[0] <= sequence) {
+                        sentBatches.poll();
+                        oldest = sentBatches.peek();
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Follower {} has disconnected", socket.getRemoteSocketAddress());
+                }
+            }
+            close();
+        }
+
+    }
+
+}
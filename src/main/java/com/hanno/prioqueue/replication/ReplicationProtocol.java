@@ -0,0 +1,62 @@
+package com.hanno.prioqueue.replication;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.OrderTimestamps;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * Frames exchanged between the {@link ReplicationLeader} and the {@link ReplicationFollower}.
+ * <pre>
+ * snapshot: 'S' | event sequence (8) | orders number (4) | orders
+ * batch:    'B' | sequence of the last event (8) | events number (4) | events
+ * event:    type (1) | client ID (8) | order, for the added orders only
+ * order:    client ID (8) | quantity (4) | order added, epoch nanos (8) | tier name (UTF, empty if not named)
+ *           | expires at, epoch nanos (8, zero if the order has no deadline)
+ * ack:      sequence of the last applied event (8), sent back by the follower
+ * </pre>
+ * Events are numbered from one, the snapshot has the sequence of the last event it includes.
+ */
+final class ReplicationProtocol {
+
+    static final byte SNAPSHOT = 'S';
+    static final byte BATCH = 'B';
+
+    static final byte ADDED = 1;
+    static final byte CANCELLED = 2;
+    static final byte DELIVERED = 3;
+
+    private ReplicationProtocol() {
+    }
+
+    static void writeOrder(DataOutputStream output, long clientId, int quantity, long orderAddedNanos, String tier,
+                           long expiresAtNanos) throws IOException {
+        output.writeLong(clientId);
+        output.writeInt(quantity);
+        output.writeLong(orderAddedNanos);
+        output.writeUTF(tier == null ? "" : tier);
+        output.writeLong(expiresAtNanos);
+    }
+
+    static void writeOrder(DataOutputStream output, OrderItem order) throws IOException {
+        LocalDateTime expiresAt = order.getExpiresAt();
+        writeOrder(output, order.getClientId(), order.getQuantity(),
+                OrderTimestamps.toEpochNanos(order.getOrderAdded()), order.getTier(),
+                expiresAt == null ? 0L : OrderTimestamps.toEpochNanos(expiresAt));
+    }
+
+    static OrderItem readOrder(DataInputStream input) throws IOException {
+        long clientId = input.readLong();
+        int quantity = input.readInt();
+        long orderAddedNanos = input.readLong();
+        String tier = input.readUTF();
+        long expiresAtNanos = input.readLong();
+        return new OrderItem(clientId, quantity, OrderTimestamps.fromEpochNanos(orderAddedNanos),
+                tier.isEmpty() ? null : tier, null,
+                expiresAtNanos == 0L ? null : OrderTimestamps.fromEpochNanos(expiresAtNanos));
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.hanno.prioqueue.service;
+
+/**
+ * State of the cart packing while walking the queue from its head, see {@link CartPackingTree}
+ */
+final class CartPackingCursor {
+
+    int position;
+    int prevCartsNumber;
+    int itemsInCurrentCart;
+
+}
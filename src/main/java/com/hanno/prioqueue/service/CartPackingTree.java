@@ -0,0 +1,188 @@
+package com.hanno.prioqueue.service;
+
+/**
+ * Segment tree over the slots of one {@link OrderTier} which answers "how many orders and how many full carts
+ * are ahead of the given slot" in logarithmic time.
+ * <p>
+ * Carts are packed with the next-fit rule: orders are taken in the queue order, and when an order does not fit
+ * into the current cart, a new cart is started with it. The packing of a range of orders is therefore a function
+ * of the number of items already in the current cart when the range starts. Every tree node keeps this function
+ * as a table for all the possible cart fill levels {@code [0, cartCapacity]}: the fill level after the range and
+ * the number of carts closed inside of it. Two adjacent ranges are combined by feeding the fill level produced
+ * by the left one into the right one, so an update costs {@code O(cartCapacity * log n)},
+ * while a query follows a single fill level through {@code O(log n)} nodes.
+ */
+final class CartPackingTree {
+
+    private final int cartCapacity;
+    private final int width;
+    private final int capacity;
+    private final int[] count;
+    private final short[] fill;
+    private final int[] carts;
+
+    /**
+     * @param capacity     number of slots, must be a power of two
+     * @param cartCapacity maximal number of items in one cart
+     */
+    CartPackingTree(int capacity, int cartCapacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity should be a power of two: " + capacity);
+        }
+        if (cartCapacity < 1 || cartCapacity > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported cart capacity: " + cartCapacity);
+        }
+        this.cartCapacity = cartCapacity;
+        this.width = cartCapacity + 1;
+        this.capacity = capacity;
+        this.count = new int[2 * capacity];
+        this.fill = new short[2 * capacity * width];
+        this.carts = new int[2 * capacity * width];
+        for (int node = 1; node < 2 * capacity; node++) {
+            setIdentity(node);
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Put the order with the given quantity into the slot, or clear the slot when quantity is zero
+     */
+    void set(int slot, int quantity) {
+        int node = slot + capacity;
+        setLeaf(node, quantity);
+        for (node >>= 1; node > 0; node >>= 1) {
+            combine(node);
+        }
+    }
+
+    /**
+     * Same as {@link #set(int, int)} but without updating the parent nodes, must be followed by {@link #rebuild()}
+     */
+    void setWithoutRebuild(int slot, int quantity) {
+        setLeaf(slot + capacity, quantity);
+    }
+
+    void rebuild() {
+        for (int node = capacity - 1; node > 0; node--) {
+            combine(node);
+        }
+    }
+
+    /**
+     * Update the parent nodes of the slots {@code [fromSlot, toSlot]} after {@link #setWithoutRebuild(int, int)}
+     */
+    void rebuild(int fromSlot, int toSlot) {
+        for (int left = (fromSlot + capacity) >> 1, right = (toSlot + capacity) >> 1; left > 0; left >>= 1, right >>= 1) {
+            for (int node = left; node <= right; node++) {
+                combine(node);
+            }
+        }
+    }
+
+    /**
+     * @return the first slot starting from the given one which holds an order, or -1 if there is no such slot
+     */
+    int firstOccupied(int fromSlot) {
+        if (fromSlot >= capacity) {
+            return -1;
+        }
+        int node = fromSlot + capacity;
+        if (count[node] > 0) {
+            return fromSlot;
+        }
+        // Go up until there is a non-empty subtree to the right, then down to its leftmost order
+        while (node > 1 && ((node & 1) == 1 || count[node + 1] == 0)) {
+            node >>= 1;
+        }
+        if (node == 1) {
+            return -1;
+        }
+        node++;
+        while (node < capacity) {
+            node = count[2 * node] > 0 ? 2 * node : 2 * node + 1;
+        }
+        return node - capacity;
+    }
+
+    /**
+     * Pack all the orders from the slots {@code [0, slot]} into the carts of the given cursor
+     */
+    void packPrefix(int slot, CartPackingCursor cursor) {
+        int left = capacity;
+        int right = slot + capacity + 1;
+        // Nodes of the right border are visited in reverse order, so remember them to apply afterwards
+        int[] rightNodes = new int[32];
+        int rightNodesNumber = 0;
+        while (left < right) {
+            if ((left & 1) == 1) {
+                apply(left++, cursor);
+            }
+            if ((right & 1) == 1) {
+                rightNodes[rightNodesNumber++] = --right;
+            }
+            left >>= 1;
+            right >>= 1;
+        }
+        while (rightNodesNumber > 0) {
+            apply(rightNodes[--rightNodesNumber], cursor);
+        }
+    }
+
+    /**
+     * Pack all the orders of the tree into the carts of the given cursor
+     */
+    void packAll(CartPackingCursor cursor) {
+        apply(1, cursor);
+    }
+
+    private void apply(int node, CartPackingCursor cursor) {
+        int offset = node * width + cursor.itemsInCurrentCart;
+        cursor.position += count[node];
+        cursor.prevCartsNumber += carts[offset];
+        cursor.itemsInCurrentCart = fill[offset];
+    }
+
+    private void setIdentity(int node) {
+        int offset = node * width;
+        count[node] = 0;
+        for (int f = 0; f < width; f++) {
+            fill[offset + f] = (short) f;
+            carts[offset + f] = 0;
+        }
+    }
+
+    private void setLeaf(int node, int quantity) {
+        if (quantity == 0) {
+            setIdentity(node);
+            return;
+        }
+        int offset = node * width;
+        count[node] = 1;
+        for (int f = 0; f < width; f++) {
+            // Orders cannot be split, so an order which doesn't fit starts the next cart
+            if (f + quantity > cartCapacity) {
+                fill[offset + f] = (short) quantity;
+                carts[offset + f] = 1;
+            } else {
+                fill[offset + f] = (short) (f + quantity);
+                carts[offset + f] = 0;
+            }
+        }
+    }
+
+    private void combine(int node) {
+        int offset = node * width;
+        int leftOffset = 2 * node * width;
+        int rightOffset = (2 * node + 1) * width;
+        count[node] = count[2 * node] + count[2 * node + 1];
+        for (int f = 0; f < width; f++) {
+            int middle = fill[leftOffset + f];
+            fill[offset + f] = fill[rightOffset + middle];
+            carts[offset + f] = carts[leftOffset + f] + carts[rightOffset + middle];
+        }
+    }
+
+}
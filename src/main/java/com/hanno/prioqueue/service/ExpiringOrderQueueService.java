@@ -0,0 +1,378 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.OrderExpiredException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Evicts the orders which have not been delivered within their time to live from the wrapped
+ * {@link OrderQueueService}, so the abandoned orders don't hold the positions of the other clients and the cart slots.
+ * <p>
+ * The time to live is {@link OrderItem#getTtlSeconds()} of the order, or {@code queue.expiry.ttlSeconds} for all
+ * the orders if it is above zero. The deadline is stored with the order as {@link OrderItem#getExpiresAt()}, so it
+ * survives the journal and the replication, and the deadlines are kept in a {@link TimerWheel} indexed by client ID, so scheduling
+ * and cancelling one costs constant time, and {@link #expireOrders()} visits only the passed ticks of the wheel
+ * instead of scanning the queue. The expired orders are cancelled in the wrapped queue, so its listeners see them
+ * as cancelled, and the state of an expired order is answered with {@link OrderExpiredException} until the client
+ * adds a new one.
+ * <p>
+ * The changes of the queue run in parallel, while the expiry waits for them to finish, so an order is never evicted
+ * on behalf of an older order of the same client. A reserved order is not evicted, since it is being picked already:
+ * its deadline is put aside until the cart is delivered, or restored when the cart is returned to the queue.
+ * The reservations and the restored orders are followed through the events of the tiered queue, see
+ * {@link #attach(InMemoryTieredPriorityOrderQueueService)}.
+ */
+@Slf4j
+public class ExpiringOrderQueueService implements OrderQueueService, OrderQueueListener {
+
+    private final OrderQueueService delegate;
+    private final long defaultTtlNanos;
+    private final TimerWheel wheel;
+    private final ReadWriteLock expiryLock = new ReentrantReadWriteLock();
+    private final Map<Long, LocalDateTime> expiredOrders = new ConcurrentHashMap<>();
+    private final AtomicLong expiredOrdersNumber = new AtomicLong();
+    // Deadlines of the reserved orders, guarded by the wheel
+    private final long[] reservedDeadlines;
+
+    /**
+     * @param ttlSeconds default time to live of the orders, zero if only the orders with their own one expire
+     */
+    public ExpiringOrderQueueService(OrderQueueService delegate, long maxClientId, long ttlSeconds, long tickMillis) {
+        this.delegate = delegate;
+        this.defaultTtlNanos = TimeUnit.SECONDS.toNanos(Math.max(0L, ttlSeconds));
+        long horizonNanos = defaultTtlNanos > 0 ? defaultTtlNanos : TimeUnit.HOURS.toNanos(1);
+        this.wheel = new TimerWheel(maxClientId, TimeUnit.MILLISECONDS.toNanos(tickMillis), horizonNanos, now());
+        this.reservedDeadlines = new long[(int) maxClientId + 1];
+    }
+
+    /**
+     * Follow the changes of the tiered queue which don't go through this one. The orders restored from a journal
+     * or a leader's snapshot, and the ones queued already, keep their deadlines. The ones without a deadline expire
+     * {@code queue.expiry.ttlSeconds} after they have been added, and the reserved orders keep their deadlines also
+     * when their carts are returned by the timeout.
+     */
+    public void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        orderQueueService.addListener(this);
+        for (OrderItem order : orderQueueService.getAllOrders()) {
+            long deadlineNanos = deadlineNanos(OrderTimestamps.toEpochNanos(order.getOrderAdded()),
+                    order.getExpiresAt() == null ? 0L : OrderTimestamps.toEpochNanos(order.getExpiresAt()));
+            int clientId = order.getClientId().intValue();
+            synchronized (wheel) {
+                if (deadlineNanos != 0L && wheel.deadlineNanos(clientId) == 0L) {
+                    wheel.schedule(clientId, deadlineNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the tiered queue under its write lock
+     */
+    @Override
+    public void onEvent(OrderQueueEvent event) {
+        int clientId = (int) event.getClientId();
+        synchronized (wheel) {
+            switch (event.getType()) {
+                case ADDED:
+                    reservedDeadlines[clientId] = 0L;
+                    long deadlineNanos = deadlineNanos(event.getOrderAddedNanos(), event.getExpiresAtNanos());
+                    if (deadlineNanos != 0L) {
+                        wheel.schedule(clientId, deadlineNanos);
+                    }
+                    break;
+                case RESERVED:
+                    reservedDeadlines[clientId] = wheel.deadlineNanos(clientId);
+                    wheel.cancel(clientId);
+                    break;
+                case RETURNED:
+                    if (reservedDeadlines[clientId] != 0L) {
+                        // Expires with the next tick if the deadline has passed meanwhile
+                        wheel.schedule(clientId, reservedDeadlines[clientId]);
+                        reservedDeadlines[clientId] = 0L;
+                    }
+                    break;
+                case DELIVERED:
+                case CANCELLED:
+                    reservedDeadlines[clientId] = 0L;
+                    wheel.cancel(clientId);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public OrderItem addOrder(OrderItem order) throws InvalidOrderParameterException {
+        long deadlineNanos = expireAt(order);
+        expiryLock.readLock().lock();
+        try {
+            OrderItem addedOrder = delegate.addOrder(order);
+            if (addedOrder != null) {
+                onAdded(addedOrder.getClientId(), deadlineNanos);
+            }
+            return addedOrder;
+        } finally {
+            expiryLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Orders with an invalid time to live are rejected, the rest of the batch goes to the wrapped queue
+     */
+    @Override
+    public List<BatchOrderResult> addOrders(List<OrderItem> orders) {
+        return addOrders(orders, delegate::addOrders);
+    }
+
+    @Override
+    public List<BatchOrderResult> importOrders(List<OrderItem> orders) {
+        return addOrders(orders, delegate::importOrders);
+    }
+
+    private List<BatchOrderResult> addOrders(List<OrderItem> orders,
+                                             Function<List<OrderItem>, List<BatchOrderResult>> adding) {
+        List<BatchOrderResult> results = new ArrayList<>(orders.size());
+        List<OrderItem> validOrders = new ArrayList<>(orders.size());
+        List<Long> deadlines = new ArrayList<>(orders.size());
+        for (OrderItem order : orders) {
+            try {
+                deadlines.add(order == null ? 0L : expireAt(order));
+                validOrders.add(order);
+                results.add(null);
+            } catch (InvalidOrderParameterException e) {
+                results.add(BatchOrderResult.rejected(order.getClientId(), e.getMessage()));
+            }
+        }
+        expiryLock.readLock().lock();
+        try {
+            List<BatchOrderResult> validResults = adding.apply(validOrders);
+            for (int i = 0, valid = 0; i < results.size(); i++) {
+                if (results.get(i) != null) {
+                    continue;
+                }
+                BatchOrderResult result = validResults.get(valid);
+                if (result.isAccepted()) {
+                    onAdded(result.getClientId(), deadlines.get(valid));
+                }
+                results.set(i, result);
+                valid++;
+            }
+        } finally {
+            expiryLock.readLock().unlock();
+        }
+        return results;
+    }
+
+    @Override
+    public List<OrderItem> getAllOrders() {
+        return delegate.getAllOrders();
+    }
+
+    @Override
+    public OrderPage getOrders(String cursor, int limit) throws InvalidOrderParameterException {
+        return delegate.getOrders(cursor, limit);
+    }
+
+    @Override
+    public List<OrderItem> getNextDelivery() {
+        expiryLock.readLock().lock();
+        try {
+            List<OrderItem> delivery = delegate.getNextDelivery();
+            onDelivered(delivery);
+            return delivery;
+        } finally {
+            expiryLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public CartReservation reserveNextDelivery(String pickerId) throws InvalidOrderParameterException {
+        return delegate.reserveNextDelivery(pickerId);
+    }
+
+    @Override
+    public List<OrderItem> confirmDelivery(Long reservationId) {
+        expiryLock.readLock().lock();
+        try {
+            List<OrderItem> delivery = delegate.confirmDelivery(reservationId);
+            if (delivery != null) {
+                onDelivered(delivery);
+            }
+            return delivery;
+        } finally {
+            expiryLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean returnDelivery(Long reservationId) {
+        return delegate.returnDelivery(reservationId);
+    }
+
+    /**
+     * @throws OrderExpiredException if the client's last order has expired
+     */
+    @Override
+    public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
+        ClientOrderState state = delegate.getClientOrderState(clientId);
+        if (state == null) {
+            LocalDateTime expired = expiredOrders.get(clientId);
+            if (expired != null) {
+                throw new OrderExpiredException(
+                        "Order of the client with ID '" + clientId + "' has expired at " + expired);
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
+        expiryLock.readLock().lock();
+        try {
+            boolean removed = delegate.removeOrder(clientId);
+            if (removed) {
+                synchronized (wheel) {
+                    wheel.cancel(clientId.intValue());
+                }
+            }
+            return removed;
+        } finally {
+            expiryLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public String getTierName(Long clientId) {
+        return delegate.getTierName(clientId);
+    }
+
+    @Override
+    public Map<String, Integer> getTierDepths() {
+        return delegate.getTierDepths();
+    }
+
+    /**
+     * Evict the orders whose time to live has passed
+     *
+     * @return number of the evicted orders
+     */
+    public int expireOrders() {
+        List<Integer> expiredClients = new ArrayList<>();
+        int expired = 0;
+        expiryLock.writeLock().lock();
+        try {
+            synchronized (wheel) {
+                wheel.advance(now(), expiredClients::add);
+            }
+            LocalDateTime now = LocalDateTime.now();
+            for (int clientId : expiredClients) {
+                try {
+                    if (delegate.removeOrder((long) clientId)) {
+                        expiredOrders.put((long) clientId, now);
+                        expired++;
+                    } else {
+                        synchronized (wheel) {
+                            // Reserved in the meantime, it expires right away if the cart is returned
+                            reservedDeadlines[clientId] = now();
+                        }
+                    }
+                } catch (InvalidOrderParameterException e) {
+                    log.error("Failed to evict the expired order of the client {}", clientId, e);
+                }
+            }
+        } finally {
+            expiryLock.writeLock().unlock();
+        }
+        if (expired > 0) {
+            expiredOrdersNumber.addAndGet(expired);
+            log.info("Evicted {} expired order(s)", expired);
+        }
+        return expired;
+    }
+
+    public long getExpiredOrders() {
+        return expiredOrdersNumber.get();
+    }
+
+    private void onAdded(Long clientId, long deadlineNanos) {
+        expiredOrders.remove(clientId);
+        if (deadlineNanos != 0L) {
+            synchronized (wheel) {
+                wheel.schedule(clientId.intValue(), deadlineNanos);
+            }
+        }
+    }
+
+    private void onDelivered(List<OrderItem> delivery) {
+        synchronized (wheel) {
+            for (OrderItem order : delivery) {
+                wheel.cancel(order.getClientId().intValue());
+            }
+        }
+    }
+
+    /**
+     * Set the deadline of the order from its time to live
+     *
+     * @return the deadline, or 0 if the order doesn't expire
+     */
+    private long expireAt(OrderItem order) throws InvalidOrderParameterException {
+        long ttlNanos = ttlNanos(order);
+        if (ttlNanos == 0) {
+            order.setExpiresAt(null);
+            return 0L;
+        }
+        long deadlineNanos = now() + ttlNanos;
+        order.setExpiresAt(OrderTimestamps.fromEpochNanos(deadlineNanos));
+        return deadlineNanos;
+    }
+
+    /**
+     * @return deadline of the order which has been added without this queue, or 0 if it doesn't expire
+     */
+    private long deadlineNanos(long orderAddedNanos, long expiresAtNanos) {
+        if (expiresAtNanos != 0L) {
+            return expiresAtNanos;
+        }
+        return defaultTtlNanos > 0 ? orderAddedNanos + defaultTtlNanos : 0L;
+    }
+
+    private long ttlNanos(OrderItem order) throws InvalidOrderParameterException {
+        Long ttlSeconds = order.getTtlSeconds();
+        if (ttlSeconds == null) {
+            return defaultTtlNanos;
+        }
+        if (ttlSeconds < 1) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Order TTL '%d' should be positive", ttlSeconds));
+        }
+        return TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    private static long now() {
+        return OrderTimestamps.toEpochNanos(LocalDateTime.now());
+    }
+
+}
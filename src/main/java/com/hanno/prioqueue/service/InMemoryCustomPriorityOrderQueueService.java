@@ -12,10 +12,10 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -32,19 +32,21 @@ public class InMemoryCustomPriorityOrderQueueService implements OrderQueueServic
     private long pickupTimeoutSeconds;
 
     private final List<OrderItem> orderQueue = new ArrayList<>();
+    // Client IDs which have an order in the queue, so duplicate checks don't scan the whole queue
+    private final BitSet queuedClients = new BitSet();
 
     @Override
     public OrderItem addOrder(@NonNull OrderItem order) throws InvalidOrderParameterException {
         validateClientId(order.getClientId());
         validateOrderQuantity(order.getQuantity());
-        if (orderQueue.stream().anyMatch(o -> order.getClientId().equals(o.getClientId()))) {
+        if (queuedClients.get(order.getClientId().intValue())) {
             throw new DuplicateClientOrderException(
                     "Order for the client with ID '" + order.getClientId() + "' already exists in the queue");
         }
         order.setOrderAdded(LocalDateTime.now());
         log.info("Adding order: {}", order);
         addOrderBasedOnPriority(order);
-        logOrderState();
+        queuedClients.set(order.getClientId().intValue());
         return order;
     }
 
@@ -66,6 +68,7 @@ public class InMemoryCustomPriorityOrderQueueService implements OrderQueueServic
             } else {
                 itemsInTheCart += order.getQuantity();
                 cart.add(orderQueue.remove(0));
+                queuedClients.clear(order.getClientId().intValue());
             }
         }
         log.info("Next delivery contains {} order(s) with total items quantity {}", cart.size(), itemsInTheCart);
@@ -75,6 +78,9 @@ public class InMemoryCustomPriorityOrderQueueService implements OrderQueueServic
     @Override
     public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
         validateClientId(clientId);
+        if (!queuedClients.get(clientId.intValue())) {
+            return null;
+        }
         Iterator<OrderItem> iterator = orderQueue.iterator();
         int clientPosition = 0;
         int prevCartsNumber = 0;
@@ -99,6 +105,10 @@ public class InMemoryCustomPriorityOrderQueueService implements OrderQueueServic
     @Override
     public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
         validateClientId(clientId);
+        if (!queuedClients.get(clientId.intValue())) {
+            return false;
+        }
+        queuedClients.clear(clientId.intValue());
         return orderQueue.removeIf(o -> clientId.equals(o.getClientId()));
     }
 
@@ -127,10 +137,4 @@ public class InMemoryCustomPriorityOrderQueueService implements OrderQueueServic
         }
     }
 
-    private void logOrderState() {
-        log.debug("Queue state:\n{}",
-                orderQueue.stream().map(OrderItem::toString).collect(
-                        Collectors.joining("\n", "__________\n", "\n^^^^^^^^^^")));
-    }
-
 }
@@ -10,10 +10,10 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
-import java.util.stream.Collectors;
 
 /**
  * This class uses standard Java {@link PriorityQueue}, but this implementation adds elements
@@ -34,19 +34,21 @@ public class InMemoryPriorityOrderQueueService implements OrderQueueService {
     private long pickupTimeoutSeconds;
 
     private final PriorityQueue<OrderItem> orderQueue = new PriorityQueue<>();
+    // Client IDs which have an order in the queue, so duplicate checks don't scan the whole queue
+    private final BitSet queuedClients = new BitSet();
 
     @Override
     public OrderItem addOrder(@NonNull OrderItem order) throws InvalidOrderParameterException {
         validateClientId(order.getClientId());
         validateOrderQuantity(order.getQuantity());
-        if (orderQueue.stream().anyMatch(o -> order.getClientId().equals(o.getClientId()))) {
+        if (queuedClients.get(order.getClientId().intValue())) {
             log.error("Order for the client with ID '{}' already exists in the queue", order.getClientId());
             return null;
         }
         order.setOrderAdded(LocalDateTime.now());
         log.info("Adding order: {}", order);
         orderQueue.offer(order);
-        logQueueState();
+        queuedClients.set(order.getClientId().intValue());
         return order;
     }
 
@@ -66,6 +68,7 @@ public class InMemoryPriorityOrderQueueService implements OrderQueueService {
             } else {
                 itemsInTheCart += order.getQuantity();
                 cart.add(orderQueue.poll());
+                queuedClients.clear(order.getClientId().intValue());
             }
         }
         return cart;
@@ -74,6 +77,9 @@ public class InMemoryPriorityOrderQueueService implements OrderQueueService {
     @Override
     public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
         validateClientId(clientId);
+        if (!queuedClients.get(clientId.intValue())) {
+            return null;
+        }
         Iterator<OrderItem> iterator = orderQueue.iterator();
         int clientPosition = 0;
         int prevCartsNumber = 0;
@@ -98,6 +104,10 @@ public class InMemoryPriorityOrderQueueService implements OrderQueueService {
     @Override
     public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
         validateClientId(clientId);
+        if (!queuedClients.get(clientId.intValue())) {
+            return false;
+        }
+        queuedClients.clear(clientId.intValue());
         return orderQueue.removeIf(o -> clientId.equals(o.getClientId()));
     }
 
@@ -116,10 +126,4 @@ public class InMemoryPriorityOrderQueueService implements OrderQueueService {
         }
     }
 
-    private void logQueueState() {
-        log.info("Queue state:\n{}",
-                orderQueue.stream().map(OrderItem::toString).collect(
-                        Collectors.joining("\n", "__________\n", "\n^^^^^^^^^^")));
-    }
-
 }
@@ -0,0 +1,1219 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps one FIFO queue per priority tier instead of a single sorted list.
+ * Within a tier orders are always sorted by the time they entered it, so appending to the tail
+ * of the tier needs no swaps, and the next delivery is always taken from the head of the highest non-empty tier.
+ * The tiers are configured with {@code queue.tiers}, see {@link TierPolicy}; by default the premium clients
+ * go first as in {@link OrderItem#compareTo(OrderItem)}. With {@code queue.aging.promoteAfterMs} above zero
+ * the waiting orders are promoted to the higher tiers by their age, see {@link #promoteAgedOrders()}.
+ * <p>
+ * The orders are kept in an {@link OrderStore} of primitive arrays indexed by client ID, so duplicate detection,
+ * lookups and cancellations by client ID don't depend on the queue length, and a queued order is not an object
+ * of its own. {@link OrderItem}s are created only when the orders are returned by the service.
+ * Each tier also keeps a {@link CartPackingTree}, so the client's position and the number of full carts
+ * ahead of the client's order are calculated in logarithmic time instead of walking the queue.
+ * <p>
+ * The service is safe to be called from the concurrent requests. All the changes of the queue are made by
+ * a single writer at a time, holding the write lock of a {@link StampedLock} only for the short constant
+ * or logarithmic time update. State queries don't take a lock in the common case, see
+ * {@link #getClientOrderState(Long)}.
+ * <p>
+ * Several pickers may work in parallel, claiming the carts with {@link #reserveNextDelivery(String)}. A claimed cart
+ * leaves the tiers under the write lock, so the claims never overlap, while its orders stay in the store reserved
+ * for their clients until the cart is confirmed or returned. The carts ahead of an order are picked by all the
+ * active pickers at once, so the wait time is divided by their number.
+ * <p>
+ * With {@code joe.cart.lookAhead} above zero the carts are packed by a {@link LookAheadCartPlan} instead of next-fit,
+ * taking the later orders of the same tier into the space left in the cart. The plan is kept up to date by the writers
+ * and extended by the state queries, which take the read lock then.
+ */
+@Slf4j
+@Service
+@Qualifier("TieredPriorityOrderQueue")
+public class InMemoryTieredPriorityOrderQueueService implements OrderQueueService {
+
+    @Value("${queue.client.maxId}")
+    private long maxClientId;
+
+    @Value("${joe.cart.capacity}")
+    private int cartCapacity;
+
+    @Value("${joe.cart.pickupTimeout}")
+    private long pickupTimeoutSeconds;
+
+    @Value("${joe.reservation.timeoutSeconds}")
+    private long reservationTimeoutSeconds;
+
+    @Value("${joe.cart.lookAhead}")
+    private int lookAhead;
+
+    @Value("${queue.tiers}")
+    private String tierDefinitions;
+
+    @Value("${queue.aging.promoteAfterMs}")
+    private long promoteAfterMillis;
+
+    @Value("${queue.aging.tickMs}")
+    private long agingTickMillis;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile TierPolicy tierPolicy;
+    private volatile OrderTier[] tiers;
+    private volatile OrderStore store;
+    private volatile LookAheadCartPlan plan;
+    private TimerWheel agingWheel;
+    private final AtomicLong sequences = new AtomicLong();
+    // Set on the shards of a ShardedOrderQueueService, which draw the sequence numbers from the merged tiers instead
+    private MergedOrderTiers mergedTiers;
+    private final AtomicLong promotedOrders = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+    private final List<OrderQueueListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Changed under the write lock
+    private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong nextReservationId = new AtomicLong();
+    private final Map<String, Long> pickerActivityNanos = new ConcurrentHashMap<>();
+    private volatile int activePickers;
+
+    /**
+     * Register the listener of the queue changes, see {@link OrderQueueListener}
+     */
+    public void addListener(OrderQueueListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OrderQueueListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public OrderItem addOrder(@NonNull OrderItem order) throws InvalidOrderParameterException {
+        validateClientId(order.getClientId());
+        validateOrderQuantity(order.getQuantity());
+        int tier = tierOf(order);
+        long stamp = lock.writeLock();
+        try {
+            initialize();
+            int clientId = order.getClientId().intValue();
+            if (store.contains(clientId)) {
+                throw new DuplicateClientOrderException(
+                        "Order for the client with ID '" + clientId + "' already exists in the queue");
+            }
+            // Taken under the lock, so the order of the tier always matches the time the orders were added
+            order.setOrderAdded(LocalDateTime.now());
+            long orderAddedNanos = OrderTimestamps.toEpochNanos(order.getOrderAdded());
+            store.put(clientId, order.getQuantity(), orderAddedNanos,
+                    nextSequence(clientId, order.getQuantity(), orderAddedNanos, tier, tier), tier, tier,
+                    expiresAtNanos(order));
+            tiers[tier].addLast(clientId);
+            if (plan != null) {
+                plan.onAdded(clientId);
+            }
+            scheduleAging(clientId);
+            publish(OrderQueueEvent.Type.ADDED, clientId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        log.info("Added order: {}", order);
+        return order;
+    }
+
+    /**
+     * The whole batch is validated before taking the lock, including the duplicates within the batch itself.
+     * Then the valid orders are checked against the queue and appended to their tiers under a single
+     * write lock, updating each tier's packing tree once for the batch.
+     */
+    @Override
+    public List<BatchOrderResult> addOrders(@NonNull List<OrderItem> orders) {
+        return addOrders(orders, false);
+    }
+
+    /**
+     * Added like {@link #addOrders(List)}, but the orders with {@link OrderItem#getOrderAdded()} keep it and enter
+     * their tiers sorted by it, so the imported backlog keeps its order and waiting times. The orders are only
+     * appended to the tiers, so the ones older than the last order of their tier are rejected. With the aging enabled
+     * the orders are added in the tiers they have been promoted to by their age.
+     */
+    @Override
+    public List<BatchOrderResult> importOrders(@NonNull List<OrderItem> orders) {
+        return addOrders(orders, true);
+    }
+
+    private List<BatchOrderResult> addOrders(List<OrderItem> orders, boolean keepOrderAdded) {
+        BatchOrderResult[] results = new BatchOrderResult[orders.size()];
+        int[] orderTiers = new int[orders.size()];
+        BitSet batchClients = new BitSet();
+        for (int i = 0; i < orders.size(); i++) {
+            OrderItem order = orders.get(i);
+            if (order == null) {
+                results[i] = BatchOrderResult.rejected(null, "Order is empty");
+                continue;
+            }
+            try {
+                validateClientId(order.getClientId());
+                validateOrderQuantity(order.getQuantity());
+                orderTiers[i] = tierOf(order);
+            } catch (InvalidOrderParameterException e) {
+                results[i] = BatchOrderResult.rejected(order.getClientId(), e.getMessage());
+                continue;
+            }
+            int clientId = order.getClientId().intValue();
+            if (batchClients.get(clientId)) {
+                results[i] = BatchOrderResult.rejected(order.getClientId(),
+                        "Order for the client with ID '" + clientId + "' is duplicated in the batch");
+                continue;
+            }
+            batchClients.set(clientId);
+        }
+        int[] addingOrder = keepOrderAdded ? byOrderAdded(orders, results) : null;
+
+        int addedOrders = 0;
+        long stamp = lock.writeLock();
+        try {
+            initialize();
+            int[][] tierClients = new int[tiers.length][orders.size()];
+            int[] tierSizes = new int[tiers.length];
+            long[] tierTailNanos = new long[tiers.length];
+            for (int i = 0; i < tiers.length; i++) {
+                int tail = tiers[i].tail();
+                tierTailNanos[i] = tail == OrderStore.NONE ? Long.MIN_VALUE : store.orderAddedNanos(tail);
+            }
+            LocalDateTime now = LocalDateTime.now();
+            long nowNanos = OrderTimestamps.toEpochNanos(now);
+            for (int k = 0; k < orders.size(); k++) {
+                int i = addingOrder == null ? k : addingOrder[k];
+                if (results[i] != null) {
+                    continue;
+                }
+                OrderItem order = orders.get(i);
+                int clientId = order.getClientId().intValue();
+                if (store.contains(clientId)) {
+                    results[i] = BatchOrderResult.rejected(order.getClientId(),
+                            "Order for the client with ID '" + clientId + "' already exists in the queue");
+                    continue;
+                }
+                if (!keepOrderAdded || order.getOrderAdded() == null) {
+                    order.setOrderAdded(now);
+                }
+                long orderAddedNanos = OrderTimestamps.toEpochNanos(order.getOrderAdded());
+                int baseTier = orderTiers[i];
+                int tier = agedTier(baseTier, orderAddedNanos, nowNanos);
+                if (keepOrderAdded && orderAddedNanos < tierTailNanos[tier]) {
+                    // Appending it would break the order of the tier
+                    results[i] = BatchOrderResult.rejected(order.getClientId(), "Order added at "
+                            + order.getOrderAdded() + " is older than the last order of the tier "
+                            + tierPolicy.name(tier));
+                    continue;
+                }
+                tierTailNanos[tier] = orderAddedNanos;
+                store.put(clientId, order.getQuantity(), orderAddedNanos,
+                        nextSequence(clientId, order.getQuantity(), orderAddedNanos, baseTier, tier), baseTier, tier,
+                        expiresAtNanos(order));
+                tierClients[tier][tierSizes[tier]++] = clientId;
+                results[i] = BatchOrderResult.accepted(order.getClientId());
+                addedOrders++;
+            }
+            for (int i = 0; i < tiers.length; i++) {
+                tiers[i].addAllLast(tierClients[i], tierSizes[i]);
+                for (int j = 0; j < tierSizes[i]; j++) {
+                    if (plan != null) {
+                        plan.onAdded(tierClients[i][j]);
+                    }
+                    scheduleAging(tierClients[i][j]);
+                    publish(OrderQueueEvent.Type.ADDED, tierClients[i][j]);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        log.info("{} {} of {} order(s) from the batch", keepOrderAdded ? "Imported" : "Added", addedOrders,
+                orders.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @return indexes of the orders sorted by {@link OrderItem#getOrderAdded()}, the orders without it
+     * and the rejected ones last in the batch order
+     */
+    private static int[] byOrderAdded(List<OrderItem> orders, BatchOrderResult[] results) {
+        Comparator<Integer> byOrderAdded = Comparator.comparing(
+                i -> results[i] == null ? orders.get(i).getOrderAdded() : null,
+                Comparator.nullsLast(Comparator.naturalOrder()));
+        return IntStream.range(0, orders.size()).boxed().sorted(byOrderAdded).mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public List<OrderItem> getAllOrders() {
+        List<OrderItem> orders;
+        long stamp = lock.readLock();
+        try {
+            OrderTier[] tiers = this.tiers;
+            if (tiers == null) {
+                return new ArrayList<>();
+            }
+            orders = new ArrayList<>(size(tiers));
+            for (OrderTier tier : tiers) {
+                tier.copyTo(orders);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        log.info("Currently queue contains {} orders", orders.size());
+        return orders;
+    }
+
+    /**
+     * Same as {@link #getAllOrders()}, but the copy is handed to the reader before the queue is unlocked,
+     * so the reader can capture its own state consistent with the copy, like the last event it has received.
+     * The reader should be quick, since the writers wait for it.
+     * <p>
+     * The copy also includes the reserved orders, which are still owed to the clients. They come first, since
+     * the carts are always claimed from the head of the queue, so every reserved order is older than
+     * the queued orders of its tier.
+     */
+    public <T> T readAllOrders(Function<List<OrderItem>, T> reader) {
+        long stamp = lock.readLock();
+        try {
+            OrderTier[] tiers = this.tiers;
+            List<OrderItem> orders = new ArrayList<>(tiers == null ? 0 : size(tiers));
+            if (tiers != null) {
+                List<Integer> reservedClients = new ArrayList<>();
+                for (Reservation reservation : reservations.values()) {
+                    for (int clientId : reservation.clientIds) {
+                        reservedClients.add(clientId);
+                    }
+                }
+                reservedClients.sort(Comparator.comparingLong(store::sequence));
+                for (int clientId : reservedClients) {
+                    orders.add(store.toOrderItem(clientId));
+                }
+                for (OrderTier tier : tiers) {
+                    tier.copyTo(orders);
+                }
+            }
+            return reader.apply(orders);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Page is read under the read lock, so it costs {@code O(log n + limit)} regardless of the queue length
+     */
+    @Override
+    public OrderPage getOrders(String cursor, int limit) throws InvalidOrderParameterException {
+        if (limit < 1) {
+            throw new InvalidOrderParameterException("Page limit '" + limit + "' should be positive");
+        }
+        OrderCursor position = cursor == null ? null : OrderCursor.decode(cursor, tierPolicy().size());
+        List<OrderItem> orders = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            OrderTier[] tiers = this.tiers;
+            if (tiers == null) {
+                return OrderPage.of(orders, null);
+            }
+            int tier = position == null ? 0 : position.tier;
+            int clientId = position == null ? tiers[0].head() : tiers[tier].firstAfter(position.sequence);
+            int last = OrderStore.NONE;
+            while (orders.size() < limit) {
+                if (clientId == OrderStore.NONE) {
+                    if (++tier == tiers.length) {
+                        break;
+                    }
+                    clientId = tiers[tier].head();
+                    continue;
+                }
+                orders.add(store.toOrderItem(clientId));
+                last = clientId;
+                clientId = tiers[tier].next(clientId);
+            }
+            boolean hasMore = clientId != OrderStore.NONE;
+            for (int i = tier + 1; !hasMore && i < tiers.length; i++) {
+                hasMore = !tiers[i].isEmpty();
+            }
+            return OrderPage.of(orders, hasMore ? new OrderCursor(store.tier(last), store.sequence(last)).encode() : null);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<OrderItem> getNextDelivery() {
+        log.info("Gathering next delivery using cart capacity of {} items", cartCapacity);
+        List<OrderItem> cart;
+        long stamp = lock.writeLock();
+        try {
+            int[] clientIds = takeNextCart(OrderQueueEvent.Type.DELIVERED);
+            cart = new ArrayList<>(clientIds.length);
+            for (int clientId : clientIds) {
+                cart.add(store.toOrderItem(clientId));
+                cancelAging(clientId);
+                store.remove(clientId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        log.info("Next delivery contains {} order(s) with total items quantity {}", cart.size(), quantity(cart));
+        return cart;
+    }
+
+    /**
+     * The cart is claimed under the write lock for the same short time as {@link #getNextDelivery()}, the picking
+     * itself holds no lock. Expired reservations are returned to the queue first, so their orders are claimed again.
+     */
+    @Override
+    public CartReservation reserveNextDelivery(String pickerId) throws InvalidOrderParameterException {
+        if (pickerId == null || pickerId.isBlank()) {
+            throw new InvalidOrderParameterException("Picker ID should not be empty");
+        }
+        returnExpiredReservations();
+        Reservation reservation = null;
+        long stamp = lock.writeLock();
+        try {
+            int[] clientIds = takeNextCart(OrderQueueEvent.Type.RESERVED);
+            if (clientIds.length > 0) {
+                List<OrderItem> orders = new ArrayList<>(clientIds.length);
+                for (int clientId : clientIds) {
+                    orders.add(store.toOrderItem(clientId));
+                    cancelAging(clientId);
+                    store.reserve(clientId);
+                }
+                long reservationId = nextReservationId.incrementAndGet();
+                reservation = new Reservation(clientIds, CartReservation.of(reservationId, pickerId, orders,
+                        LocalDateTime.now().plusSeconds(reservationTimeoutSeconds)),
+                        System.nanoTime() + TimeUnit.SECONDS.toNanos(reservationTimeoutSeconds));
+                reservations.put(reservationId, reservation);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        recordPickerActivity(pickerId);
+        if (reservation == null) {
+            log.info("No orders to reserve for the picker {}", pickerId);
+            return null;
+        }
+        log.info("Reserved cart {} of {} order(s) for the picker {}", reservation.cart.getReservationId(),
+                reservation.clientIds.length, pickerId);
+        return reservation.cart;
+    }
+
+    /**
+     * A reservation which has expired, but has not been returned to the queue yet, is still delivered
+     */
+    @Override
+    public List<OrderItem> confirmDelivery(@NonNull Long reservationId) {
+        Reservation reservation;
+        List<OrderItem> cart = new ArrayList<>();
+        long stamp = lock.writeLock();
+        try {
+            reservation = reservations.remove(reservationId);
+            if (reservation == null) {
+                return null;
+            }
+            for (int clientId : reservation.clientIds) {
+                cart.add(store.toOrderItem(clientId));
+                publish(OrderQueueEvent.Type.DELIVERED, clientId, 0);
+                store.remove(clientId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        recordPickerActivity(reservation.cart.getPickerId());
+        log.info("Delivered cart {} of {} order(s) with total items quantity {}", reservationId, cart.size(),
+                quantity(cart));
+        return cart;
+    }
+
+    @Override
+    public boolean returnDelivery(@NonNull Long reservationId) {
+        Reservation reservation;
+        long stamp = lock.writeLock();
+        try {
+            reservation = reservations.remove(reservationId);
+            if (reservation == null) {
+                return false;
+            }
+            returnToQueue(reservation);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        recordPickerActivity(reservation.cart.getPickerId());
+        log.info("Returned cart {} of {} order(s) to the queue", reservationId, reservation.clientIds.length);
+        return true;
+    }
+
+    /**
+     * Return the carts which have not been confirmed within {@code joe.reservation.timeoutSeconds},
+     * for example because the picker has gone
+     *
+     * @return number of the returned carts
+     */
+    public int returnExpiredReservations() {
+        long now = System.nanoTime();
+        int returnedCarts = 0;
+        for (Reservation reservation : reservations.values()) {
+            if (now - reservation.expiresAtNanos < 0) {
+                continue;
+            }
+            long stamp = lock.writeLock();
+            try {
+                if (reservations.remove(reservation.cart.getReservationId(), reservation)) {
+                    returnToQueue(reservation);
+                    returnedCarts++;
+                    log.warn("Reservation {} of the picker {} has expired, returned {} order(s) to the queue",
+                            reservation.cart.getReservationId(), reservation.cart.getPickerId(),
+                            reservation.clientIds.length);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        updateActivePickers(now);
+        return returnedCarts;
+    }
+
+    /**
+     * @return number of the pickers which have claimed, confirmed or returned a cart within
+     * {@code joe.reservation.timeoutSeconds}, at least one
+     */
+    public int getActivePickers() {
+        return Math.max(1, activePickers);
+    }
+
+    /**
+     * @return true if the carts are packed with a look-ahead, so a picked cart is not always the head of the queue
+     */
+    public boolean isLookAheadPacking() {
+        return lookAhead > 0;
+    }
+
+    /**
+     * Position and wait time are read optimistically, without blocking the writers or the other readers.
+     * Only when a writer has changed the queue in the meantime, the calculation is repeated under the read lock.
+     * The look-ahead packing is always calculated under the read lock, since the queries extend the shared plan.
+     */
+    @Override
+    public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
+        validateClientId(clientId);
+        if (isLookAheadPacking()) {
+            return getLookAheadClientOrderState(clientId);
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                CartPackingCursor cursor = packUpTo(clientId);
+                if (lock.validate(stamp)) {
+                    return toClientOrderState(clientId, cursor);
+                }
+            } catch (RuntimeException e) {
+                // The queue has been changed while reading it, the result is discarded anyway
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return toClientOrderState(clientId, packUpTo(clientId));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private ClientOrderState getLookAheadClientOrderState(long clientId) {
+        long stamp = lock.readLock();
+        try {
+            CartPackingCursor cursor = packUpTo(clientId);
+            if (cursor != null && cursor.position > 0) {
+                cursor.prevCartsNumber = plan.cartsAhead((int) clientId);
+            }
+            return toClientOrderState(clientId, cursor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * An order in a cart claimed by a picker cannot be cancelled
+     */
+    @Override
+    public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
+        validateClientId(clientId);
+        long stamp = lock.writeLock();
+        try {
+            int id = clientId.intValue();
+            if (store == null || !store.isQueued(id)) {
+                return false;
+            }
+            publish(OrderQueueEvent.Type.CANCELLED, id);
+            unlink(id);
+            cancelAging(id);
+            store.remove(id);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Put the orders restored from a persistent storage back into the queue, keeping their
+     * {@link OrderItem#getOrderAdded()}, {@link OrderItem#getTier()} and {@link OrderItem#getExpiresAt()}. Orders are
+     * appended to their tiers in the given order and published as {@link OrderQueueEvent.Type#ADDED}. With the aging
+     * enabled the orders are restored in the tiers they have been promoted to by their age, where the promoted orders
+     * follow the ones which have entered the tier before their promotion, as if they were promoted live.
+     *
+     * @param orders valid orders, the ones for the clients which are already queued are skipped
+     */
+    public void restoreOrders(List<OrderItem> orders) {
+        long stamp = lock.writeLock();
+        try {
+            initialize();
+            restore(orders);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace the queued orders with the restored ones under a single write lock, so the queue is never seen
+     * empty in between. The replaced orders are published as {@link OrderQueueEvent.Type#CANCELLED}, and the
+     * restored ones as {@link OrderQueueEvent.Type#ADDED}, see {@link #restoreOrders(List)}. The reserved orders
+     * are kept.
+     */
+    public void replaceOrders(List<OrderItem> orders) {
+        long stamp = lock.writeLock();
+        try {
+            initialize();
+            for (OrderTier tier : tiers) {
+                for (int clientId = tier.head(); clientId != OrderStore.NONE; clientId = tier.head()) {
+                    publish(OrderQueueEvent.Type.CANCELLED, clientId);
+                    unlink(clientId);
+                    cancelAging(clientId);
+                    store.remove(clientId);
+                }
+            }
+            restore(orders);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Must be called under the write lock
+     */
+    private void restore(List<OrderItem> orders) {
+        long now = OrderTimestamps.toEpochNanos(LocalDateTime.now());
+        int[][] tierClients = new int[tiers.length][orders.size()];
+        int[] tierSizes = new int[tiers.length];
+        boolean[] promotedTiers = new boolean[tiers.length];
+        for (OrderItem order : orders) {
+            int clientId = order.getClientId().intValue();
+            if (store.contains(clientId)) {
+                log.warn("Skipping restored order, the client already has an order in the queue: {}", order);
+                continue;
+            }
+            int baseTier = order.getTier() == null ? -1 : tierPolicy.indexOf(order.getTier());
+            if (baseTier < 0) {
+                if (order.getTier() != null) {
+                    log.warn("Unknown tier of the restored order, using the tier of the client's ID range: {}",
+                            order);
+                }
+                baseTier = tierPolicy.tierOf(clientId);
+            }
+            long orderAddedNanos = OrderTimestamps.toEpochNanos(order.getOrderAdded());
+            int tier = agedTier(baseTier, orderAddedNanos, now);
+            // The sequence is drawn once the order of the tier is known
+            store.put(clientId, order.getQuantity(), orderAddedNanos, 0L, baseTier, tier, expiresAtNanos(order));
+            tierClients[tier][tierSizes[tier]++] = clientId;
+            promotedTiers[tier] |= tier != baseTier;
+        }
+        for (int i = 0; i < tiers.length; i++) {
+            if (promotedTiers[i]) {
+                sortByTierEntry(tierClients[i], tierSizes[i]);
+            }
+            for (int j = 0; j < tierSizes[i]; j++) {
+                int clientId = tierClients[i][j];
+                store.setSequence(clientId, nextSequence(clientId, store.quantity(clientId),
+                        store.orderAddedNanos(clientId), store.baseTier(clientId), i));
+            }
+            tiers[i].addAllLast(tierClients[i], tierSizes[i]);
+            for (int j = 0; j < tierSizes[i]; j++) {
+                if (plan != null) {
+                    plan.onAdded(tierClients[i][j]);
+                }
+                scheduleAging(tierClients[i][j]);
+            }
+        }
+        for (int i = 0; i < tiers.length; i++) {
+            for (int j = 0; j < tierSizes[i]; j++) {
+                publish(OrderQueueEvent.Type.ADDED, tierClients[i][j]);
+            }
+        }
+    }
+
+    /**
+     * Promote the orders which have waited for {@code queue.aging.promoteAfterMs} in their tier to the next higher
+     * tier, where they are appended as if they were added now, so no order starves behind a steady stream
+     * of the higher tier orders. Only the passed ticks of the {@link TimerWheel} are visited, so the cost depends
+     * on the number of the promoted orders and not on the queue length.
+     *
+     * @return number of the promoted orders
+     */
+    public int promoteAgedOrders() {
+        int promoted;
+        long stamp = lock.writeLock();
+        try {
+            if (agingWheel == null) {
+                return 0;
+            }
+            promoted = agingWheel.advance(OrderTimestamps.toEpochNanos(LocalDateTime.now()), this::promote);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (promoted > 0) {
+            promotedOrders.addAndGet(promoted);
+            log.info("Promoted {} aged order(s) to the higher tiers", promoted);
+        }
+        return promoted;
+    }
+
+    /**
+     * @return true if the orders are promoted by their age, see {@link #promoteAgedOrders()}
+     */
+    public boolean isAging() {
+        return promoteAfterMillis > 0;
+    }
+
+    public long getPromotedOrders() {
+        return promotedOrders.get();
+    }
+
+    /**
+     * Bumped by every change of the queue, including the reservations, the promotions and the changes
+     * of the number of active pickers, which change the wait times
+     */
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return names of the tiers, from the highest priority tier to the lowest one
+     */
+    public List<String> getTierNames() {
+        return tierPolicy().names();
+    }
+
+    /**
+     * @return name of the tier of the client's ID range, an order may name another tier explicitly
+     */
+    @Override
+    public String getTierName(Long clientId) {
+        TierPolicy tierPolicy = tierPolicy();
+        return tierPolicy.name(tierPolicy.tierOf(clientId));
+    }
+
+    /**
+     * Depths are read without locking, so they may be slightly out of date under the concurrent changes
+     */
+    @Override
+    public Map<String, Integer> getTierDepths() {
+        TierPolicy tierPolicy = tierPolicy();
+        OrderTier[] tiers = this.tiers;
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (int i = 0; i < tierPolicy.size(); i++) {
+            depths.put(tierPolicy.name(i), tiers == null ? 0 : tiers[i].size());
+        }
+        return depths;
+    }
+
+    /**
+     * @return empty merged tiers for the shards of this queue, see {@link ShardedOrderQueueService}
+     */
+    MergedOrderTiers newMergedTiers() {
+        return new MergedOrderTiers(maxClientId, tierPolicy(), cartCapacity);
+    }
+
+    /**
+     * @return empty queue with the same settings, whose orders are merged with the other shards by the given tiers
+     */
+    InMemoryTieredPriorityOrderQueueService newShard(MergedOrderTiers mergedTiers) {
+        InMemoryTieredPriorityOrderQueueService shard = copySettings();
+        shard.mergedTiers = mergedTiers;
+        return shard;
+    }
+
+    /**
+     * @return empty queue of another storehouse with its own lock, limits and sequence numbers, the rest of
+     * the settings being copied from this queue
+     */
+    public InMemoryTieredPriorityOrderQueueService newStorehouse(long maxClientId, int cartCapacity,
+                                                                 long pickupTimeoutSeconds) {
+        if (maxClientId < 1 || cartCapacity < 1 || pickupTimeoutSeconds < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid storehouse limits: max client ID %d, cart capacity %d, pickup timeout %d",
+                    maxClientId, cartCapacity, pickupTimeoutSeconds));
+        }
+        InMemoryTieredPriorityOrderQueueService storehouse = copySettings();
+        storehouse.maxClientId = maxClientId;
+        storehouse.cartCapacity = cartCapacity;
+        storehouse.pickupTimeoutSeconds = pickupTimeoutSeconds;
+        return storehouse;
+    }
+
+    private InMemoryTieredPriorityOrderQueueService copySettings() {
+        InMemoryTieredPriorityOrderQueueService queue = new InMemoryTieredPriorityOrderQueueService();
+        queue.maxClientId = maxClientId;
+        queue.cartCapacity = cartCapacity;
+        queue.pickupTimeoutSeconds = pickupTimeoutSeconds;
+        queue.reservationTimeoutSeconds = reservationTimeoutSeconds;
+        queue.lookAhead = lookAhead;
+        queue.tierDefinitions = tierDefinitions;
+        queue.promoteAfterMillis = promoteAfterMillis;
+        queue.agingTickMillis = agingTickMillis;
+        return queue;
+    }
+
+    /**
+     * Lock of the queue, taken by a {@link ShardedOrderQueueService} to read or change all its shards at once
+     */
+    StampedLock lock() {
+        return lock;
+    }
+
+    int cartCapacity() {
+        return cartCapacity;
+    }
+
+    long pickupTimeoutSeconds() {
+        return pickupTimeoutSeconds;
+    }
+
+    /**
+     * @return client ID of the first queued order, or {@link OrderStore#NONE} if the queue is empty.
+     * Must be called under the lock, like the rest of the queue walk.
+     */
+    int first() {
+        OrderTier[] tiers = this.tiers;
+        return tiers == null ? OrderStore.NONE : firstFrom(0);
+    }
+
+    /**
+     * @return client ID of the queued order after the given one, or {@link OrderStore#NONE} if it is the last one
+     */
+    int after(int clientId) {
+        int tier = store.tier(clientId);
+        int next = tiers[tier].next(clientId);
+        return next != OrderStore.NONE || tier + 1 == tiers.length ? next : firstFrom(tier + 1);
+    }
+
+    /**
+     * @return client ID of the first queued order after the given place in the queue, or {@link OrderStore#NONE}
+     */
+    int firstAfter(int tier, long sequence) {
+        OrderTier[] tiers = this.tiers;
+        if (tiers == null) {
+            return OrderStore.NONE;
+        }
+        int next = tiers[tier].firstAfter(sequence);
+        return next != OrderStore.NONE || tier + 1 == tiers.length ? next : firstFrom(tier + 1);
+    }
+
+    private int firstFrom(int tier) {
+        for (int i = tier; i < tiers.length; i++) {
+            if (!tiers[i].isEmpty()) {
+                return tiers[i].head();
+            }
+        }
+        return OrderStore.NONE;
+    }
+
+    int tier(int clientId) {
+        return store.tier(clientId);
+    }
+
+    long sequence(int clientId) {
+        return store.sequence(clientId);
+    }
+
+    int quantity(int clientId) {
+        return store.quantity(clientId);
+    }
+
+    OrderItem toOrderItem(int clientId) {
+        return store.toOrderItem(clientId);
+    }
+
+    /**
+     * Take the queued order for the delivery. Must be called under the write lock.
+     *
+     * @param position position of the order in the delivered cart
+     */
+    OrderItem deliver(int clientId, int position) {
+        OrderItem order = store.toOrderItem(clientId);
+        publish(OrderQueueEvent.Type.DELIVERED, clientId, position);
+        unlink(clientId);
+        cancelAging(clientId);
+        store.remove(clientId);
+        return order;
+    }
+
+    /**
+     * @return packing of the queue up to the client's order, or null if the client has no order in the queue.
+     * An order which is being picked has the position 0 and no wait time.
+     */
+    CartPackingCursor packUpTo(long clientId) {
+        OrderTier[] tiers = this.tiers;
+        OrderStore store = this.store;
+        if (tiers == null || store == null || !store.contains((int) clientId)) {
+            return null;
+        }
+        if (store.isReserved((int) clientId)) {
+            return new CartPackingCursor();
+        }
+        int clientTier = store.tier((int) clientId);
+        CartPackingCursor cursor = new CartPackingCursor();
+        for (int tier = 0; tier < clientTier; tier++) {
+            tiers[tier].packAll(cursor);
+        }
+        tiers[clientTier].packUpTo((int) clientId, cursor);
+        return cursor;
+    }
+
+    private ClientOrderState toClientOrderState(long clientId, CartPackingCursor cursor) {
+        if (cursor == null) {
+            return null; // Client's order has not been found in the queue
+        }
+        long cartRounds = cursor.prevCartsNumber / getActivePickers();
+        return ClientOrderState.of(clientId, cursor.position, cartRounds * pickupTimeoutSeconds);
+    }
+
+    /**
+     * Unlink the next cart from the tiers, publishing the event of the given type for every order of it.
+     * The orders stay in the store. Must be called under the write lock.
+     *
+     * @return client IDs of the orders in the cart, in the queue order
+     */
+    private int[] takeNextCart(OrderQueueEvent.Type type) {
+        OrderTier[] tiers = this.tiers;
+        if (tiers == null) {
+            return new int[0];
+        }
+        if (plan != null) {
+            int[] cart = plan.firstCart();
+            for (int i = 0; i < cart.length; i++) {
+                publish(type, cart[i], i + 1);
+            }
+            if (cart.length > 0) {
+                plan.removeFirstCart();
+            }
+            for (int clientId : cart) {
+                tiers[store.tier(clientId)].unlink(clientId);
+            }
+            return cart;
+        }
+        // Every order has at least one item
+        int[] cart = new int[cartCapacity];
+        int ordersInTheCart = 0;
+        int itemsInTheCart = 0;
+        for (OrderTier tier : tiers) {
+            while (!tier.isEmpty()) {
+                int clientId = tier.head();
+                int quantity = store.quantity(clientId);
+                if (itemsInTheCart + quantity > cartCapacity) {
+                    break;
+                }
+                itemsInTheCart += quantity;
+                cart[ordersInTheCart++] = clientId;
+                // The whole cart is picked at once, so the position is the one the order had before the pick
+                publish(type, clientId, ordersInTheCart);
+                tier.unlink(clientId);
+            }
+            if (!tier.isEmpty()) {
+                break;
+            }
+        }
+        return Arrays.copyOf(cart, ordersInTheCart);
+    }
+
+    /**
+     * Move the aged order to the tail of the next higher tier. Must be called under the write lock.
+     */
+    private void promote(int clientId) {
+        if (plan != null) {
+            plan.onRemoved(clientId);
+        }
+        tiers[store.tier(clientId)].unlink(clientId);
+        store.promote(clientId, mergedTiers == null ? sequences.getAndIncrement() : mergedTiers.promote(clientId));
+        tiers[store.tier(clientId)].addLast(clientId);
+        if (plan != null) {
+            plan.onAdded(clientId);
+        }
+        scheduleAging(clientId);
+        publish(OrderQueueEvent.Type.PROMOTED, clientId);
+    }
+
+    /**
+     * @return sequence number of the order entering its tier. A shard appends the order to the merged tiers
+     * in the same step, so they keep the order of the sequence numbers.
+     */
+    private long nextSequence(int clientId, int quantity, long orderAddedNanos, int baseTier, int tier) {
+        return mergedTiers == null ? sequences.getAndIncrement()
+                : mergedTiers.add(clientId, quantity, orderAddedNanos, baseTier, tier);
+    }
+
+    /**
+     * Unlink the queued order from its tier. Must be called under the write lock.
+     */
+    private void unlink(int clientId) {
+        if (plan != null) {
+            plan.onRemoved(clientId);
+        }
+        tiers[store.tier(clientId)].unlink(clientId);
+        if (mergedTiers != null) {
+            mergedTiers.remove(clientId);
+        }
+    }
+
+    /**
+     * The order is promoted once per {@code queue.aging.promoteAfterMs} of its age, until it reaches
+     * the highest tier. Must be called under the write lock.
+     */
+    private void scheduleAging(int clientId) {
+        int tier = store.tier(clientId);
+        if (agingWheel != null && tier > 0) {
+            int promotions = store.baseTier(clientId) - tier + 1;
+            agingWheel.schedule(clientId, store.orderAddedNanos(clientId) + promotions * promoteAfterNanos());
+        }
+    }
+
+    /**
+     * @return tier the order of the given age has been promoted to from its base tier
+     */
+    private int agedTier(int baseTier, long orderAddedNanos, long nowNanos) {
+        return agingWheel == null ? baseTier
+                : (int) Math.max(0L, baseTier - Math.max(0L, nowNanos - orderAddedNanos) / promoteAfterNanos());
+    }
+
+    /**
+     * Sort the restored orders of a tier by the time they have entered it: the time they have been added, or their
+     * last promotion, which follows from their age. The sort is stable, so the orders of the tier keep their order.
+     * A live promotion waits for the next aging tick, so the orders added within the tick may be restored ahead
+     * of the promoted one.
+     */
+    private void sortByTierEntry(int[] clients, int size) {
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = clients[i];
+        }
+        Arrays.sort(sorted, Comparator.comparingLong(clientId -> store.orderAddedNanos(clientId)
+                + (store.baseTier(clientId) - store.tier(clientId)) * promoteAfterNanos()));
+        for (int i = 0; i < size; i++) {
+            clients[i] = sorted[i];
+        }
+    }
+
+    private void cancelAging(int clientId) {
+        if (agingWheel != null) {
+            agingWheel.cancel(clientId);
+        }
+    }
+
+    private long promoteAfterNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(promoteAfterMillis);
+    }
+
+    /**
+     * Must be called under the write lock
+     */
+    private void returnToQueue(Reservation reservation) {
+        for (int clientId : reservation.clientIds) {
+            store.release(clientId);
+            tiers[store.tier(clientId)].insert(clientId);
+            if (plan != null) {
+                plan.onAdded(clientId);
+            }
+            scheduleAging(clientId);
+            publish(OrderQueueEvent.Type.RETURNED, clientId);
+        }
+    }
+
+    private void recordPickerActivity(String pickerId) {
+        long now = System.nanoTime();
+        pickerActivityNanos.put(pickerId, now);
+        updateActivePickers(now);
+    }
+
+    private void updateActivePickers(long now) {
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(reservationTimeoutSeconds);
+        pickerActivityNanos.values().removeIf(lastActivity -> now - lastActivity > timeoutNanos);
+        if (pickerActivityNanos.size() == activePickers) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int pickers = pickerActivityNanos.size();
+            if (pickers != activePickers) {
+                activePickers = pickers;
+                version.incrementAndGet();
+                for (OrderQueueListener listener : listeners) {
+                    listener.onWaitTimesChanged();
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static int quantity(List<OrderItem> cart) {
+        int quantity = 0;
+        for (OrderItem order : cart) {
+            quantity += order.getQuantity();
+        }
+        return quantity;
+    }
+
+    /**
+     * Must be called while the client's order is still in the queue, the position costs {@code O(log n)}
+     */
+    private void publish(OrderQueueEvent.Type type, int clientId) {
+        publish(type, clientId, listeners.isEmpty() ? 0 : packUpTo(clientId).position);
+    }
+
+    /**
+     * Every change of the queue is published, so it also bumps the version of the queue
+     */
+    private void publish(OrderQueueEvent.Type type, int clientId, int position) {
+        version.incrementAndGet();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        OrderQueueEvent event = OrderQueueEvent.of(type, clientId, store.quantity(clientId),
+                store.orderAddedNanos(clientId), store.tier(clientId), position, store.expiresAtNanos(clientId));
+        for (OrderQueueListener listener : listeners) {
+            listener.onEvent(event);
+        }
+    }
+
+    private static long expiresAtNanos(OrderItem order) {
+        return order.getExpiresAt() == null ? 0L : OrderTimestamps.toEpochNanos(order.getExpiresAt());
+    }
+
+    private static int size(OrderTier[] tiers) {
+        int size = 0;
+        for (OrderTier tier : tiers) {
+            size += tier.size();
+        }
+        return size;
+    }
+
+    /**
+     * Creates the queue structures on the first write, since the client ID range and the cart capacity
+     * are known only after the properties are injected. Must be called under the write lock.
+     */
+    private void initialize() {
+        if (tiers == null) {
+            TierPolicy tierPolicy = tierPolicy();
+            OrderStore store = new OrderStore(maxClientId, tierPolicy);
+            OrderTier[] tiers = new OrderTier[tierPolicy.size()];
+            for (int i = 0; i < tiers.length; i++) {
+                tiers[i] = new OrderTier(store, cartCapacity);
+            }
+            this.store = store;
+            if (lookAhead > 0) {
+                this.plan = new LookAheadCartPlan(store, tiers, store::tier, cartCapacity, lookAhead, maxClientId);
+            }
+            if (isAging()) {
+                this.agingWheel = new TimerWheel(maxClientId, TimeUnit.MILLISECONDS.toNanos(agingTickMillis),
+                        promoteAfterNanos(), OrderTimestamps.toEpochNanos(LocalDateTime.now()));
+            }
+            this.tiers = tiers;
+        }
+    }
+
+    /**
+     * The tiers are parsed on the first use, since they are known only after the properties are injected
+     */
+    private TierPolicy tierPolicy() {
+        TierPolicy tierPolicy = this.tierPolicy;
+        if (tierPolicy == null) {
+            tierPolicy = TierPolicy.parse(tierDefinitions == null ? TierPolicy.PREMIUM_AND_REGULAR : tierDefinitions);
+            this.tierPolicy = tierPolicy;
+        }
+        return tierPolicy;
+    }
+
+    /**
+     * @return tier the order is added to, the one it names or the one of the client's ID range
+     */
+    private int tierOf(OrderItem order) throws InvalidOrderParameterException {
+        TierPolicy tierPolicy = tierPolicy();
+        if (order.getTier() == null) {
+            return tierPolicy.tierOf(order.getClientId());
+        }
+        int tier = tierPolicy.indexOf(order.getTier());
+        if (tier < 0) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Tier '%s' should be one of %s", order.getTier(), tierPolicy.names()));
+        }
+        return tier;
+    }
+
+    void validateClientId(Long clientId) throws InvalidOrderParameterException {
+        if (clientId == null || clientId < 1 || clientId > maxClientId) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Client ID '%d' should be in range [1-%d]", clientId, maxClientId));
+        }
+    }
+
+    private void validateOrderQuantity(Integer quantity) throws InvalidOrderParameterException {
+        // Joe cannot split orders, so order quantity cannot be greater than cart capacity
+        if (quantity == null || quantity < 1 || quantity > cartCapacity) {
+            throw new InvalidOrderParameterException(String.format(
+                    "Order quantity '%d', should be in range [1-%d]", quantity, cartCapacity));
+        }
+    }
+
+    private static final class Reservation {
+
+        final int[] clientIds;
+        final CartReservation cart;
+        final long expiresAtNanos;
+
+        Reservation(int[] clientIds, CartReservation cart, long expiresAtNanos) {
+            this.clientIds = clientIds;
+            this.cart = cart;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.hanno.prioqueue.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Packing of the queue into carts with a bounded look-ahead, which fills the carts better than next-fit.
+ * <p>
+ * A cart is filled in the queue order, but an order which doesn't fit doesn't close the cart: up to
+ * {@code lookAhead} orders behind the first skipped one are tried as well, and the ones which fit are taken.
+ * The scan doesn't leave a tier until all its orders are taken, so an order never overtakes one of a higher tier,
+ * and an order is never overtaken by an order more than {@code lookAhead} places behind it. The first skipped order
+ * starts the next cart. With {@code lookAhead} zero the packing is the same as the next-fit one.
+ * <p>
+ * Which cart an order goes into depends only on the orders ahead of it, so the plan is built lazily from the head
+ * of the queue, only as far as the queried order, and is kept while the queue changes behind it:
+ * <ul>
+ *     <li>a picked cart is always the first planned one, the rest of the plan stays valid;</li>
+ *     <li>an added, returned or removed order may change only the carts whose scan has reached its place,
+ *     so only these, and the carts after them, are planned again.</li>
+ * </ul>
+ * Every cart keeps the furthest place the scans up to it have reached, which only grows along the plan,
+ * so the first affected cart is found by a binary search.
+ * The writers call it under the write lock of the queue, the state queries under the read lock, so the plan is
+ * synchronized only between the readers.
+ */
+final class LookAheadCartPlan {
+
+    private static final int MIN_DROPPED_CARTS = 64;
+
+    private final OrderStore store;
+    private final OrderTier[] tiers;
+    private final IntUnaryOperator tierOf;
+    private final int cartCapacity;
+    private final int lookAhead;
+
+    // Order is planned if its generation is the current one
+    private final long[] generations;
+    private final int[] cartNumbers;
+    private long generation;
+
+    // Planned carts, the picked ones are dropped from the head of the list in batches
+    private final List<Cart> carts = new ArrayList<>();
+    private int listedCartNumber;
+    private int firstCartNumber;
+    // First order which is not planned yet, looked up again after the plan has been dropped
+    private boolean restart;
+    private int resumeTier;
+    private int resumeClientId;
+
+    LookAheadCartPlan(OrderStore store, OrderTier[] tiers, IntUnaryOperator tierOf, int cartCapacity, int lookAhead,
+                      long maxClientId) {
+        this.store = store;
+        this.tiers = tiers;
+        this.tierOf = tierOf;
+        this.cartCapacity = cartCapacity;
+        this.lookAhead = lookAhead;
+        this.generations = new long[(int) maxClientId + 1];
+        this.cartNumbers = new int[(int) maxClientId + 1];
+        invalidate();
+    }
+
+    /**
+     * @return number of the carts ahead of the queued client's order
+     */
+    synchronized int cartsAhead(int clientId) {
+        while (!isPlanned(clientId)) {
+            if (!planNextCart()) {
+                throw new IllegalStateException("Order of the client " + clientId + " is not in the queue");
+            }
+        }
+        return cartNumbers[clientId] - firstCartNumber;
+    }
+
+    /**
+     * @return client IDs of the orders in the next cart, in the queue order
+     */
+    synchronized int[] firstCart() {
+        if (firstCartNumber == endCartNumber() && !planNextCart()) {
+            return new int[0];
+        }
+        return cart(firstCartNumber).clientIds;
+    }
+
+    /**
+     * Called when the first cart has been taken, before its orders are unlinked from the tiers
+     */
+    synchronized void removeFirstCart() {
+        firstCartNumber++;
+        int picked = firstCartNumber - listedCartNumber;
+        if (picked >= MIN_DROPPED_CARTS && picked * 2 >= carts.size()) {
+            carts.subList(0, picked).clear();
+            listedCartNumber = firstCartNumber;
+        }
+    }
+
+    /**
+     * Called after the order has been appended or returned to its tier
+     */
+    synchronized void onAdded(int clientId) {
+        // The client's previous order may have been planned and picked within the same generation
+        generations[clientId] = 0;
+        if (restart) {
+            return;
+        }
+        int tier = tierOf.applyAsInt(clientId);
+        long sequence = store.sequence(clientId);
+        // The carts which have scanned past the order's place, or the whole tier, could take it
+        rollBack(firstCartNumber(cart -> cart.tailTier >= tier
+                || isAfter(cart.scanEndTier, cart.scanEndSequence, tier, sequence)));
+        if (resumeTier == tiers.length || isAfter(resumeTier, store.sequence(resumeClientId), tier, sequence)) {
+            resumeTier = tier;
+            resumeClientId = clientId;
+        }
+    }
+
+    /**
+     * Called before the queued order is unlinked from its tier
+     */
+    synchronized void onRemoved(int clientId) {
+        if (restart) {
+            return;
+        }
+        int tier = tierOf.applyAsInt(clientId);
+        long sequence = store.sequence(clientId);
+        rollBack(firstCartNumber(cart -> cart.tailTier >= tier
+                || !isAfter(tier, sequence, cart.scanEndTier, cart.scanEndSequence)));
+        if (clientId == resumeClientId) {
+            resumeAt(tier, tiers[tier].next(clientId));
+        }
+    }
+
+    /**
+     * Drop the whole plan, it is rebuilt on the next query
+     */
+    private void invalidate() {
+        generation++;
+        carts.clear();
+        listedCartNumber = 0;
+        firstCartNumber = 0;
+        restart = true;
+        resumeTier = 0;
+        resumeClientId = OrderStore.NONE;
+    }
+
+    /**
+     * @return false if all the orders are planned already
+     */
+    private boolean planNextCart() {
+        if (restart) {
+            restart = false;
+            resumeAt(0, tiers[0].head());
+        }
+        if (resumeTier == tiers.length) {
+            return false;
+        }
+        int[] cart = new int[cartCapacity];
+        int ordersInTheCart = 0;
+        int itemsInTheCart = 0;
+        int skippedTier = -1;
+        int skippedClientId = OrderStore.NONE;
+        boolean full = false;
+        boolean windowExhausted = false;
+        Cart last = firstCartNumber == endCartNumber() ? null : cart(endCartNumber() - 1);
+        int scanEndTier = last == null ? -1 : last.scanEndTier;
+        long scanEndSequence = last == null ? 0 : last.scanEndSequence;
+        int tailTier = last == null ? -1 : last.tailTier;
+        int tier = resumeTier;
+        int clientId = resumeClientId;
+        while (tier < tiers.length) {
+            int behindSkipped = 0;
+            for (; clientId != OrderStore.NONE; clientId = tiers[tier].next(clientId)) {
+                if (isPlanned(clientId)) {
+                    continue;
+                }
+                if (skippedTier == tier && ++behindSkipped > lookAhead) {
+                    windowExhausted = true;
+                    break;
+                }
+                long sequence = store.sequence(clientId);
+                if (isAfter(tier, sequence, scanEndTier, scanEndSequence)) {
+                    scanEndTier = tier;
+                    scanEndSequence = sequence;
+                }
+                int quantity = store.quantity(clientId);
+                if (itemsInTheCart + quantity <= cartCapacity) {
+                    itemsInTheCart += quantity;
+                    cart[ordersInTheCart++] = clientId;
+                    plan(clientId);
+                    if (itemsInTheCart == cartCapacity) {
+                        full = true;
+                        break;
+                    }
+                } else if (skippedTier < 0) {
+                    skippedTier = tier;
+                    skippedClientId = clientId;
+                }
+            }
+            if (clientId == OrderStore.NONE) {
+                tailTier = Math.max(tailTier, tier);
+            }
+            if (full || windowExhausted || skippedTier >= 0) {
+                break;
+            }
+            if (++tier < tiers.length) {
+                clientId = tiers[tier].head();
+            }
+        }
+        carts.add(new Cart(Arrays.copyOf(cart, ordersInTheCart), scanEndTier, scanEndSequence, tailTier));
+        if (skippedTier >= 0) {
+            resumeTier = skippedTier;
+            resumeClientId = skippedClientId;
+        } else {
+            resumeAt(tier, clientId == OrderStore.NONE ? OrderStore.NONE : tiers[tier].next(clientId));
+        }
+        return true;
+    }
+
+    private void plan(int clientId) {
+        generations[clientId] = generation;
+        cartNumbers[clientId] = endCartNumber();
+    }
+
+    private boolean isPlanned(int clientId) {
+        return generations[clientId] == generation;
+    }
+
+    private Cart cart(int cartNumber) {
+        return carts.get(cartNumber - listedCartNumber);
+    }
+
+    private int endCartNumber() {
+        return listedCartNumber + carts.size();
+    }
+
+    /**
+     * @return number of the first planned cart which matches the condition, which holds for all the carts after it
+     */
+    private int firstCartNumber(Predicate<Cart> condition) {
+        int low = firstCartNumber;
+        int high = endCartNumber();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (condition.test(cart(middle))) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Plan again the carts starting from the given one
+     */
+    private void rollBack(int cartNumber) {
+        while (endCartNumber() > cartNumber) {
+            for (int clientId : carts.remove(carts.size() - 1).clientIds) {
+                generations[clientId] = 0;
+                int tier = tierOf.applyAsInt(clientId);
+                if (resumeTier == tiers.length || isAfter(resumeTier, store.sequence(resumeClientId),
+                        tier, store.sequence(clientId))) {
+                    resumeTier = tier;
+                    resumeClientId = clientId;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resume the planning from the first order, starting from the given one, which is not planned yet
+     */
+    private void resumeAt(int tier, int clientId) {
+        while (tier < tiers.length) {
+            for (; clientId != OrderStore.NONE; clientId = tiers[tier].next(clientId)) {
+                if (!isPlanned(clientId)) {
+                    resumeTier = tier;
+                    resumeClientId = clientId;
+                    return;
+                }
+            }
+            if (++tier < tiers.length) {
+                clientId = tiers[tier].head();
+            }
+        }
+        resumeTier = tiers.length;
+        resumeClientId = OrderStore.NONE;
+    }
+
+    private static boolean isAfter(int tier, long sequence, int otherTier, long otherSequence) {
+        return tier != otherTier ? tier > otherTier : sequence > otherSequence;
+    }
+
+    private static final class Cart {
+
+        private final int[] clientIds;
+        // Furthest order the scans of this and the previous carts have looked at
+        private final int scanEndTier;
+        private final long scanEndSequence;
+        // Furthest tier whose tail the scans of this and the previous carts have reached, -1 if none
+        private final int tailTier;
+
+        private Cart(int[] clientIds, int scanEndTier, long scanEndSequence, int tailTier) {
+            this.clientIds = clientIds;
+            this.scanEndTier = scanEndTier;
+            this.scanEndSequence = scanEndSequence;
+            this.tailTier = tailTier;
+        }
+    }
+
+}
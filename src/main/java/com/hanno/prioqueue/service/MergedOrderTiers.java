@@ -0,0 +1,75 @@
+package com.hanno.prioqueue.service;
+
+/**
+ * Tiers of all the shards of a {@link ShardedOrderQueueService} merged into one queue, kept for the state queries.
+ * <p>
+ * The shards draw the sequence numbers of their orders from here, and the order is appended to its merged tier
+ * in the same step, so the merged tiers keep the order of the sequence numbers, which is the order of the merged
+ * heads of the shards. The client IDs of the shards don't overlap, so the merged queue is an {@link OrderStore}
+ * with {@link OrderTier}s like a single queue, and the state of an order is packed from their
+ * {@link CartPackingTree}s in {@code O(log n)} without locking the shards.
+ * <p>
+ * The shards change it under their own write locks, which are held in parallel, so it is synchronized by itself,
+ * only for the logarithmic update of one packing tree.
+ */
+final class MergedOrderTiers {
+
+    private final OrderStore store;
+    private final OrderTier[] tiers;
+    private long nextSequence;
+
+    MergedOrderTiers(long maxClientId, TierPolicy tierPolicy, int cartCapacity) {
+        this.store = new OrderStore(maxClientId, tierPolicy);
+        this.tiers = new OrderTier[tierPolicy.size()];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new OrderTier(store, cartCapacity);
+        }
+    }
+
+    /**
+     * Append the order to the tail of its tier
+     *
+     * @return sequence number of the order
+     */
+    synchronized long add(int clientId, int quantity, long orderAddedNanos, int baseTier, int tier) {
+        long sequence = nextSequence++;
+        store.put(clientId, quantity, orderAddedNanos, sequence, baseTier, tier, 0L);
+        tiers[tier].addLast(clientId);
+        return sequence;
+    }
+
+    /**
+     * Move the order to the tail of the next higher tier, see {@link OrderStore#promote(int, long)}
+     *
+     * @return new sequence number of the order
+     */
+    synchronized long promote(int clientId) {
+        tiers[store.tier(clientId)].unlink(clientId);
+        long sequence = nextSequence++;
+        store.promote(clientId, sequence);
+        tiers[store.tier(clientId)].addLast(clientId);
+        return sequence;
+    }
+
+    synchronized void remove(int clientId) {
+        tiers[store.tier(clientId)].unlink(clientId);
+        store.remove(clientId);
+    }
+
+    /**
+     * @return packing of the merged queue up to the client's order, or null if the client has no order in the queue
+     */
+    synchronized CartPackingCursor packUpTo(int clientId) {
+        if (!store.contains(clientId)) {
+            return null;
+        }
+        int clientTier = store.tier(clientId);
+        CartPackingCursor cursor = new CartPackingCursor();
+        for (int tier = 0; tier < clientTier; tier++) {
+            tiers[tier].packAll(cursor);
+        }
+        tiers[clientTier].packUpTo(clientId, cursor);
+        return cursor;
+    }
+
+}
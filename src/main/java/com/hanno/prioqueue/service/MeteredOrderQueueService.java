@@ -0,0 +1,285 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Records the metrics of the wrapped {@link OrderQueueService}:
+ * <ul>
+ *     <li>{@code orderqueue.depth} - number of the queued orders per tier</li>
+ *     <li>{@code orderqueue.wait} - time the delivered orders have spent in the queue per tier,
+ *     measured from {@link OrderItem#getOrderAdded()}</li>
+ *     <li>{@code orderqueue.operation} - latency of every queue operation</li>
+ *     <li>{@code orderqueue.orders} - number of added, rejected, delivered and cancelled orders</li>
+ * </ul>
+ * The distributions are published with percentile histograms, so the percentiles can be aggregated
+ * by the monitoring system. Recording costs a couple of counter updates per operation.
+ */
+public class MeteredOrderQueueService implements OrderQueueService {
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final OrderQueueService delegate;
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    private final Timer addTimer;
+    private final Timer addBatchTimer;
+    private final Timer importTimer;
+    private final Timer allOrdersTimer;
+    private final Timer pageTimer;
+    private final Timer deliveryTimer;
+    private final Timer reserveTimer;
+    private final Timer confirmTimer;
+    private final Timer returnTimer;
+    private final Timer stateTimer;
+    private final Timer removeTimer;
+
+    private final Counter addedOrders;
+    private final Counter rejectedOrders;
+    private final Counter deliveredOrders;
+    private final Counter cancelledOrders;
+
+    private final Map<String, Timer> waitTimers = new HashMap<>();
+
+    public MeteredOrderQueueService(OrderQueueService delegate, MeterRegistry registry) {
+        this(delegate, registry, Tags.empty());
+    }
+
+    /**
+     * @param tags added to all the meters, telling apart the queues of the storehouses
+     */
+    public MeteredOrderQueueService(OrderQueueService delegate, MeterRegistry registry, Tags tags) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.tags = tags;
+        this.addTimer = operationTimer("add");
+        this.addBatchTimer = operationTimer("addBatch");
+        this.importTimer = operationTimer("import");
+        this.allOrdersTimer = operationTimer("all");
+        this.pageTimer = operationTimer("page");
+        this.deliveryTimer = operationTimer("delivery");
+        this.reserveTimer = operationTimer("reserve");
+        this.confirmTimer = operationTimer("confirm");
+        this.returnTimer = operationTimer("return");
+        this.stateTimer = operationTimer("state");
+        this.removeTimer = operationTimer("remove");
+        this.addedOrders = ordersCounter("added");
+        this.rejectedOrders = ordersCounter("rejected");
+        this.deliveredOrders = ordersCounter("delivered");
+        this.cancelledOrders = ordersCounter("cancelled");
+        for (String tier : delegate.getTierDepths().keySet()) {
+            Gauge.builder("orderqueue.depth", delegate, d -> d.getTierDepths().getOrDefault(tier, 0))
+                    .description("Number of orders in the queue")
+                    .tag("tier", tier)
+                    .tags(tags)
+                    .register(registry);
+            waitTimers.put(tier, Timer.builder("orderqueue.wait")
+                    .description("Time spent in the queue by the delivered orders")
+                    .tag("tier", tier)
+                    .tags(tags)
+                    .publishPercentiles(PERCENTILES)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    @Override
+    public OrderItem addOrder(OrderItem order) throws InvalidOrderParameterException {
+        long start = System.nanoTime();
+        try {
+            OrderItem addedOrder = delegate.addOrder(order);
+            (addedOrder == null ? rejectedOrders : addedOrders).increment();
+            return addedOrder;
+        } catch (InvalidOrderParameterException | DuplicateClientOrderException e) {
+            rejectedOrders.increment();
+            throw e;
+        } finally {
+            addTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public List<BatchOrderResult> addOrders(List<OrderItem> orders) {
+        return addOrders(orders, delegate::addOrders, addBatchTimer);
+    }
+
+    @Override
+    public List<BatchOrderResult> importOrders(List<OrderItem> orders) {
+        return addOrders(orders, delegate::importOrders, importTimer);
+    }
+
+    @Override
+    public List<OrderItem> getAllOrders() {
+        long start = System.nanoTime();
+        try {
+            return delegate.getAllOrders();
+        } finally {
+            allOrdersTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public OrderPage getOrders(String cursor, int limit) throws InvalidOrderParameterException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getOrders(cursor, limit);
+        } finally {
+            pageTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public List<OrderItem> getNextDelivery() {
+        long start = System.nanoTime();
+        List<OrderItem> delivery;
+        try {
+            delivery = delegate.getNextDelivery();
+        } finally {
+            deliveryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        recordDelivered(delivery);
+        return delivery;
+    }
+
+    @Override
+    public CartReservation reserveNextDelivery(String pickerId) throws InvalidOrderParameterException {
+        long start = System.nanoTime();
+        try {
+            return delegate.reserveNextDelivery(pickerId);
+        } finally {
+            reserveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * The wait of the orders is recorded when the cart is delivered, so it includes the time of picking it
+     */
+    @Override
+    public List<OrderItem> confirmDelivery(Long reservationId) {
+        long start = System.nanoTime();
+        List<OrderItem> delivery;
+        try {
+            delivery = delegate.confirmDelivery(reservationId);
+        } finally {
+            confirmTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (delivery != null) {
+            recordDelivered(delivery);
+        }
+        return delivery;
+    }
+
+    @Override
+    public boolean returnDelivery(Long reservationId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.returnDelivery(reservationId);
+        } finally {
+            returnTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getClientOrderState(clientId);
+        } finally {
+            stateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
+        long start = System.nanoTime();
+        try {
+            boolean removed = delegate.removeOrder(clientId);
+            if (removed) {
+                cancelledOrders.increment();
+            }
+            return removed;
+        } finally {
+            removeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public String getTierName(Long clientId) {
+        return delegate.getTierName(clientId);
+    }
+
+    @Override
+    public Map<String, Integer> getTierDepths() {
+        return delegate.getTierDepths();
+    }
+
+    private void recordDelivered(List<OrderItem> delivery) {
+        LocalDateTime now = LocalDateTime.now();
+        for (OrderItem order : delivery) {
+            // Orders which have named their tier are returned with it
+            String tier = order.getTier() != null ? order.getTier() : delegate.getTierName(order.getClientId());
+            Timer waitTimer = waitTimers.get(tier);
+            if (waitTimer != null && order.getOrderAdded() != null) {
+                waitTimer.record(Duration.between(order.getOrderAdded(), now));
+            }
+        }
+        deliveredOrders.increment(delivery.size());
+    }
+
+    private List<BatchOrderResult> addOrders(List<OrderItem> orders,
+                                             Function<List<OrderItem>, List<BatchOrderResult>> adding, Timer timer) {
+        long start = System.nanoTime();
+        try {
+            List<BatchOrderResult> results = adding.apply(orders);
+            long accepted = results.stream().filter(BatchOrderResult::isAccepted).count();
+            addedOrders.increment(accepted);
+            rejectedOrders.increment(results.size() - accepted);
+            return results;
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer operationTimer(String operation) {
+        return Timer.builder("orderqueue.operation")
+                .description("Latency of the order queue operations")
+                .tag("operation", operation)
+                .tags(tags)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter ordersCounter(String outcome) {
+        return Counter.builder("orderqueue.orders")
+                .description("Number of processed orders")
+                .tag("outcome", outcome)
+                .tags(tags)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.hanno.prioqueue.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Promotes the aged orders to the higher tiers in the background on every tick of the aging timer wheel,
+ * see {@link InMemoryTieredPriorityOrderQueueService#promoteAgedOrders()}
+ */
+@Slf4j
+public class OrderAging implements Closeable {
+
+    private final long tickMillis;
+    private final ScheduledExecutorService executor;
+
+    public OrderAging(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-aging");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                orderQueueService.promoteAgedOrders();
+            } catch (RuntimeException e) {
+                log.error("Failed to promote the aged orders", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the tiered queue after which the next page of orders starts.
+ * It points to the tier and the sequence number of the last returned order rather than to an offset,
+ * so the orders delivered or cancelled between two pages don't make the reader skip the others.
+ */
+final class OrderCursor {
+
+    final int tier;
+    final long sequence;
+
+    OrderCursor(int tier, long sequence) {
+        this.tier = tier;
+        this.sequence = sequence;
+    }
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((tier + ":" + sequence).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static OrderCursor decode(String cursor, int tiersNumber) throws InvalidOrderParameterException {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":");
+            int tier = Integer.parseInt(parts[0]);
+            long sequence = Long.parseLong(parts[1]);
+            if (parts.length == 2 && tier >= 0 && tier < tiersNumber) {
+                return new OrderCursor(tier, sequence);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // Reported below the same way as a cursor with the wrong values
+        }
+        throw new InvalidOrderParameterException("Invalid cursor '" + cursor + "'");
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.hanno.prioqueue.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evicts the expired orders in the background on every tick of the expiry timer wheel,
+ * see {@link ExpiringOrderQueueService#expireOrders()}
+ */
+@Slf4j
+public class OrderExpiry implements Closeable {
+
+    private final long tickMillis;
+    private final ScheduledExecutorService executor;
+
+    public OrderExpiry(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void attach(ExpiringOrderQueueService orderQueueService) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                orderQueueService.expireOrders();
+            } catch (RuntimeException e) {
+                log.error("Failed to evict the expired orders", e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.hanno.prioqueue.service;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Change of the queue published to the {@link OrderQueueListener}s
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class OrderQueueEvent {
+
+    public enum Type {
+        ADDED, CANCELLED, DELIVERED,
+        /**
+         * Order has left the queue with a cart claimed by one of the pickers, it stays reserved for the client
+         * until the cart is delivered or returned
+         */
+        RESERVED,
+        /**
+         * Reserved order has been put back to its place in the queue
+         */
+        RETURNED,
+        /**
+         * Aged order has moved to the tail of the next higher tier
+         */
+        PROMOTED
+    }
+
+    private final Type type;
+    private final long clientId;
+    private final int quantity;
+    /**
+     * See {@link OrderTimestamps}
+     */
+    private final long orderAddedNanos;
+    private final int tier;
+    /**
+     * Position of the order in the queue, for the cancelled orders the one they had right before leaving the queue.
+     * A cart is delivered at once, so the delivered orders have the positions they had before the cart was picked,
+     * and the position 1 starts the next cart. The same goes for the reserved orders. The orders delivered from
+     * a reservation have left the queue already, so their position is 0.
+     */
+    private final int position;
+    /**
+     * Deadline of the order, see {@link com.hanno.prioqueue.entity.OrderItem#getExpiresAt()}, or 0 if it has none
+     */
+    private final long expiresAtNanos;
+
+    public static OrderQueueEvent of(Type type, long clientId, int quantity, long orderAddedNanos, int tier,
+                                     int position, long expiresAtNanos) {
+        return new OrderQueueEvent(type, clientId, quantity, orderAddedNanos, tier, position, expiresAtNanos);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.hanno.prioqueue.service;
+
+/**
+ * Receives the changes of {@link InMemoryTieredPriorityOrderQueueService}.
+ * Events are published by the single writer while it holds the write lock, so the listeners see them
+ * exactly in the order the changes were made. Listeners should return quickly and must not call the queue back.
+ */
+@FunctionalInterface
+public interface OrderQueueListener {
+
+    void onEvent(OrderQueueEvent event);
+
+    /**
+     * Called when the wait times of the queued orders have changed while the orders have not moved,
+     * i.e. when the number of the active pickers has changed
+     */
+    default void onWaitTimesChanged() {
+    }
+
+}
@@ -1,10 +1,18 @@
 package com.hanno.prioqueue.service;
 
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
 import com.hanno.prioqueue.entity.ClientOrderState;
 import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
 import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.UnsupportedQueueOperationException;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface OrderQueueService {
 
@@ -17,6 +25,39 @@ public interface OrderQueueService {
      */
     OrderItem addOrder(OrderItem order) throws InvalidOrderParameterException;
 
+    /**
+     * Add several orders into the queue. Invalid and duplicated orders are rejected one by one,
+     * without affecting the rest of the batch.
+     *
+     * @param orders order items to be added
+     * @return result for every order of the batch, in the same order
+     */
+    default List<BatchOrderResult> addOrders(List<OrderItem> orders) {
+        List<BatchOrderResult> results = new ArrayList<>(orders.size());
+        for (OrderItem order : orders) {
+            if (order == null) {
+                results.add(BatchOrderResult.rejected(null, "Order is empty"));
+                continue;
+            }
+            try {
+                results.add(addOrder(order) == null
+                        ? BatchOrderResult.rejected(order.getClientId(), "Order has not been added")
+                        : BatchOrderResult.accepted(order.getClientId()));
+            } catch (InvalidOrderParameterException | DuplicateClientOrderException e) {
+                results.add(BatchOrderResult.rejected(order.getClientId(), e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Add the orders of a bulk import like {@link #addOrders(List)}, keeping {@link OrderItem#getOrderAdded()}
+     * of the orders which have it, if the queue supports it. The orders without it are added now.
+     */
+    default List<BatchOrderResult> importOrders(List<OrderItem> orders) {
+        return addOrders(orders);
+    }
+
     /**
      * Retrieve all the orders from the queue
      *
@@ -24,6 +65,33 @@ public interface OrderQueueService {
      */
     List<OrderItem> getAllOrders();
 
+    /**
+     * Retrieve a page of the orders from the queue, in the queue order
+     *
+     * @param cursor opaque position returned with the previous page, or null to start from the head of the queue
+     * @param limit  maximal number of orders in the page
+     * @return orders of the page and the cursor of the next page, which is null when there are no more orders
+     * @throws InvalidOrderParameterException if cursor or limit is invalid
+     */
+    default OrderPage getOrders(String cursor, int limit) throws InvalidOrderParameterException {
+        if (limit < 1) {
+            throw new InvalidOrderParameterException("Page limit '" + limit + "' should be positive");
+        }
+        int offset;
+        try {
+            offset = cursor == null ? 0 : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new InvalidOrderParameterException("Invalid cursor '" + cursor + "'");
+        }
+        List<OrderItem> orders = getAllOrders();
+        if (offset < 0 || offset > orders.size()) {
+            throw new InvalidOrderParameterException("Invalid cursor '" + cursor + "'");
+        }
+        int end = Math.min(orders.size(), offset + limit);
+        return OrderPage.of(new ArrayList<>(orders.subList(offset, end)),
+                end < orders.size() ? String.valueOf(end) : null);
+    }
+
     /**
      * Take the orders to deliver from the queue
      *
@@ -31,6 +99,41 @@ public interface OrderQueueService {
      */
     List<OrderItem> getNextDelivery();
 
+    /**
+     * Claim the next cart for one of the pickers working in parallel. The orders of the cart leave the queue,
+     * so the concurrent claims always get disjoint carts, and stay reserved until the cart is confirmed
+     * with {@link #confirmDelivery(Long)} or returned with {@link #returnDelivery(Long)}.
+     *
+     * @param pickerId ID of the picker claiming the cart
+     * @return reservation of the cart, or null if the queue is empty
+     * @throws InvalidOrderParameterException if picker ID is empty
+     * @throws UnsupportedQueueOperationException if the queue supports a single picker only
+     */
+    default CartReservation reserveNextDelivery(String pickerId) throws InvalidOrderParameterException {
+        throw new UnsupportedQueueOperationException(getClass().getSimpleName() + " supports a single picker only");
+    }
+
+    /**
+     * Deliver the reserved cart
+     *
+     * @param reservationId ID of the reservation
+     * @return delivered orders, or null if there is no such reservation, for example when it has expired
+     * and its orders have been returned to the queue
+     */
+    default List<OrderItem> confirmDelivery(Long reservationId) {
+        throw new UnsupportedQueueOperationException(getClass().getSimpleName() + " supports a single picker only");
+    }
+
+    /**
+     * Put the orders of the reserved cart back to their places in the queue
+     *
+     * @param reservationId ID of the reservation
+     * @return true if the orders have been returned, false if there is no such reservation
+     */
+    default boolean returnDelivery(Long reservationId) {
+        throw new UnsupportedQueueOperationException(getClass().getSimpleName() + " supports a single picker only");
+    }
+
     /**
      * Get the order state from the specific client
      *
@@ -49,4 +152,39 @@ public interface OrderQueueService {
      */
     boolean removeOrder(Long clientId) throws InvalidOrderParameterException;
 
+    /**
+     * Get the version of the queue, which grows with every change of the queue, so the responses built
+     * from the same version are the same
+     *
+     * @return version of the queue, or -1 if the queue is not versioned
+     */
+    default long getVersion() {
+        return -1L;
+    }
+
+    /**
+     * Get the name of the priority tier the client's orders are queued in
+     *
+     * @param clientId ID of the client
+     * @return name of the tier
+     */
+    default String getTierName(Long clientId) {
+        return OrderItem.isPremiumClient(clientId) ? "premium" : "regular";
+    }
+
+    /**
+     * Get the number of orders in every priority tier
+     *
+     * @return number of orders by tier name, from the highest priority tier to the lowest one
+     */
+    default Map<String, Integer> getTierDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        depths.put("premium", 0);
+        depths.put("regular", 0);
+        for (OrderItem order : getAllOrders()) {
+            depths.merge(getTierName(order.getClientId()), 1, Integer::sum);
+        }
+        return depths;
+    }
+
 }
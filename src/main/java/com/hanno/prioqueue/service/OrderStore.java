@@ -0,0 +1,147 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.OrderItem;
+
+/**
+ * Queued orders kept in primitive arrays indexed by client ID instead of one object per order.
+ * <p>
+ * Client IDs are bounded by {@code queue.client.maxId}, so every client has a fixed place in the arrays.
+ * The place serves as the index for the duplicate detection, lookups and cancellations in constant time,
+ * and the links of the per-tier FIFO lists of {@link OrderTier} are plain client IDs. A queued order costs
+ * no allocation and no pointer hops, and the {@link OrderItem}s are created only when the orders leave the service.
+ */
+final class OrderStore {
+
+    /**
+     * Empty link, client IDs start from 1
+     */
+    static final int NONE = 0;
+
+    private final int[] quantities;
+    private final long[] orderAddedNanos;
+    private final long[] sequences;
+    private final long[] expiresAtNanos;
+    private final byte[] baseTiers;
+    private final byte[] tiers;
+    private final boolean[] reserved;
+    private final TierPolicy tierPolicy;
+    final int[] slots;
+    final int[] prev;
+    final int[] next;
+
+    OrderStore(long maxClientId, TierPolicy tierPolicy) {
+        if (maxClientId >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Client ID range is too wide to be indexed: " + maxClientId);
+        }
+        int size = (int) maxClientId + 1;
+        this.quantities = new int[size];
+        this.orderAddedNanos = new long[size];
+        this.sequences = new long[size];
+        this.expiresAtNanos = new long[size];
+        this.baseTiers = new byte[size];
+        this.tiers = new byte[size];
+        this.tierPolicy = tierPolicy;
+        this.reserved = new boolean[size];
+        this.slots = new int[size];
+        this.prev = new int[size];
+        this.next = new int[size];
+    }
+
+    boolean contains(int clientId) {
+        return quantities[clientId] != 0;
+    }
+
+    /**
+     * @param baseTier       tier the order has been added to
+     * @param tier           tier the order is queued in, higher than the base one if the order has been promoted
+     * @param expiresAtNanos deadline of the order, see {@link OrderItem#getExpiresAt()}, or 0 if it has none
+     */
+    void put(int clientId, int quantity, long orderAddedNanos, long sequence, int baseTier, int tier,
+             long expiresAtNanos) {
+        this.quantities[clientId] = quantity;
+        this.orderAddedNanos[clientId] = orderAddedNanos;
+        this.sequences[clientId] = sequence;
+        this.expiresAtNanos[clientId] = expiresAtNanos;
+        this.baseTiers[clientId] = (byte) baseTier;
+        this.tiers[clientId] = (byte) tier;
+    }
+
+    void setSequence(int clientId, long sequence) {
+        sequences[clientId] = sequence;
+    }
+
+    /**
+     * Move the order to the next higher tier, where it gets the new sequence number
+     */
+    void promote(int clientId, long sequence) {
+        tiers[clientId]--;
+        sequences[clientId] = sequence;
+    }
+
+    void remove(int clientId) {
+        quantities[clientId] = 0;
+        reserved[clientId] = false;
+    }
+
+    /**
+     * @return true if the client's order is in the queue, and not in a cart claimed by a picker
+     */
+    boolean isQueued(int clientId) {
+        return quantities[clientId] != 0 && !reserved[clientId];
+    }
+
+    boolean isReserved(int clientId) {
+        return reserved[clientId];
+    }
+
+    /**
+     * Mark the order as taken out of its tier by a picker, it keeps the client's place in the store
+     */
+    void reserve(int clientId) {
+        reserved[clientId] = true;
+    }
+
+    void release(int clientId) {
+        reserved[clientId] = false;
+    }
+
+    /**
+     * @return quantity of the client's order, or zero if the client has no order in the queue
+     */
+    int quantity(int clientId) {
+        return quantities[clientId];
+    }
+
+    long orderAddedNanos(int clientId) {
+        return orderAddedNanos[clientId];
+    }
+
+    long expiresAtNanos(int clientId) {
+        return expiresAtNanos[clientId];
+    }
+
+    long sequence(int clientId) {
+        return sequences[clientId];
+    }
+
+    int baseTier(int clientId) {
+        return baseTiers[clientId];
+    }
+
+    int tier(int clientId) {
+        return tiers[clientId];
+    }
+
+    /**
+     * The order is returned with the tier it has been added to, since the promotions follow from its age.
+     * The tier is named only if it is not the one of the client's ID range.
+     */
+    OrderItem toOrderItem(int clientId) {
+        int baseTier = baseTiers[clientId];
+        return new OrderItem((long) clientId, quantities[clientId],
+                OrderTimestamps.fromEpochNanos(orderAddedNanos[clientId]),
+                baseTier == tierPolicy.tierOf(clientId) ? null : tierPolicy.name(baseTier), null,
+                expiresAtNanos[clientId] == 0L ? null : OrderTimestamps.fromEpochNanos(expiresAtNanos[clientId]));
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.OrderItem;
+
+import java.util.List;
+
+/**
+ * FIFO queue of the orders with the same priority.
+ * <p>
+ * Every order gets the next free slot of the tier's {@link CartPackingTree}, so the slots grow in the queue order.
+ * Cancelled and delivered orders leave empty slots behind; once the slots are exhausted the live orders are
+ * moved to the beginning of a new tree, sized to twice the number of live orders, which keeps the amortized cost
+ * of adding an order logarithmic.
+ * <p>
+ * The orders themselves live in the {@link OrderStore}, the tier only links their client IDs into a list.
+ * The sequence numbers of the orders are kept per slot even after the order has left the queue. They grow
+ * with the slots, so the place to continue a paged read from is found with a binary search.
+ */
+final class OrderTier {
+
+    private static final int MIN_SLOTS = 16;
+
+    private final OrderStore store;
+    private final int cartCapacity;
+    private CartPackingTree packingTree;
+    private int[] slotClients;
+    private long[] slotSequences;
+    private int nextSlot;
+
+    private int head = OrderStore.NONE;
+    private int tail = OrderStore.NONE;
+    private int size;
+
+    OrderTier(OrderStore store, int cartCapacity) {
+        this.store = store;
+        this.cartCapacity = cartCapacity;
+        this.packingTree = new CartPackingTree(MIN_SLOTS, cartCapacity);
+        this.slotClients = new int[MIN_SLOTS];
+        this.slotSequences = new long[MIN_SLOTS];
+    }
+
+    /**
+     * Append the client's order, which should be already put into the store
+     */
+    void addLast(int clientId) {
+        if (size == 0) {
+            // All the slots are empty already, so the tree can be reused from the beginning
+            nextSlot = 0;
+        } else if (nextSlot == packingTree.capacity()) {
+            compact(size + 1);
+        }
+        assignSlot(clientId);
+        packingTree.set(store.slots[clientId], store.quantity(clientId));
+        link(clientId);
+    }
+
+    /**
+     * Append several orders at once, updating the packing tree only once for the whole batch
+     */
+    void addAllLast(int[] clientIds, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (size == 0) {
+            nextSlot = 0;
+        }
+        if (nextSlot + count > packingTree.capacity()) {
+            compact(size + count);
+        }
+        int firstSlot = nextSlot;
+        for (int i = 0; i < count; i++) {
+            int clientId = clientIds[i];
+            assignSlot(clientId);
+            packingTree.setWithoutRebuild(store.slots[clientId], store.quantity(clientId));
+            link(clientId);
+        }
+        packingTree.rebuild(firstSlot, nextSlot - 1);
+    }
+
+    /**
+     * Put the order back to its place by the sequence number, as if it has never left the tier. The order keeps
+     * its old slot unless the tier has been compacted in the meantime, then the tier is compacted once more.
+     */
+    void insert(int clientId) {
+        long sequence = store.sequence(clientId);
+        int slot = store.slots[clientId];
+        boolean slotIsFree = size > 0 && slot < nextSlot && slotClients[slot] == OrderStore.NONE
+                && slotSequences[slot] == sequence;
+        int next = firstAfter(sequence);
+        if (next == OrderStore.NONE) {
+            link(clientId);
+        } else {
+            linkBefore(clientId, next);
+        }
+        if (slotIsFree) {
+            slotClients[slot] = clientId;
+            packingTree.set(slot, store.quantity(clientId));
+        } else {
+            compact(size);
+        }
+    }
+
+    private void assignSlot(int clientId) {
+        int slot = nextSlot++;
+        store.slots[clientId] = slot;
+        slotClients[slot] = clientId;
+        slotSequences[slot] = store.sequence(clientId);
+    }
+
+    private void link(int clientId) {
+        store.prev[clientId] = tail;
+        store.next[clientId] = OrderStore.NONE;
+        if (tail == OrderStore.NONE) {
+            head = clientId;
+        } else {
+            store.next[tail] = clientId;
+        }
+        tail = clientId;
+        size++;
+    }
+
+    private void linkBefore(int clientId, int next) {
+        int prev = store.prev[next];
+        store.prev[clientId] = prev;
+        store.next[clientId] = next;
+        store.prev[next] = clientId;
+        if (prev == OrderStore.NONE) {
+            head = clientId;
+        } else {
+            store.next[prev] = clientId;
+        }
+        size++;
+    }
+
+    void unlink(int clientId) {
+        int slot = store.slots[clientId];
+        packingTree.set(slot, 0);
+        slotClients[slot] = OrderStore.NONE;
+        int prev = store.prev[clientId];
+        int next = store.next[clientId];
+        if (prev == OrderStore.NONE) {
+            head = next;
+        } else {
+            store.next[prev] = next;
+        }
+        if (next == OrderStore.NONE) {
+            tail = prev;
+        } else {
+            store.prev[next] = prev;
+        }
+        size--;
+    }
+
+    /**
+     * @return client ID of the first order, or {@link OrderStore#NONE} if the tier is empty
+     */
+    int head() {
+        return head;
+    }
+
+    /**
+     * @return client ID of the last order, or {@link OrderStore#NONE} if the tier is empty
+     */
+    int tail() {
+        return tail;
+    }
+
+    /**
+     * @return client ID of the order after the given one, or {@link OrderStore#NONE} if it is the last one
+     */
+    int next(int clientId) {
+        return store.next[clientId];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void copyTo(List<OrderItem> orders) {
+        for (int clientId = head; clientId != OrderStore.NONE; clientId = store.next[clientId]) {
+            orders.add(store.toOrderItem(clientId));
+        }
+    }
+
+    /**
+     * @return client ID of the first order of this tier added after the order with the given sequence number,
+     * or {@link OrderStore#NONE}
+     */
+    int firstAfter(long sequence) {
+        int slot = packingTree.firstOccupied(firstSlotAfter(sequence));
+        return slot < 0 ? OrderStore.NONE : slotClients[slot];
+    }
+
+    /**
+     * Pack the orders of this tier up to and including the client's one
+     */
+    void packUpTo(int clientId, CartPackingCursor cursor) {
+        packingTree.packPrefix(store.slots[clientId], cursor);
+    }
+
+    /**
+     * Pack all the orders of this tier
+     */
+    void packAll(CartPackingCursor cursor) {
+        packingTree.packAll(cursor);
+    }
+
+    /**
+     * @return the first slot with a greater sequence number, the sequence numbers grow with the slots
+     */
+    private int firstSlotAfter(long sequence) {
+        int low = 0;
+        int high = nextSlot;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (slotSequences[middle] <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void compact(int requiredSlots) {
+        int slots = MIN_SLOTS;
+        while (slots < 2 * requiredSlots) {
+            slots <<= 1;
+        }
+        CartPackingTree tree = new CartPackingTree(slots, cartCapacity);
+        slotClients = new int[slots];
+        slotSequences = new long[slots];
+        nextSlot = 0;
+        for (int clientId = head; clientId != OrderStore.NONE; clientId = store.next[clientId]) {
+            assignSlot(clientId);
+            tree.setWithoutRebuild(store.slots[clientId], store.quantity(clientId));
+        }
+        tree.rebuild();
+        packingTree = tree;
+    }
+
+}
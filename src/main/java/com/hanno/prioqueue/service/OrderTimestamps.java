@@ -0,0 +1,27 @@
+package com.hanno.prioqueue.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Conversion of {@link com.hanno.prioqueue.entity.OrderItem#getOrderAdded()} to and from the nanoseconds
+ * stored by the queue. The local date and time is counted from the epoch as is, without any time zone,
+ * so the conversion is exact in both directions.
+ */
+public final class OrderTimestamps {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private OrderTimestamps() {
+    }
+
+    public static long toEpochNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + time.getNano();
+    }
+
+    public static LocalDateTime fromEpochNanos(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+}
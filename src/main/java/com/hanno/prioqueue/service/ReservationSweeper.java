@@ -0,0 +1,44 @@
+package com.hanno.prioqueue.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Returns the expired cart reservations to the queue in the background, so their orders don't wait
+ * for the next picker to claim a cart, see {@link InMemoryTieredPriorityOrderQueueService#returnExpiredReservations()}
+ */
+@Slf4j
+public class ReservationSweeper implements Closeable {
+
+    private final long sweepIntervalMillis;
+    private final ScheduledExecutorService executor;
+
+    public ReservationSweeper(long sweepIntervalMillis) {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                orderQueueService.returnExpiredReservations();
+            } catch (RuntimeException e) {
+                log.error("Failed to return the expired reservations", e);
+            }
+        }, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Splits the queue into shards by client ID, every shard being an {@link InMemoryTieredPriorityOrderQueueService}
+ * with its own lock, so the orders of different clients are added, cancelled and looked up in parallel.
+ * <p>
+ * The shards draw the sequence numbers of their orders from the shared {@link MergedOrderTiers}, so the queue order
+ * is restored by merging the heads of the shards: the highest tier first, and within a tier the order which has
+ * entered it first. The deliveries and the listings take the locks of all the shards in the same order, so they see
+ * a consistent queue, and the carts are packed next-fit from the merged heads exactly as by a single queue.
+ * <p>
+ * The merged tiers also keep the packing of the merged queue, so the state of an order is calculated
+ * in {@code O(log n)} like by a single queue, without locking the shards.
+ * <p>
+ * The shards support a single picker only. The journal, the replication and the audit stream follow a single queue,
+ * so they cannot be combined with the shards, and the state subscriptions are not available.
+ */
+@Slf4j
+public class ShardedOrderQueueService implements OrderQueueService {
+
+    private final InMemoryTieredPriorityOrderQueueService[] shards;
+    private final MergedOrderTiers mergedTiers;
+    private final int cartCapacity;
+    private final long pickupTimeoutSeconds;
+
+    /**
+     * @param template queue whose settings are copied to the shards, it stays empty itself
+     */
+    public ShardedOrderQueueService(InMemoryTieredPriorityOrderQueueService template, int shardsNumber) {
+        if (shardsNumber < 1) {
+            throw new IllegalArgumentException("Number of shards should be positive: " + shardsNumber);
+        }
+        this.shards = new InMemoryTieredPriorityOrderQueueService[shardsNumber];
+        this.mergedTiers = template.newMergedTiers();
+        for (int i = 0; i < shardsNumber; i++) {
+            shards[i] = template.newShard(mergedTiers);
+        }
+        this.cartCapacity = template.cartCapacity();
+        this.pickupTimeoutSeconds = template.pickupTimeoutSeconds();
+    }
+
+    public List<InMemoryTieredPriorityOrderQueueService> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    @Override
+    public OrderItem addOrder(@NonNull OrderItem order) throws InvalidOrderParameterException {
+        return shardOf(order.getClientId()).addOrder(order);
+    }
+
+    /**
+     * The batch is split by shard, and every shard adds its part under a single write lock. The orders of the batch
+     * are added at the same time, so they are queued in the order of the shards rather than in the batch order.
+     */
+    @Override
+    public List<BatchOrderResult> addOrders(@NonNull List<OrderItem> orders) {
+        return addOrders(orders, InMemoryTieredPriorityOrderQueueService::addOrders);
+    }
+
+    /**
+     * Split by shard like {@link #addOrders(List)}, every shard sorting its part by the time the orders were added
+     */
+    @Override
+    public List<BatchOrderResult> importOrders(@NonNull List<OrderItem> orders) {
+        return addOrders(orders, InMemoryTieredPriorityOrderQueueService::importOrders);
+    }
+
+    private List<BatchOrderResult> addOrders(List<OrderItem> orders, BiFunction<InMemoryTieredPriorityOrderQueueService,
+            List<OrderItem>, List<BatchOrderResult>> adding) {
+        BatchOrderResult[] results = new BatchOrderResult[orders.size()];
+        List<List<OrderItem>> shardOrders = new ArrayList<>(shards.length);
+        List<List<Integer>> shardIndexes = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shardOrders.add(new ArrayList<>());
+            shardIndexes.add(new ArrayList<>());
+        }
+        for (int i = 0; i < orders.size(); i++) {
+            OrderItem order = orders.get(i);
+            if (order == null) {
+                results[i] = BatchOrderResult.rejected(null, "Order is empty");
+                continue;
+            }
+            int shard = shardIndexOf(order.getClientId());
+            shardOrders.get(shard).add(order);
+            shardIndexes.get(shard).add(i);
+        }
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (shardOrders.get(shard).isEmpty()) {
+                continue;
+            }
+            List<BatchOrderResult> shardResults = adding.apply(shards[shard], shardOrders.get(shard));
+            for (int i = 0; i < shardResults.size(); i++) {
+                results[shardIndexes.get(shard).get(i)] = shardResults.get(i);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<OrderItem> getAllOrders() {
+        List<OrderItem> orders = new ArrayList<>();
+        long[] stamps = readLockAll();
+        try {
+            int[] heads = heads();
+            for (int shard = nextShard(heads); shard >= 0; shard = nextShard(heads)) {
+                orders.add(shards[shard].toOrderItem(heads[shard]));
+                heads[shard] = shards[shard].after(heads[shard]);
+            }
+        } finally {
+            unlockReadAll(stamps);
+        }
+        log.info("Currently queue contains {} orders in {} shards", orders.size(), shards.length);
+        return orders;
+    }
+
+    /**
+     * The page is merged from the heads of the shards after the cursor, which points to the tier and the sequence
+     * number of the last returned order like the one of a single queue, so it costs {@code O(shards * (log n + limit))}
+     */
+    @Override
+    public OrderPage getOrders(String cursor, int limit) throws InvalidOrderParameterException {
+        if (limit < 1) {
+            throw new InvalidOrderParameterException("Page limit '" + limit + "' should be positive");
+        }
+        OrderCursor position = cursor == null ? null : OrderCursor.decode(cursor, shards[0].getTierNames().size());
+        List<OrderItem> orders = new ArrayList<>();
+        long[] stamps = readLockAll();
+        try {
+            int[] heads = new int[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                heads[i] = position == null ? shards[i].first() : shards[i].firstAfter(position.tier, position.sequence);
+            }
+            int lastTier = 0;
+            long lastSequence = 0;
+            int shard = nextShard(heads);
+            while (shard >= 0 && orders.size() < limit) {
+                int clientId = heads[shard];
+                orders.add(shards[shard].toOrderItem(clientId));
+                lastTier = shards[shard].tier(clientId);
+                lastSequence = shards[shard].sequence(clientId);
+                heads[shard] = shards[shard].after(clientId);
+                shard = nextShard(heads);
+            }
+            return OrderPage.of(orders, shard < 0 ? null : new OrderCursor(lastTier, lastSequence).encode());
+        } finally {
+            unlockReadAll(stamps);
+        }
+    }
+
+    @Override
+    public List<OrderItem> getNextDelivery() {
+        log.info("Gathering next delivery from {} shards using cart capacity of {} items", shards.length, cartCapacity);
+        List<OrderItem> cart = new ArrayList<>();
+        int itemsInTheCart = 0;
+        long[] stamps = writeLockAll();
+        try {
+            int[] heads = heads();
+            for (int shard = nextShard(heads); shard >= 0; shard = nextShard(heads)) {
+                int clientId = heads[shard];
+                int quantity = shards[shard].quantity(clientId);
+                if (itemsInTheCart + quantity > cartCapacity) {
+                    break;
+                }
+                itemsInTheCart += quantity;
+                heads[shard] = shards[shard].after(clientId);
+                cart.add(shards[shard].deliver(clientId, cart.size() + 1));
+            }
+        } finally {
+            unlockWriteAll(stamps);
+        }
+        log.info("Next delivery contains {} order(s) with total items quantity {}", cart.size(), itemsInTheCart);
+        return cart;
+    }
+
+    /**
+     * The state is packed from the {@link MergedOrderTiers}, which the shards update while they change, so the query
+     * holds none of the locks of the shards
+     */
+    @Override
+    public ClientOrderState getClientOrderState(Long clientId) throws InvalidOrderParameterException {
+        shardOf(clientId).validateClientId(clientId);
+        CartPackingCursor cursor = mergedTiers.packUpTo(clientId.intValue());
+        if (cursor == null) {
+            return null; // Client's order has not been found in the queue
+        }
+        return ClientOrderState.of(clientId, cursor.position, cursor.prevCartsNumber * pickupTimeoutSeconds);
+    }
+
+    @Override
+    public boolean removeOrder(Long clientId) throws InvalidOrderParameterException {
+        return shardOf(clientId).removeOrder(clientId);
+    }
+
+    /**
+     * @return number of the orders promoted in all the shards, see
+     * {@link InMemoryTieredPriorityOrderQueueService#promoteAgedOrders()}
+     */
+    public int promoteAgedOrders() {
+        int promoted = 0;
+        for (InMemoryTieredPriorityOrderQueueService shard : shards) {
+            promoted += shard.promoteAgedOrders();
+        }
+        return promoted;
+    }
+
+    /**
+     * Sum of the versions of the shards, so it grows with a change of any shard
+     */
+    @Override
+    public long getVersion() {
+        long version = 0;
+        for (InMemoryTieredPriorityOrderQueueService shard : shards) {
+            version += shard.getVersion();
+        }
+        return version;
+    }
+
+    @Override
+    public String getTierName(Long clientId) {
+        return shards[0].getTierName(clientId);
+    }
+
+    @Override
+    public Map<String, Integer> getTierDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (InMemoryTieredPriorityOrderQueueService shard : shards) {
+            shard.getTierDepths().forEach((tier, depth) -> depths.merge(tier, depth, Integer::sum));
+        }
+        return depths;
+    }
+
+    /**
+     * Invalid client IDs are routed to the first shard, which rejects them
+     */
+    private InMemoryTieredPriorityOrderQueueService shardOf(Long clientId) {
+        return shards[shardIndexOf(clientId)];
+    }
+
+    private int shardIndexOf(Long clientId) {
+        return clientId == null || clientId < 1 ? 0 : (int) (clientId % shards.length);
+    }
+
+    /**
+     * Must be called under the locks of all the shards
+     */
+    private int[] heads() {
+        int[] heads = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            heads[i] = shards[i].first();
+        }
+        return heads;
+    }
+
+    /**
+     * @return shard whose head goes first in the merged queue, or -1 if all the shards have been walked through
+     */
+    private int nextShard(int[] heads) {
+        int next = -1;
+        int nextTier = Integer.MAX_VALUE;
+        long nextSequence = Long.MAX_VALUE;
+        for (int i = 0; i < shards.length; i++) {
+            if (heads[i] == OrderStore.NONE) {
+                continue;
+            }
+            int tier = shards[i].tier(heads[i]);
+            long sequence = shards[i].sequence(heads[i]);
+            if (tier < nextTier || tier == nextTier && sequence < nextSequence) {
+                next = i;
+                nextTier = tier;
+                nextSequence = sequence;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The locks are always taken in the order of the shards, so the concurrent callers never deadlock
+     */
+    private long[] readLockAll() {
+        long[] stamps = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            stamps[i] = shards[i].lock().readLock();
+        }
+        return stamps;
+    }
+
+    private void unlockReadAll(long[] stamps) {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            shards[i].lock().unlockRead(stamps[i]);
+        }
+    }
+
+    private long[] writeLockAll() {
+        long[] stamps = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            stamps[i] = shards[i].lock().writeLock();
+        }
+        return stamps;
+    }
+
+    private void unlockWriteAll(long[] stamps) {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            shards[i].lock().unlockWrite(stamps[i]);
+        }
+    }
+
+}
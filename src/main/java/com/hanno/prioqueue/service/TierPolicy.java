@@ -0,0 +1,93 @@
+package com.hanno.prioqueue.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Priority tiers of the queue, the highest one first, parsed from {@code queue.tiers}: comma separated
+ * {@code name:maxClientId} ranges in the ascending order of the client IDs, where the last tier has no bound
+ * and takes the rest of the IDs, e.g. {@code premium:1000,regular}. An order may also name its tier explicitly.
+ */
+final class TierPolicy {
+
+    static final String PREMIUM_AND_REGULAR = "premium:1000,regular";
+
+    /**
+     * Tier index is kept in a byte per order
+     */
+    private static final int MAX_TIERS = Byte.MAX_VALUE;
+
+    private final String[] names;
+    private final long[] maxClientIds;
+
+    private TierPolicy(String[] names, long[] maxClientIds) {
+        this.names = names;
+        this.maxClientIds = maxClientIds;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the definition is malformed
+     */
+    static TierPolicy parse(String definition) {
+        String[] tiers = definition.split(",");
+        if (tiers.length > MAX_TIERS) {
+            throw new IllegalArgumentException("Too many tiers: " + tiers.length);
+        }
+        String[] names = new String[tiers.length];
+        long[] maxClientIds = new long[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            String[] parts = tiers[i].trim().split(":");
+            boolean last = i == tiers.length - 1;
+            if (parts[0].isEmpty() || parts.length != (last ? 1 : 2)) {
+                throw new IllegalArgumentException("Tier should be defined as 'name:maxClientId', the last one as 'name': "
+                        + tiers[i]);
+            }
+            names[i] = parts[0];
+            maxClientIds[i] = last ? Long.MAX_VALUE : Long.parseLong(parts[1].trim());
+            if (i > 0 && maxClientIds[i] <= maxClientIds[i - 1]) {
+                throw new IllegalArgumentException("Tier ranges should be ascending: " + definition);
+            }
+            if (Arrays.asList(names).subList(0, i).contains(names[i])) {
+                throw new IllegalArgumentException("Duplicated tier: " + names[i]);
+            }
+        }
+        return new TierPolicy(names, maxClientIds);
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int tier) {
+        return names[tier];
+    }
+
+    List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names.clone()));
+    }
+
+    /**
+     * @return index of the named tier, or -1 if there is no such tier
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return tier of the client's ID range
+     */
+    int tierOf(long clientId) {
+        int tier = 0;
+        while (clientId > maxClientIds[tier]) {
+            tier++;
+        }
+        return tier;
+    }
+
+}
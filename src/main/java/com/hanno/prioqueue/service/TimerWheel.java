@@ -0,0 +1,117 @@
+package com.hanno.prioqueue.service;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timer wheel of the order deadlines, indexed by client ID like the {@link OrderStore}.
+ * <p>
+ * Time is divided into ticks, and a deadline goes into the bucket of its tick modulo the wheel size. The buckets
+ * are intrusive doubly-linked lists of client IDs, so scheduling and cancelling a deadline cost constant time
+ * without any allocation. Advancing the wheel visits only the buckets of the passed ticks, and a bucket holds
+ * the deadlines of the other rounds of the wheel only if they are further away than the wheel size,
+ * so the queue is never scanned as a whole.
+ */
+final class TimerWheel {
+
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final long tickNanos;
+    private final int mask;
+    private final int[] buckets;
+    private final int[] next;
+    private final int[] prev;
+    // Zero when the client has no deadline, the ticks are counted from the epoch
+    private final long[] deadlineTicks;
+    private long currentTick;
+
+    /**
+     * @param horizonNanos usual distance of the deadlines, the wheel is sized to hold it in one round
+     * @param nowNanos     current time, the deadlines before it expire with the first advance
+     */
+    TimerWheel(long maxClientId, long tickNanos, long horizonNanos, long nowNanos) {
+        if (tickNanos < 1) {
+            throw new IllegalArgumentException("Tick should be positive: " + tickNanos);
+        }
+        int bucketsNumber = 1;
+        while (bucketsNumber < MAX_BUCKETS && bucketsNumber <= horizonNanos / tickNanos) {
+            bucketsNumber <<= 1;
+        }
+        this.tickNanos = tickNanos;
+        this.mask = bucketsNumber - 1;
+        this.buckets = new int[bucketsNumber];
+        this.next = new int[(int) maxClientId + 1];
+        this.prev = new int[(int) maxClientId + 1];
+        this.deadlineTicks = new long[(int) maxClientId + 1];
+        this.currentTick = nowNanos / tickNanos;
+    }
+
+    /**
+     * Schedule the client's deadline, replacing the previous one. A deadline which has passed already expires
+     * with the next tick.
+     */
+    void schedule(int clientId, long deadlineNanos) {
+        cancel(clientId);
+        long tick = Math.max(currentTick + 1, (deadlineNanos + tickNanos - 1) / tickNanos);
+        int bucket = (int) (tick & mask);
+        deadlineTicks[clientId] = tick;
+        prev[clientId] = OrderStore.NONE;
+        next[clientId] = buckets[bucket];
+        if (buckets[bucket] != OrderStore.NONE) {
+            prev[buckets[bucket]] = clientId;
+        }
+        buckets[bucket] = clientId;
+    }
+
+    /**
+     * @return deadline of the client rounded up to its tick, or zero if the client has none
+     */
+    long deadlineNanos(int clientId) {
+        return deadlineTicks[clientId] * tickNanos;
+    }
+
+    void cancel(int clientId) {
+        long tick = deadlineTicks[clientId];
+        if (tick == 0L) {
+            return;
+        }
+        deadlineTicks[clientId] = 0L;
+        if (prev[clientId] == OrderStore.NONE) {
+            buckets[(int) (tick & mask)] = next[clientId];
+        } else {
+            next[prev[clientId]] = next[clientId];
+        }
+        if (next[clientId] != OrderStore.NONE) {
+            prev[next[clientId]] = prev[clientId];
+        }
+    }
+
+    /**
+     * Expire the deadlines up to the given time. The callback may schedule the expired client again.
+     *
+     * @return number of the expired deadlines
+     */
+    int advance(long nowNanos, IntConsumer expired) {
+        long nowTick = nowNanos / tickNanos;
+        if (nowTick <= currentTick) {
+            return 0;
+        }
+        // After a long pause every bucket is visited once
+        long fromTick = Math.max(currentTick + 1, nowTick - mask);
+        currentTick = nowTick;
+        int expiredNumber = 0;
+        for (long tick = fromTick; tick <= nowTick; tick++) {
+            int clientId = buckets[(int) (tick & mask)];
+            while (clientId != OrderStore.NONE) {
+                int nextClientId = next[clientId];
+                if (deadlineTicks[clientId] <= nowTick) {
+                    cancel(clientId);
+                    expired.accept(clientId);
+                    expiredNumber++;
+                }
+                clientId = nextClientId;
+            }
+        }
+        return expiredNumber;
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.hanno.prioqueue.storehouse;
+
+import com.hanno.prioqueue.exception.StorehouseNotFoundException;
+import com.hanno.prioqueue.exception.UnsupportedQueueOperationException;
+import com.hanno.prioqueue.journal.OrderJournal;
+import com.hanno.prioqueue.service.ExpiringOrderQueueService;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderAging;
+import com.hanno.prioqueue.service.OrderExpiry;
+import com.hanno.prioqueue.service.OrderQueueService;
+import com.hanno.prioqueue.service.ReservationSweeper;
+import com.hanno.prioqueue.subscription.ClientOrderStateSubscriptions;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Queues of the storehouses served by one instance, see {@code queue.storehouses}.
+ * <p>
+ * The default storehouse is the queue configured with {@code queue.*} and {@code joe.*}, together with its journal,
+ * replication, expiry and shards. Every other storehouse has an {@link InMemoryTieredPriorityOrderQueueService}
+ * of its own, with its own lock, cart capacity, pickup timeout and client IDs, so the requests of one storehouse
+ * never wait for another. The registry returns the expired reservations, promotes the aged orders, evicts the expired
+ * orders and dispatches the state subscriptions of those storehouses, and closes their journals.
+ */
+@Slf4j
+public class StorehouseRegistry implements Closeable {
+
+    public static final String DEFAULT_STOREHOUSE = "default";
+    /**
+     * Tag of the queue metrics telling apart the storehouses
+     */
+    public static final String STOREHOUSE_TAG = "storehouse";
+
+    private static final Pattern STOREHOUSE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Map<String, Storehouse> storehouses = new ConcurrentHashMap<>();
+    private final List<ClientOrderStateSubscriptions> ownSubscriptions = new ArrayList<>();
+    private final Map<String, OrderJournal> journals = new LinkedHashMap<>();
+    private final ReservationSweeper sweeper;
+    private final OrderAging aging;
+    private final OrderExpiry expiry;
+
+    public StorehouseRegistry(long sweepIntervalMillis, long agingTickMillis, long expiryTickMillis) {
+        this.sweeper = new ReservationSweeper(sweepIntervalMillis);
+        this.aging = new OrderAging(agingTickMillis);
+        this.expiry = new OrderExpiry(expiryTickMillis);
+    }
+
+    /**
+     * Serve the default storehouse by the queue which is run by the rest of the application
+     *
+     * @param subscriptions state subscriptions of the queue, null if the queue doesn't support them
+     */
+    public synchronized void registerDefault(OrderQueueService orderQueueService,
+                                             ClientOrderStateSubscriptions subscriptions) {
+        add(new Storehouse(DEFAULT_STOREHOUSE, orderQueueService, subscriptions));
+    }
+
+    /**
+     * Serve another storehouse, see {@link InMemoryTieredPriorityOrderQueueService#newStorehouse}
+     *
+     * @param expiringQueue     expiry of the storehouse queue
+     * @param orderQueueService queue served by the API, wrapping the expiring one
+     * @param journal           journal the storehouse queue has been restored from, or null if it is not journaled
+     */
+    public synchronized void register(String id, InMemoryTieredPriorityOrderQueueService storehouseQueue,
+                                      ExpiringOrderQueueService expiringQueue, OrderQueueService orderQueueService,
+                                      OrderJournal journal, long pickupTimeoutSeconds) {
+        validateId(id);
+        ClientOrderStateSubscriptions subscriptions = new ClientOrderStateSubscriptions(pickupTimeoutSeconds);
+        add(new Storehouse(id, orderQueueService, subscriptions));
+        if (journal != null) {
+            journals.put(id, journal);
+        }
+        subscriptions.attach(storehouseQueue);
+        ownSubscriptions.add(subscriptions);
+        sweeper.attach(storehouseQueue);
+        if (storehouseQueue.isAging()) {
+            aging.attach(storehouseQueue);
+        }
+        expiringQueue.attach(storehouseQueue);
+        expiry.attach(expiringQueue);
+        log.info("Registered storehouse '{}'", id);
+    }
+
+    /**
+     * Storehouse IDs are used in the paths, so only letters, digits, dashes and underscores are allowed
+     */
+    public static void validateId(String id) {
+        if (id == null || !STOREHOUSE_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid storehouse ID: " + id);
+        }
+    }
+
+    /**
+     * @param id storehouse ID, or null for the default storehouse
+     */
+    public Storehouse get(String id) {
+        Storehouse storehouse = storehouses.get(id == null ? DEFAULT_STOREHOUSE : id);
+        if (storehouse == null) {
+            throw new StorehouseNotFoundException("Storehouse '" + id + "' has not been found");
+        }
+        return storehouse;
+    }
+
+    /**
+     * @return journals of the storehouses besides the default one, by storehouse ID
+     */
+    public synchronized Map<String, OrderJournal> getJournals() {
+        return new LinkedHashMap<>(journals);
+    }
+
+    @Override
+    public synchronized void close() {
+        sweeper.close();
+        aging.close();
+        expiry.close();
+        for (ClientOrderStateSubscriptions subscriptions : ownSubscriptions) {
+            subscriptions.close();
+        }
+        for (Map.Entry<String, OrderJournal> journal : journals.entrySet()) {
+            try {
+                journal.getValue().close();
+            } catch (IOException e) {
+                log.error("Failed to close the journal of the storehouse '{}'", journal.getKey(), e);
+            }
+        }
+    }
+
+    private void add(Storehouse storehouse) {
+        if (storehouses.putIfAbsent(storehouse.getId(), storehouse) != null) {
+            throw new IllegalArgumentException("Storehouse '" + storehouse.getId() + "' is already registered");
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Storehouse {
+
+        private final String id;
+        private final OrderQueueService orderQueueService;
+        private final ClientOrderStateSubscriptions subscriptions;
+
+        /**
+         * @throws UnsupportedQueueOperationException if the storehouse's queue doesn't support the subscriptions
+         */
+        public ClientOrderStateSubscriptions getSubscriptions() {
+            if (subscriptions == null) {
+                throw new UnsupportedQueueOperationException(
+                        "State subscriptions are not supported by the queue of the storehouse '" + id + "'");
+            }
+            return subscriptions;
+        }
+
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.hanno.prioqueue.subscription;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+
+/**
+ * Receives the state of the client's order whenever it changes, see {@link ClientOrderStateSubscriptions}.
+ * The methods are called from a single thread at a time; an exception thrown by them ends the subscription.
+ */
+public interface ClientOrderStateSubscriber {
+
+    void onStateChanged(ClientOrderState state);
+
+    /**
+     * The order has been delivered or cancelled, no more updates follow
+     */
+    void onOrderRemoved(long clientId);
+
+}
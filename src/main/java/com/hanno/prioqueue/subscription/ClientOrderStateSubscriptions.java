@@ -0,0 +1,371 @@
+package com.hanno.prioqueue.subscription;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import com.hanno.prioqueue.service.OrderQueueListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the new {@link ClientOrderState} to the subscribed clients whenever their order moves in the queue.
+ * <p>
+ * The queue events are handed over to a single dispatcher thread, which keeps the last known state of every
+ * subscription and updates it from the events instead of querying the queue:
+ * <ul>
+ *     <li>a delivered or reserved cart is exactly the first cart of the queue, so every remaining order moves
+ *     by the number of its orders and one cart, which is applied to all the subscriptions in one pass;</li>
+ *     <li>an added, cancelled, returned or promoted order changes the packing of the carts behind it, so only
+ *     the subscriptions behind it are queried again, in {@code O(log n)} each.</li>
+ * </ul>
+ * With several active pickers the wait time is shared between them, and with the look-ahead packing a cart may
+ * leave gaps in the queue, so then the states are queried again on every cart. A change of the number of the active
+ * pickers changes all the wait times, so all the states are queried again.
+ * Orders being picked have the position 0 and are not affected by the changes of the queue.
+ * Every event gets a sequence number, and a subscription remembers the number of events its state includes,
+ * so the events which happened before the state was queried are not applied twice.
+ */
+@Slf4j
+public class ClientOrderStateSubscriptions implements OrderQueueListener, Closeable {
+
+    private static final int MAX_QUERY_ATTEMPTS = 3;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final long pickupTimeoutSeconds;
+    private final BlockingQueue<SequencedEvent> events = new LinkedBlockingQueue<>();
+    private final Queue<Subscription> newSubscriptions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger subscriptionsNumber = new AtomicInteger();
+    private final Thread dispatcher;
+    private volatile long publishedEvents;
+    private volatile boolean running = true;
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+    // Owned by the dispatcher thread
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    public ClientOrderStateSubscriptions(long pickupTimeoutSeconds) {
+        this.pickupTimeoutSeconds = pickupTimeoutSeconds;
+        this.dispatcher = new Thread(this::dispatchLoop, "order-state-dispatcher");
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Start receiving the changes of the queue
+     */
+    public synchronized void attach(InMemoryTieredPriorityOrderQueueService orderQueueService) {
+        if (this.orderQueueService != null) {
+            throw new IllegalStateException("Subscriptions are already attached");
+        }
+        this.orderQueueService = orderQueueService;
+        orderQueueService.addListener(this);
+        dispatcher.start();
+    }
+
+    /**
+     * Subscribe to the state of the client's order. The current state is sent first, then every change of it,
+     * and finally {@link ClientOrderStateSubscriber#onOrderRemoved(long)} when the order leaves the queue,
+     * or right away if there is no order.
+     *
+     * @return subscription which may be cancelled
+     */
+    public Subscription subscribe(long clientId, ClientOrderStateSubscriber subscriber) {
+        Subscription subscription = new Subscription(clientId, subscriber);
+        // Counted before the dispatcher queries the state, so the following events are not skipped by onEvent
+        subscriptionsNumber.incrementAndGet();
+        newSubscriptions.add(subscription);
+        events.add(SequencedEvent.WAKE_UP);
+        return subscription;
+    }
+
+    public int getSubscriptionsNumber() {
+        return subscriptionsNumber.get();
+    }
+
+    /**
+     * Called by the queue under its write lock, so the events are numbered in the order of the changes
+     */
+    @Override
+    public void onEvent(OrderQueueEvent event) {
+        long sequence = publishedEvents;
+        publishedEvents = sequence + 1;
+        if (subscriptionsNumber.get() > 0) {
+            events.add(new SequencedEvent(sequence, event));
+        }
+    }
+
+    /**
+     * Called by the queue under its write lock, like {@link #onEvent(OrderQueueEvent)}
+     */
+    @Override
+    public void onWaitTimesChanged() {
+        long sequence = publishedEvents;
+        publishedEvents = sequence + 1;
+        if (subscriptionsNumber.get() > 0) {
+            events.add(new SequencedEvent(sequence, null));
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (orderQueueService != null) {
+                orderQueueService.removeListener(this);
+            }
+        }
+        running = false;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchLoop() {
+        List<SequencedEvent> batch = new ArrayList<>();
+        while (running) {
+            try {
+                SequencedEvent first = events.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    events.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                dispatch(batch);
+            } catch (RuntimeException e) {
+                log.error("Failed to dispatch the order state updates", e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void dispatch(List<SequencedEvent> batch) {
+        for (Subscription subscription = newSubscriptions.poll(); subscription != null;
+             subscription = newSubscriptions.poll()) {
+            subscriptions.add(subscription);
+        }
+        int i = 0;
+        while (i < batch.size()) {
+            SequencedEvent sequencedEvent = batch.get(i);
+            OrderQueueEvent event = sequencedEvent.event;
+            if (event == null) {
+                if (sequencedEvent.sequence >= 0) {
+                    applyWaitTimesChange(sequencedEvent.sequence);
+                }
+                i++;
+            } else if (event.getPosition() == 0) {
+                // Delivered from a reservation, the order has left the queue already
+                applyReservedDelivery(sequencedEvent.sequence, event.getClientId());
+                i++;
+            } else if (event.getType() == OrderQueueEvent.Type.DELIVERED
+                    || event.getType() == OrderQueueEvent.Type.RESERVED) {
+                // One cart is taken at once, its events go in a row and the first one has the position 1
+                Set<Long> cartClients = new HashSet<>();
+                cartClients.add(event.getClientId());
+                for (i++; i < batch.size(); i++) {
+                    OrderQueueEvent next = batch.get(i).event;
+                    if (next != null) {
+                        if (next.getType() != event.getType() || next.getPosition() <= 1) {
+                            break;
+                        }
+                        cartClients.add(next.getClientId());
+                    }
+                }
+                applyCart(sequencedEvent.sequence, cartClients, event.getType() == OrderQueueEvent.Type.DELIVERED);
+            } else {
+                applyChange(sequencedEvent.sequence, event);
+                i++;
+            }
+        }
+        Iterator<Subscription> iterator = subscriptions.iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            if (subscription.cancelled || !notify(subscription)) {
+                iterator.remove();
+                subscriptionsNumber.decrementAndGet();
+            }
+        }
+    }
+
+    private void applyCart(long sequence, Set<Long> cartClients, boolean delivered) {
+        int cartOrders = cartClients.size();
+        boolean recalculate = orderQueueService.getActivePickers() > 1 || orderQueueService.isLookAheadPacking();
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.includes(sequence)) {
+                continue;
+            }
+            if (cartClients.contains(subscription.clientId)) {
+                subscription.removed |= delivered;
+                subscription.stale |= !delivered;
+            } else if (subscription.position > 0) {
+                subscription.position -= cartOrders;
+                subscription.waitTimeInSeconds -= pickupTimeoutSeconds;
+                subscription.changed = true;
+                subscription.stale |= recalculate || subscription.position < 1 || subscription.waitTimeInSeconds < 0;
+            }
+        }
+    }
+
+    private void applyWaitTimesChange(long sequence) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.includes(sequence)) {
+                subscription.stale = true;
+            }
+        }
+    }
+
+    private void applyReservedDelivery(long sequence, long clientId) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.includes(sequence) && subscription.clientId == clientId) {
+                subscription.removed = true;
+            }
+        }
+    }
+
+    private void applyChange(long sequence, OrderQueueEvent event) {
+        boolean cancelled = event.getType() == OrderQueueEvent.Type.CANCELLED;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.includes(sequence)) {
+                continue;
+            }
+            if (subscription.clientId == event.getClientId()) {
+                // Cancelled, promoted or returned from a reservation, an added order cannot have a subscription yet
+                subscription.removed |= cancelled;
+                subscription.stale |= !cancelled;
+            } else if (subscription.position > 0 && (subscription.position > event.getPosition()
+                    || !cancelled && subscription.position == event.getPosition())) {
+                // The orders behind the changed one may be packed into the carts differently now
+                subscription.stale = true;
+            }
+        }
+    }
+
+    /**
+     * @return false if the subscription has ended
+     */
+    private boolean notify(Subscription subscription) {
+        try {
+            if (subscription.removed) {
+                subscription.subscriber.onOrderRemoved(subscription.clientId);
+                return false;
+            }
+            if (subscription.stale && !query(subscription)) {
+                return true; // The queue is busy, try again with the next events
+            }
+            if (subscription.removed) {
+                subscription.subscriber.onOrderRemoved(subscription.clientId);
+                return false;
+            }
+            if (subscription.changed) {
+                subscription.changed = false;
+                subscription.subscriber.onStateChanged(ClientOrderState.of(subscription.clientId,
+                        subscription.position, subscription.waitTimeInSeconds));
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.debug("Subscriber of the client {} has failed, cancelling the subscription", subscription.clientId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Query the state of the subscription's order together with the number of the events it includes
+     *
+     * @return false if the queue kept changing during the query
+     */
+    private boolean query(Subscription subscription) {
+        for (int attempt = 0; attempt < MAX_QUERY_ATTEMPTS; attempt++) {
+            long sequence = publishedEvents;
+            ClientOrderState state;
+            try {
+                state = orderQueueService.getClientOrderState(subscription.clientId);
+            } catch (InvalidOrderParameterException e) {
+                state = null;
+            }
+            if (sequence != publishedEvents) {
+                continue;
+            }
+            subscription.stale = false;
+            subscription.includedEvents = sequence;
+            if (state == null) {
+                subscription.removed = true;
+            } else if (state.getPosition() != subscription.position
+                    || state.getWaitTimeInSeconds() != subscription.waitTimeInSeconds) {
+                subscription.position = state.getPosition();
+                subscription.waitTimeInSeconds = state.getWaitTimeInSeconds();
+                subscription.changed = true;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Subscription to the state of one client's order
+     */
+    public static final class Subscription {
+
+        private final long clientId;
+        private final ClientOrderStateSubscriber subscriber;
+        private volatile boolean cancelled;
+
+        // Owned by the dispatcher thread, a new subscription has no state yet
+        private long includedEvents;
+        private int position;
+        private long waitTimeInSeconds;
+        private boolean stale = true;
+        private boolean changed;
+        private boolean removed;
+
+        private Subscription(long clientId, ClientOrderStateSubscriber subscriber) {
+            this.clientId = clientId;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Stop the updates, the subscriber is not notified about it
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private boolean includes(long sequence) {
+            return !stale && sequence >= includedEvents;
+        }
+
+    }
+
+    /**
+     * Event of the queue, or a change of the wait times if there is no event
+     */
+    private static final class SequencedEvent {
+
+        static final SequencedEvent WAKE_UP = new SequencedEvent(-1L, null);
+
+        final long sequence;
+        final OrderQueueEvent event;
+
+        SequencedEvent(long sequence, OrderQueueEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+    }
+
+}
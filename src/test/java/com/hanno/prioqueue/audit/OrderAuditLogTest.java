@@ -0,0 +1,101 @@
+package com.hanno.prioqueue.audit;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OrderAuditLogTest {
+
+    @Test
+    public void queueChangesAreWrittenWithTierAndPosition() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService();
+        List<OrderQueueEvent> events = new CopyOnWriteArrayList<>();
+        try (OrderAuditLog auditLog = new OrderAuditLog(16, events::add)) {
+            auditLog.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(2001L, 20));
+            orderQueueService.addOrder(new OrderItem(2002L, 10));
+            orderQueueService.addOrder(new OrderItem(1L, 5));
+            orderQueueService.removeOrder(2002L);
+            orderQueueService.getNextDelivery();
+        }
+
+        assertThat(events).extracting(OrderQueueEvent::getType, OrderQueueEvent::getClientId,
+                OrderQueueEvent::getTier, OrderQueueEvent::getPosition)
+                .containsExactly(
+                        tuple(OrderQueueEvent.Type.ADDED, 2001L, 1, 1),
+                        tuple(OrderQueueEvent.Type.ADDED, 2002L, 1, 2),
+                        tuple(OrderQueueEvent.Type.ADDED, 1L, 0, 1),
+                        tuple(OrderQueueEvent.Type.CANCELLED, 2002L, 1, 3),
+                        tuple(OrderQueueEvent.Type.DELIVERED, 1L, 0, 1),
+                        tuple(OrderQueueEvent.Type.DELIVERED, 2001L, 1, 2));
+    }
+
+    @Test
+    public void everyAttachedQueueHasItsOwnBuffer() throws Exception {
+        InMemoryTieredPriorityOrderQueueService firstQueue = createOrderQueueService();
+        InMemoryTieredPriorityOrderQueueService secondQueue = createOrderQueueService();
+        List<OrderQueueEvent> events = new CopyOnWriteArrayList<>();
+        try (OrderAuditLog auditLog = new OrderAuditLog(2, events::add)) {
+            auditLog.attach(firstQueue);
+            auditLog.attach(secondQueue);
+            assertThrows(IllegalStateException.class, () -> auditLog.attach(firstQueue));
+            firstQueue.addOrder(new OrderItem(2001L, 20));
+            secondQueue.addOrder(new OrderItem(2002L, 10));
+            firstQueue.removeOrder(2001L);
+            secondQueue.removeOrder(2002L);
+        }
+
+        assertThat(events).extracting(OrderQueueEvent::getType, OrderQueueEvent::getClientId)
+                .containsExactlyInAnyOrder(
+                        tuple(OrderQueueEvent.Type.ADDED, 2001L),
+                        tuple(OrderQueueEvent.Type.ADDED, 2002L),
+                        tuple(OrderQueueEvent.Type.CANCELLED, 2001L),
+                        tuple(OrderQueueEvent.Type.CANCELLED, 2002L));
+    }
+
+    @Test
+    public void eventsAreDroppedInsteadOfBlockingTheQueue() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService();
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(4);
+        try (OrderAuditLog auditLog = new OrderAuditLog(4, event -> {
+            writerBlocked.countDown();
+            awaitQuietly(release);
+            written.countDown();
+        })) {
+            auditLog.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(2001L, 1));
+            assertThat(writerBlocked.await(10, TimeUnit.SECONDS)).isTrue();
+            for (long clientId = 2002L; clientId < 2012L; clientId++) {
+                orderQueueService.addOrder(new OrderItem(clientId, 1));
+            }
+            assertThat(orderQueueService.getAllOrders()).hasSize(11);
+            // The event being written still holds its slot, so only three more fit into the buffer
+            assertThat(auditLog.getDroppedEvents()).isEqualTo(7L);
+
+            release.countDown();
+            assertThat(written.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.hanno.prioqueue.backlog;
+
+import com.hanno.prioqueue.entity.ImportReport;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderCsvImporterTest {
+
+    @Test
+    public void backlogIsImportedInBatches() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService();
+        String csv = "clientId,quantity,orderAdded\n"
+                + "2001,5,2021-08-01T10:00:05\n"
+                + "2002,5,2021-08-01T10:00:00\n"
+                + "2003,0\n"
+                + "x,1\n"
+                + "2004,1,yesterday\n"
+                + "2005,1,2999-01-01T00:00:00\n"
+                + "2001,3\n"
+                + "\n"
+                + "2006,2,\n";
+
+        ImportReport report = new OrderCsvImporter(2).importOrders(new StringReader(csv), orderQueueService);
+
+        assertThat(report.getRows()).isEqualTo(8L);
+        assertThat(report.getImported()).isEqualTo(3L);
+        assertThat(report.getRejected()).isEqualTo(5L);
+        assertThat(report.getRejectedRows()).extracting(ImportReport.RejectedRow::getLine)
+                .containsExactly(5L, 6L, 7L, 4L, 8L);
+        // The orders of a batch are queued by their time
+        List<OrderItem> orders = orderQueueService.getAllOrders();
+        assertThat(orders).extracting(OrderItem::getClientId).containsExactly(2002L, 2001L, 2006L);
+        assertThat(orders.get(0).getOrderAdded()).isEqualTo(LocalDateTime.of(2021, 8, 1, 10, 0));
+        assertThat(orders.get(2).getOrderAdded()).isAfter(orders.get(1).getOrderAdded());
+    }
+
+    @Test
+    public void ordersOlderThanTheirTierAreRejected() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService();
+        String csv = "2001,5,2021-08-01T10:00:00\n"
+                + "2002,5,2021-08-01T10:00:10\n"
+                + "2003,5,2021-08-01T10:00:05\n"
+                + "1,5,2021-08-01T09:00:00\n";
+
+        ImportReport report = new OrderCsvImporter(2).importOrders(new StringReader(csv), orderQueueService);
+
+        // The second batch may not get ahead of the first one in the same tier
+        assertThat(report.getImported()).isEqualTo(3L);
+        assertThat(report.getRejectedRows()).extracting(ImportReport.RejectedRow::getLine).containsExactly(3L);
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId)
+                .containsExactly(1L, 2001L, 2002L);
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.hanno.prioqueue.controller;
+
+import com.hanno.prioqueue.RestMapping;
+import com.hanno.prioqueue.dto.OrderDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive", "queue.page.maxLimit=10", "queue.all.gzip=true",
+                "queue.storehouses=north", "queue.storehouse.north.cart.capacity=10"})
+public class ReactiveOrderQueueControllerTest {
+
+    private static final String ORDER = "/" + RestMapping.ORDER;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    public void ordersAreStreamedPageByPage() {
+        List<OrderDto> orders = LongStream.rangeClosed(3001, 3025)
+                .mapToObj(clientId -> order(clientId, 1))
+                .collect(Collectors.toList());
+        webTestClient.put().uri(ORDER + "/batch").bodyValue(orders).exchange().expectStatus().isOk();
+
+        List<OrderDto> streamed = webTestClient.get().uri(ORDER + "/all/stream")
+                .accept(MediaType.parseMediaType("application/x-ndjson"))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(OrderDto.class).getResponseBody()
+                .filter(order -> order.getClientId() > 3000 && order.getClientId() <= 3025)
+                .collectList().block(Duration.ofSeconds(10));
+        assertThat(streamed).extracting(OrderDto::getClientId)
+                .containsExactlyElementsOf(orders.stream().map(OrderDto::getClientId).collect(Collectors.toList()));
+
+        webTestClient.get().uri(ORDER + "/all/page?limit=11").exchange().expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void errorsAreMappedToStatuses() {
+        webTestClient.put().uri(ORDER).bodyValue(order(4001L, 5)).exchange().expectStatus().isOk();
+        webTestClient.put().uri(ORDER).bodyValue(order(4001L, 5)).exchange()
+                .expectStatus().isEqualTo(406);
+        webTestClient.put().uri(ORDER).bodyValue(order(4002L, 0)).exchange().expectStatus().isBadRequest();
+        webTestClient.get().uri(ORDER + "/state?clientId=4003").exchange().expectStatus().isNotFound();
+        webTestClient.delete().uri(ORDER + "?clientId=4001").exchange().expectStatus().isOk();
+        webTestClient.get().uri(ORDER + "/state?clientId=4001").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    public void stateIsStreamedUntilOrderIsRemoved() throws Exception {
+        webTestClient.put().uri(ORDER).bodyValue(order(5001L, 5)).exchange().expectStatus().isOk();
+        webTestClient.get().uri(ORDER + "/state/subscribe?clientId=5002").exchange().expectStatus().isNotFound();
+
+        Flux<ServerSentEvent<String>> events = webTestClient.get().uri(ORDER + "/state/subscribe?clientId=5001")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                }).getResponseBody();
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        events.subscribe(event -> received.add(event.event()), e -> received.add("error"), () -> received.add("end"));
+
+        assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("state");
+        webTestClient.delete().uri(ORDER + "?clientId=5001").exchange().expectStatus().isOk();
+        assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("removed");
+        assertThat(received.poll(10, TimeUnit.SECONDS)).isEqualTo("end");
+    }
+
+    @Test
+    public void unchangedQueueIsNotReadAgain() throws Exception {
+        webTestClient.put().uri(ORDER).bodyValue(order(6001L, 5)).exchange().expectStatus().isOk();
+        EntityExchangeResult<byte[]> all = webTestClient.get().uri(ORDER + "/all")
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody().returnResult();
+        String etag = all.getResponseHeaders().getETag();
+        assertThat(etag).isNotNull();
+        assertThat(new String(all.getResponseBody(), StandardCharsets.UTF_8)).contains("\"clientId\":6001");
+
+        webTestClient.get().uri(ORDER + "/all").header(HttpHeaders.ACCEPT_ENCODING, "identity").ifNoneMatch(etag)
+                .exchange().expectStatus().isNotModified();
+        String stateEtag = webTestClient.get().uri(ORDER + "/state?clientId=6001").exchange()
+                .expectStatus().isOk()
+                .expectBody().returnResult().getResponseHeaders().getETag();
+        assertThat(stateEtag).isNotNull();
+        webTestClient.get().uri(ORDER + "/state?clientId=6001").ifNoneMatch(stateEtag).exchange()
+                .expectStatus().isNotModified();
+        // The client decompresses the body, the compressed response is another representation of the same version
+        EntityExchangeResult<byte[]> compressed = webTestClient.get().uri(ORDER + "/all")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .expectBody().returnResult();
+        assertThat(compressed.getResponseHeaders().getETag()).isNotEqualTo(etag);
+        assertThat(compressed.getResponseBody()).isEqualTo(all.getResponseBody());
+
+        webTestClient.delete().uri(ORDER + "?clientId=6001").exchange().expectStatus().isOk();
+        webTestClient.get().uri(ORDER + "/all").header(HttpHeaders.ACCEPT_ENCODING, "identity").ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, newEtag -> assertThat(newEtag).isNotEqualTo(etag));
+        webTestClient.get().uri(ORDER + "/state?clientId=6001").ifNoneMatch(stateEtag).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void storehousesHaveIndependentQueues() {
+        String north = "/" + RestMapping.STOREHOUSE + "/north/order";
+        webTestClient.put().uri(north).bodyValue(order(7001L, 6)).exchange().expectStatus().isOk();
+        webTestClient.put().uri(north).bodyValue(order(7002L, 6)).exchange().expectStatus().isOk();
+        webTestClient.put().uri(ORDER).bodyValue(order(7001L, 6)).exchange().expectStatus().isOk();
+        // The storehouse expires its orders like the default one
+        OrderDto expiring = order(7003L, 1);
+        expiring.setTtlSeconds(0L);
+        webTestClient.put().uri(north).bodyValue(expiring).exchange().expectStatus().isBadRequest();
+
+        webTestClient.get().uri(north + "/state?clientId=7002").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.position").isEqualTo(2);
+        webTestClient.get().uri("/" + RestMapping.STOREHOUSE + "/default/order/state?clientId=7002").exchange()
+                .expectStatus().isNotFound();
+        // The cart capacity of the storehouse is 10 items
+        webTestClient.get().uri(north + "/delivery").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[*].clientId").isEqualTo(7001);
+        webTestClient.get().uri(ORDER + "/state?clientId=7001").exchange().expectStatus().isOk();
+        webTestClient.get().uri("/" + RestMapping.STOREHOUSE + "/west/order/all").exchange()
+                .expectStatus().isNotFound();
+
+        webTestClient.delete().uri(ORDER + "?clientId=7001").exchange().expectStatus().isOk();
+        webTestClient.delete().uri(north + "?clientId=7002").exchange().expectStatus().isOk();
+    }
+
+    @Test
+    public void backlogIsImportedFromCsv() {
+        String north = "/" + RestMapping.STOREHOUSE + "/north/order";
+        webTestClient.post().uri(north + "/import").contentType(MediaType.parseMediaType("text/csv"))
+                .bodyValue("clientId,quantity\n8001,1\n8002,x\n8003,2,2021-08-01T10:00:00\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.rows").isEqualTo(3)
+                .jsonPath("$.imported").isEqualTo(2)
+                .jsonPath("$.rejectedRows[0].line").isEqualTo(3);
+        webTestClient.get().uri(north + "/state?clientId=8003").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.position").isEqualTo(1);
+
+        webTestClient.delete().uri(north + "?clientId=8001").exchange().expectStatus().isOk();
+        webTestClient.delete().uri(north + "?clientId=8003").exchange().expectStatus().isOk();
+    }
+
+    private static OrderDto order(long clientId, int quantity) {
+        OrderDto order = new OrderDto();
+        order.setClientId(clientId);
+        order.setQuantity(quantity);
+        return order;
+    }
+
+}
@@ -0,0 +1,295 @@
+package com.hanno.prioqueue.journal;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import com.hanno.prioqueue.service.OrderQueueEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class OrderJournalTest {
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void queueIsRestoredAfterRestart() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(2001L, 10));
+            orderQueueService.addOrder(new OrderItem(2002L, 20));
+            orderQueueService.addOrder(new OrderItem(1L, 5));
+            orderQueueService.addOrder(new OrderItem(2003L, 3));
+            orderQueueService.addOrder(new OrderItem(2L, 7));
+            orderQueueService.removeOrder(2003L);
+            orderQueueService.getNextDelivery();
+            orderQueueService.addOrder(new OrderItem(2001L, 4));
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10)) {
+            journal.attach(restored);
+            assertThat(journal.getRecoveredOrders()).isEqualTo(2);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+            assertThat(restored.getClientOrderState(2001L)).isEqualTo(orderQueueService.getClientOrderState(2001L));
+
+            // The restored queue goes on with the same journal
+            restored.addOrder(new OrderItem(3L, 1));
+        }
+
+        InMemoryTieredPriorityOrderQueueService restoredAgain = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10)) {
+            journal.attach(restoredAgain);
+            assertThat(restoredAgain.getAllOrders()).isEqualTo(restored.getAllOrders());
+        }
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(2001L, 10));
+            orderQueueService.addOrder(new OrderItem(2002L, 20));
+        }
+        // Damage the last record as if the machine crashed while it was being written
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            file.seek(2L * JournalRecord.ADDED_SIZE - 2);
+            int damaged = file.read() ^ 0xFF;
+            file.seek(2L * JournalRecord.ADDED_SIZE - 2);
+            file.write(damaged);
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.attach(restored);
+            assertThat(restored.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2001L);
+            restored.addOrder(new OrderItem(2003L, 1));
+        }
+
+        InMemoryTieredPriorityOrderQueueService restoredAgain = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.attach(restoredAgain);
+            assertThat(restoredAgain.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2001L, 2003L);
+        }
+    }
+
+    @Test
+    public void journalIsSplitIntoSegments() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, 10 * JournalRecord.ADDED_SIZE, 10)) {
+            journal.attach(orderQueueService);
+            for (long clientId = 1; clientId <= 100; clientId++) {
+                orderQueueService.addOrder(new OrderItem(clientId * 37, 1 + (int) (clientId % 25)));
+            }
+            orderQueueService.getNextDelivery();
+        }
+        assertThat(segments()).hasSizeGreaterThan(10);
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, 10 * JournalRecord.ADDED_SIZE, 10)) {
+            journal.attach(restored);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+        }
+    }
+
+    @Test
+    public void largeQueueIsRestored() throws Exception {
+        int ordersNumber = 200_000;
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(ordersNumber);
+        List<OrderItem> orders = new ArrayList<>();
+        for (long clientId = 1; clientId <= ordersNumber; clientId++) {
+            orders.add(new OrderItem(clientId, 1 + (int) (clientId % 25)));
+        }
+        try (OrderJournal journal = new OrderJournal(directory, 1 << 24, 10)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addOrders(orders);
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(ordersNumber);
+        try (OrderJournal journal = new OrderJournal(directory, 1 << 24, 10)) {
+            journal.attach(restored);
+            assertThat(journal.getRecoveredOrders()).isEqualTo(ordersNumber);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+        }
+    }
+
+    @Test
+    public void snapshotReplacesOlderRecords() throws Exception {
+        int segmentSize = 100 * JournalRecord.ADDED_SIZE;
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, segmentSize, 10, 0)) {
+            journal.attach(orderQueueService);
+            for (long clientId = 1; clientId <= 2000; clientId++) {
+                orderQueueService.addOrder(new OrderItem(clientId * 7, 1 + (int) (clientId % 25)));
+                if (clientId % 3 == 0) {
+                    orderQueueService.getNextDelivery();
+                }
+            }
+            int segmentsNumber = segments().size();
+            journal.snapshot();
+            assertThat(snapshots()).hasSize(1);
+            assertThat(segments().size()).isLessThan(segmentsNumber).isLessThanOrEqualTo(2);
+
+            // Changes after the snapshot are replayed from the journal
+            orderQueueService.removeOrder(orderQueueService.getAllOrders().get(0).getClientId());
+            orderQueueService.addOrder(new OrderItem(1L, 3));
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, segmentSize, 10, 0)) {
+            journal.attach(restored);
+            assertThat(journal.getRecoveredRecords()).isEqualTo(2);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+
+            restored.getNextDelivery();
+            journal.snapshot();
+            assertThat(snapshots()).hasSize(1);
+        }
+
+        InMemoryTieredPriorityOrderQueueService restoredAgain = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, segmentSize, 10, 0)) {
+            journal.attach(restoredAgain);
+            assertThat(journal.getRecoveredRecords()).isZero();
+            assertThat(restoredAgain.getAllOrders()).isEqualTo(restored.getAllOrders());
+        }
+    }
+
+    @Test
+    public void unconfirmedReservationIsRestoredIntoTheQueue() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        List<OrderItem> queued;
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(orderQueueService);
+            for (long clientId = 2001; clientId <= 2006; clientId++) {
+                orderQueueService.addOrder(new OrderItem(clientId, 20));
+            }
+            queued = orderQueueService.getAllOrders();
+            long delivered = orderQueueService.reserveNextDelivery("picker-1").getReservationId();
+            orderQueueService.reserveNextDelivery("picker-2");
+            journal.snapshot();
+            orderQueueService.reserveNextDelivery("picker-1");
+            orderQueueService.confirmDelivery(delivered);
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(restored);
+            assertThat(restored.getAllOrders()).isEqualTo(queued.subList(1, queued.size()));
+        }
+    }
+
+    @Test
+    public void namedTiersAreRestoredFromRecordsAndSnapshot() throws Exception {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(101L, 10));
+            orderQueueService.addOrder(new OrderItem(2001L, 10, null, "premium"));
+            journal.snapshot();
+            orderQueueService.addOrder(new OrderItem(2002L, 10, null, "premium"));
+            orderQueueService.addOrder(new OrderItem(2003L, 10));
+        }
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId, OrderItem::getTier)
+                .containsExactly(tuple(101L, null), tuple(2001L, "premium"), tuple(2002L, "premium"),
+                        tuple(2003L, null));
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(restored);
+            assertThat(journal.getRecoveredRecords()).isEqualTo(2);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+        }
+    }
+
+    @Test
+    public void deadlinesAreRestoredFromRecordsAndSnapshot() throws Exception {
+        LocalDateTime expiresAt = LocalDateTime.now().plusMinutes(10);
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addOrder(new OrderItem(2001L, 10, null, null, null, expiresAt));
+            journal.snapshot();
+            orderQueueService.addOrder(new OrderItem(2002L, 10));
+            orderQueueService.addOrder(new OrderItem(2003L, 10, null, null, null, expiresAt.plusSeconds(1)));
+            orderQueueService.addOrder(new OrderItem(2004L, 10, null, "premium", null, expiresAt.plusSeconds(2)));
+        }
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId, OrderItem::getExpiresAt)
+                .containsExactly(tuple(2004L, expiresAt.plusSeconds(2)), tuple(2001L, expiresAt), tuple(2002L, null),
+                        tuple(2003L, expiresAt.plusSeconds(1)));
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(directory, SEGMENT_SIZE, 10, 0)) {
+            journal.attach(restored);
+            assertThat(journal.getRecoveredRecords()).isEqualTo(3);
+            assertThat(restored.getAllOrders()).isEqualTo(orderQueueService.getAllOrders());
+        }
+    }
+
+    @Test
+    public void failedRecordDoesNotFailTheQueue() throws Exception {
+        Path journalDirectory = directory.resolve("journal");
+        InMemoryTieredPriorityOrderQueueService orderQueueService = createOrderQueueService(20000L);
+        List<OrderQueueEvent.Type> events = new ArrayList<>();
+        try (OrderJournal journal = new OrderJournal(journalDirectory, 2 * JournalRecord.ADDED_SIZE, 10, 0)) {
+            journal.attach(orderQueueService);
+            orderQueueService.addListener(event -> events.add(event.getType()));
+            orderQueueService.addOrder(new OrderItem(2001L, 10));
+            orderQueueService.addOrder(new OrderItem(2002L, 20));
+            // The next segment cannot be created
+            try (Stream<Path> files = Files.walk(journalDirectory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            orderQueueService.addOrder(new OrderItem(2003L, 5));
+            orderQueueService.removeOrder(2001L);
+            assertThat(events).containsExactly(OrderQueueEvent.Type.ADDED, OrderQueueEvent.Type.ADDED,
+                    OrderQueueEvent.Type.ADDED, OrderQueueEvent.Type.CANCELLED);
+            assertThat(journal.getFailure()).isInstanceOf(IOException.class);
+
+            // The snapshot holds the missed changes, and the journal goes on after it
+            Files.createDirectories(journalDirectory);
+            journal.snapshot();
+            assertThat(journal.getFailure()).isNull();
+            orderQueueService.addOrder(new OrderItem(2004L, 1));
+        }
+
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService(20000L);
+        try (OrderJournal journal = new OrderJournal(journalDirectory, 2 * JournalRecord.ADDED_SIZE, 10, 0)) {
+            journal.attach(restored);
+            assertThat(restored.getAllOrders()).extracting(OrderItem::getClientId)
+                    .containsExactly(2002L, 2003L, 2004L);
+        }
+    }
+
+    private List<Path> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(JournalSnapshot::isSnapshot).collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(JournalSegment::isSegment).sorted().collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.hanno.prioqueue.profiling;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestCostInterceptorTest {
+
+    private static final int ALLOCATED_BYTES = 1 << 20;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void costsAreRecordedPerRoute() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        RequestCostInterceptor interceptor = new RequestCostInterceptor(registry);
+        HandlerMethod handler = new HandlerMethod(this, getClass().getMethod("allocate"));
+        assertThat(interceptor.isSupported()).isTrue();
+
+        for (int i = 0; i < 3; i++) {
+            handle(interceptor, handler, "/storehouse/order/state?clientId=" + i);
+        }
+        MockHttpServletRequest streamed = request("/storehouse/order/all/stream");
+        interceptor.preHandle(streamed, new MockHttpServletResponse(), handler);
+        interceptor.afterConcurrentHandlingStarted(streamed, new MockHttpServletResponse(), handler);
+        interceptor.afterCompletion(streamed, new MockHttpServletResponse(), handler, null);
+
+        assertThat(interceptor.getRoutes()).containsOnlyKeys("GET /storehouse/order/state");
+        assertThat(registry.get("orderqueue.request.allocated").tag("route", "GET /storehouse/order/state")
+                .summary().count()).isEqualTo(3);
+        assertThat(registry.get("orderqueue.request.allocated").summary().mean()).isGreaterThan(ALLOCATED_BYTES);
+        assertThat(registry.get("orderqueue.request.cpu").timer().count()).isEqualTo(3);
+
+        Map<String, Object> costs = new RequestCostEndpoint(interceptor).costs();
+        assertThat(costs).containsEntry("supported", true);
+        assertThat((Map<String, ?>) costs.get("routes")).containsOnlyKeys("GET /storehouse/order/state");
+    }
+
+    public byte[] allocate() {
+        return new byte[ALLOCATED_BYTES];
+    }
+
+    private void handle(RequestCostInterceptor interceptor, HandlerMethod handler, String uri) throws Exception {
+        MockHttpServletRequest request = request(uri);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        interceptor.preHandle(request, response, handler);
+        request.setAttribute("result", handler.getMethod().invoke(this));
+        interceptor.afterCompletion(request, response, handler, null);
+    }
+
+    private static MockHttpServletRequest request(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        String path = uri.contains("?") ? uri.substring(0, uri.indexOf('?')) : uri;
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, path);
+        return request;
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.hanno.prioqueue.replication;
+
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicationTest {
+
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    @Test
+    public void followerCatchesUpWithSnapshotAndChanges() throws Exception {
+        InMemoryTieredPriorityOrderQueueService leaderQueue = createOrderQueueService();
+        InMemoryTieredPriorityOrderQueueService followerQueue = createOrderQueueService();
+        leaderQueue.addOrder(new OrderItem(2001L, 10));
+        leaderQueue.addOrder(new OrderItem(1L, 5));
+        leaderQueue.addOrder(new OrderItem(2002L, 20, null, "premium", null, LocalDateTime.now().plusMinutes(10)));
+        followerQueue.addOrder(new OrderItem(3000L, 1)); // Replaced by the snapshot
+        List<String> followerEvents = new CopyOnWriteArrayList<>();
+        followerQueue.addListener(event -> followerEvents.add(event.getType() + " " + event.getClientId()));
+        try (ReplicationLeader leader = new ReplicationLeader(InetAddress.getLoopbackAddress(), 0, 2, 1000);
+             ReplicationFollower follower = new ReplicationFollower("localhost", 0, 10)) {
+            leader.attach(leaderQueue);
+            ReflectionTestUtils.setField(follower, "port", leader.getPort());
+            follower.attach(followerQueue);
+            awaitCaughtUp(leaderQueue, followerQueue);
+            // The snapshot replaces the queue at once, and a journal of the follower would see the new orders
+            assertThat(followerEvents).containsExactly("CANCELLED 3000", "ADDED 1", "ADDED 2002", "ADDED 2001");
+
+            CartReservation reservation = leaderQueue.reserveNextDelivery("joe");
+            leaderQueue.addOrder(new OrderItem(2003L, 3));
+            leaderQueue.addOrder(new OrderItem(2L, 7));
+            leaderQueue.removeOrder(2001L);
+            leaderQueue.addOrder(new OrderItem(2004L, 4));
+            leaderQueue.confirmDelivery(reservation.getReservationId());
+            leaderQueue.getNextDelivery();
+            leaderQueue.addOrder(new OrderItem(2005L, 6, null, "premium", null, LocalDateTime.now().plusMinutes(10)));
+            leaderQueue.addOrder(new OrderItem(2006L, 8));
+            awaitCaughtUp(leaderQueue, followerQueue);
+            await(() -> leader.getLagEvents() == 0L);
+            assertThat(follower.getAppliedEvents()).isEqualTo(11L);
+            assertThat(leader.getLagMillis()).isZero();
+            assertThat(followerQueue.getClientOrderState(2006L)).isEqualTo(leaderQueue.getClientOrderState(2006L));
+        }
+    }
+
+    @Test
+    public void promotedFollowerStopsFollowingTheLeader() throws Exception {
+        InMemoryTieredPriorityOrderQueueService leaderQueue = createOrderQueueService();
+        InMemoryTieredPriorityOrderQueueService followerQueue = createOrderQueueService();
+        try (ReplicationLeader leader = new ReplicationLeader(InetAddress.getLoopbackAddress(), 0, 1024, 1000);
+             ReplicationFollower follower = new ReplicationFollower("localhost", 0, 10)) {
+            leader.attach(leaderQueue);
+            ReflectionTestUtils.setField(follower, "port", leader.getPort());
+            follower.attach(followerQueue);
+            leaderQueue.addOrder(new OrderItem(2001L, 10));
+            awaitCaughtUp(leaderQueue, followerQueue);
+
+            follower.promote();
+            assertThat(follower.isPromoted()).isTrue();
+            assertThat(follower.isConnected()).isFalse();
+            leaderQueue.addOrder(new OrderItem(2002L, 10));
+            followerQueue.addOrder(new OrderItem(2003L, 5));
+            await(() -> !leader.isFollowerConnected());
+            assertThat(followerQueue.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2001L, 2003L);
+        }
+    }
+
+    private static void awaitCaughtUp(InMemoryTieredPriorityOrderQueueService leaderQueue,
+                                      InMemoryTieredPriorityOrderQueueService followerQueue) throws InterruptedException {
+        await(() -> followerQueue.getAllOrders().equals(leaderQueue.readAllOrders(List::copyOf)));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("Replication has not caught up in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.OrderExpiredException;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.MAX_CLIENT_ID;
+import static com.hanno.prioqueue.service.TestOrderQueues.configure;
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ExpiringOrderQueueServiceTest {
+
+    private static final long TICK_MILLIS = 10L;
+
+    @Test
+    public void ordersAreEvictedAfterTheirTimeToLive() throws Exception {
+        ExpiringOrderQueueService orderQueueService = new ExpiringOrderQueueService(
+                createOrderQueueService(), MAX_CLIENT_ID, 0L, TICK_MILLIS);
+        orderQueueService.addOrder(withTtl(new OrderItem(2001L, 10), 1L));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(withTtl(new OrderItem(1L, 25), 1L));
+        orderQueueService.addOrder(withTtl(new OrderItem(2003L, 5), 1L));
+        assertThrows(InvalidOrderParameterException.class,
+                () -> orderQueueService.addOrder(withTtl(new OrderItem(2004L, 1), 0L)));
+        assertThat(orderQueueService.addOrders(Arrays.asList(withTtl(new OrderItem(2005L, 1), -1L),
+                new OrderItem(2006L, 1), null)))
+                .extracting(BatchOrderResult::isAccepted).containsExactly(false, true, false);
+        orderQueueService.getNextDelivery();
+        orderQueueService.removeOrder(2003L);
+        assertThat(orderQueueService.expireOrders()).isZero();
+
+        Thread.sleep(1000L + 2 * TICK_MILLIS);
+        assertThat(orderQueueService.expireOrders()).isEqualTo(1);
+        assertThat(orderQueueService.getExpiredOrders()).isEqualTo(1L);
+        assertThat(orderQueueService.getAllOrders().stream().map(OrderItem::getClientId).collect(Collectors.toList()))
+                .containsExactly(2002L, 2006L);
+        assertThat(orderQueueService.getClientOrderState(2002L).getPosition()).isEqualTo(1);
+        assertThrows(OrderExpiredException.class, () -> orderQueueService.getClientOrderState(2001L));
+        assertThat(orderQueueService.getClientOrderState(2003L)).isNull();
+
+        orderQueueService.addOrder(new OrderItem(2001L, 1));
+        assertThat(orderQueueService.getClientOrderState(2001L).getPosition()).isEqualTo(3);
+    }
+
+    @Test
+    public void defaultTimeToLiveWorksWithAnyQueue() throws Exception {
+        ExpiringOrderQueueService orderQueueService = new ExpiringOrderQueueService(
+                configure(new InMemoryCustomPriorityOrderQueueService()), MAX_CLIENT_ID, 1L, TICK_MILLIS);
+        orderQueueService.addOrder(new OrderItem(2001L, 10));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(withTtl(new OrderItem(2003L, 10), 60L));
+        orderQueueService.removeOrder(2002L);
+
+        Thread.sleep(1000L + 2 * TICK_MILLIS);
+        assertThat(orderQueueService.expireOrders()).isEqualTo(1);
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2003L);
+        assertThrows(OrderExpiredException.class, () -> orderQueueService.getClientOrderState(2001L));
+    }
+
+    @Test
+    public void reservedAndRestoredOrdersKeepTheirDeadlines() throws Exception {
+        InMemoryTieredPriorityOrderQueueService delegate = createOrderQueueService();
+        ExpiringOrderQueueService orderQueueService = new ExpiringOrderQueueService(
+                delegate, MAX_CLIENT_ID, 1L, TICK_MILLIS);
+        orderQueueService.attach(delegate);
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 20));
+        OrderItem restored = new OrderItem(2003L, 20);
+        restored.setOrderAdded(LocalDateTime.now().minusHours(1));
+        delegate.restoreOrders(Collections.singletonList(restored));
+        CartReservation reservation = orderQueueService.reserveNextDelivery("picker-1");
+
+        // The restored order has outlived its time to live already
+        Thread.sleep(2 * TICK_MILLIS);
+        assertThat(orderQueueService.expireOrders()).isEqualTo(1);
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2002L);
+
+        // The reserved order is not evicted, but it expires as soon as its cart is returned
+        Thread.sleep(1000L + 2 * TICK_MILLIS);
+        assertThat(orderQueueService.expireOrders()).isEqualTo(1);
+        assertThat(orderQueueService.returnDelivery(reservation.getReservationId())).isTrue();
+        Thread.sleep(2 * TICK_MILLIS);
+        assertThat(orderQueueService.expireOrders()).isEqualTo(1);
+        assertThat(orderQueueService.getAllOrders()).isEmpty();
+        assertThrows(OrderExpiredException.class, () -> orderQueueService.getClientOrderState(2001L));
+    }
+
+    @Test
+    public void restoredOrdersKeepTheirOwnDeadlines() throws Exception {
+        ExpiringOrderQueueService orderQueueService = new ExpiringOrderQueueService(
+                createOrderQueueService(), MAX_CLIENT_ID, 0L, TICK_MILLIS);
+        orderQueueService.addOrder(withTtl(new OrderItem(2001L, 10), 1L));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        List<OrderItem> orders = orderQueueService.getAllOrders();
+        assertThat(orders.get(0).getExpiresAt()).isAfter(LocalDateTime.now());
+        assertThat(orders.get(1).getExpiresAt()).isNull();
+
+        // As if the orders were restored from the journal or a leader's snapshot
+        InMemoryTieredPriorityOrderQueueService restored = createOrderQueueService();
+        ExpiringOrderQueueService restoredQueueService = new ExpiringOrderQueueService(
+                restored, MAX_CLIENT_ID, 0L, TICK_MILLIS);
+        restoredQueueService.attach(restored);
+        restored.restoreOrders(orders);
+
+        Thread.sleep(1000L + 2 * TICK_MILLIS);
+        assertThat(restoredQueueService.expireOrders()).isEqualTo(1);
+        assertThat(restoredQueueService.getAllOrders()).extracting(OrderItem::getClientId).containsExactly(2002L);
+    }
+
+    private static OrderItem withTtl(OrderItem order, long ttlSeconds) {
+        order.setTtlSeconds(ttlSeconds);
+        return order;
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.hanno.prioqueue.service;
 
+import com.hanno.prioqueue.entity.BatchOrderResult;
 import com.hanno.prioqueue.entity.ClientOrderState;
 import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
 import com.hanno.prioqueue.exception.DuplicateClientOrderException;
 import com.hanno.prioqueue.exception.InvalidOrderParameterException;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,6 +12,8 @@ import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -18,20 +22,24 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 @RunWith(SpringJUnit4ClassRunner.class)
 public class InMemoryCustomPriorityOrderQueueServiceTest {
 
-    private static final long MAX_CLIENT_ID = 20000L;
-    private static final int CART_CAPACITY = 25;
-    private static final long PICKUP_TIMEOUT = 300L;
+    protected static final long MAX_CLIENT_ID = 20000L;
+    protected static final int CART_CAPACITY = 25;
+    protected static final long PICKUP_TIMEOUT = 300L;
 
-    private OrderQueueService orderQueueService;
+    protected OrderQueueService orderQueueService;
 
     @BeforeEach
     public void setUp() {
-        orderQueueService = new InMemoryCustomPriorityOrderQueueService();
+        orderQueueService = createOrderQueueService();
         ReflectionTestUtils.setField(orderQueueService, "maxClientId", MAX_CLIENT_ID);
         ReflectionTestUtils.setField(orderQueueService, "cartCapacity", CART_CAPACITY);
         ReflectionTestUtils.setField(orderQueueService, "pickupTimeoutSeconds", PICKUP_TIMEOUT);
     }
 
+    protected OrderQueueService createOrderQueueService() {
+        return new InMemoryCustomPriorityOrderQueueService();
+    }
+
     @Test
     public void verifyOrdersPrioritizationWithinTheQueue() throws InvalidOrderParameterException {
         OrderItem o1 = new OrderItem(101L, 1);
@@ -145,6 +153,68 @@ public class InMemoryCustomPriorityOrderQueueServiceTest {
         assertThat(orderQueueService.getAllOrders().get(0).getQuantity()).isEqualTo(o1.getQuantity());
     }
 
+    @Test
+    public void addOrdersRejectsInvalidAndDuplicatedOrdersOneByOne() throws InvalidOrderParameterException {
+        OrderItem existing = new OrderItem(11L, 1);
+        orderQueueService.addOrder(existing);
+        OrderItem o1 = new OrderItem(2001L, 2);
+        OrderItem o2 = new OrderItem(12L, 3);
+
+        List<BatchOrderResult> results = orderQueueService.addOrders(Arrays.asList(
+                o1,
+                new OrderItem(11L, 4),
+                new OrderItem(13L, CART_CAPACITY + 1),
+                null,
+                o2,
+                new OrderItem(2001L, 5)));
+
+        assertThat(results).extracting(BatchOrderResult::isAccepted)
+                .containsExactly(true, false, false, false, true, false);
+        assertThat(results).extracting(BatchOrderResult::getClientId)
+                .containsExactly(2001L, 11L, 13L, null, 12L, 2001L);
+        assertThat(orderQueueService.getAllOrders()).containsExactly(existing, o2, o1);
+    }
+
+    @Test
+    public void getOrdersPageByPage() throws InvalidOrderParameterException {
+        for (long clientId = 995; clientId <= 1005; clientId++) {
+            orderQueueService.addOrder(new OrderItem(2000 - clientId, 1));
+        }
+        List<OrderItem> orders = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            OrderPage page = orderQueueService.getOrders(cursor, 3);
+            assertThat(page.getOrders().size()).isBetween(1, 3);
+            orders.addAll(page.getOrders());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(4);
+        assertThat(orders).isEqualTo(orderQueueService.getAllOrders());
+    }
+
+    @Test
+    public void getOrdersEmptyQueue() throws InvalidOrderParameterException {
+        OrderPage page = orderQueueService.getOrders(null, 10);
+
+        assertThat(page.getOrders()).isEmpty();
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void getOrdersInvalidCursor() {
+        assertThrows(InvalidOrderParameterException.class,
+                () -> orderQueueService.getOrders("not a cursor", 10));
+    }
+
+    @Test
+    public void getOrdersLimitIsZero() {
+        assertThrows(InvalidOrderParameterException.class,
+                () -> orderQueueService.getOrders(null, 0));
+    }
+
     @Test
     public void getNextDeliveryEmptyQueue() {
         List<OrderItem> delivery = orderQueueService.getNextDelivery();
@@ -0,0 +1,248 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.CART_CAPACITY;
+import static com.hanno.prioqueue.service.TestOrderQueues.MAX_CLIENT_ID;
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test of the concurrent access to {@link InMemoryTieredPriorityOrderQueueService}.
+ * Producers, cancellers, pickers and readers run at the same time, and afterwards the history is checked
+ * against the sequential specification of the queue: every order leaves the queue exactly once,
+ * orders of a tier leave it in the order they were added, and premium clients never move back in the queue.
+ */
+public class InMemoryTieredPriorityOrderQueueServiceConcurrencyTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CLIENTS_PER_PRODUCER = (int) MAX_CLIENT_ID / PRODUCERS;
+    private static final int PICKERS = 2;
+    private static final int CANCELLERS = 2;
+    private static final int READERS = 4;
+    // Pause of the workers between their operations, so they don't starve the producers on a few CPUs
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+
+    @BeforeEach
+    public void setUp() {
+        orderQueueService = createOrderQueueService();
+    }
+
+    @Test
+    public void concurrentProducersPickersCancellersAndReaders() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + PICKERS + CANCELLERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean producing = new AtomicBoolean(true);
+        Map<Long, OrderItem> added = new ConcurrentHashMap<>();
+        Map<Long, Boolean> cancelled = new ConcurrentHashMap<>();
+        List<List<OrderItem>> deliveries = Collections.synchronizedList(new ArrayList<>());
+
+        List<Future<?>> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers.add(executor.submit(() -> {
+                start.await();
+                // Every producer owns its own range of client IDs, both premium and regular ones
+                for (int i = 0; i < CLIENTS_PER_PRODUCER; i++) {
+                    long clientId = 1 + producer + (long) i * PRODUCERS;
+                    OrderItem order = new OrderItem(clientId, 1 + (int) (clientId % CART_CAPACITY));
+                    orderQueueService.addOrder(order);
+                    added.put(clientId, order);
+                }
+                return null;
+            }));
+        }
+        List<Future<?>> workers = new ArrayList<>();
+        for (int c = 0; c < CANCELLERS; c++) {
+            final Random random = new Random(c);
+            workers.add(executor.submit(() -> {
+                start.await();
+                while (working(producing)) {
+                    long clientId = 1 + random.nextInt((int) MAX_CLIENT_ID);
+                    if (orderQueueService.removeOrder(clientId)) {
+                        assertThat(cancelled.put(clientId, Boolean.TRUE)).isNull();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int p = 0; p < PICKERS; p++) {
+            workers.add(executor.submit(() -> {
+                start.await();
+                while (working(producing)) {
+                    List<OrderItem> delivery = orderQueueService.getNextDelivery();
+                    if (!delivery.isEmpty()) {
+                        deliveries.add(delivery);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            final Random random = new Random(100 + r);
+            workers.add(executor.submit(() -> {
+                start.await();
+                Map<Long, Integer> premiumPositions = new HashMap<>();
+                while (working(producing)) {
+                    long clientId = 1 + random.nextInt(1000);
+                    ClientOrderState state = orderQueueService.getClientOrderState(clientId);
+                    if (state == null) {
+                        premiumPositions.remove(clientId);
+                        continue;
+                    }
+                    assertThat(state.getPosition()).isPositive();
+                    assertThat(state.getWaitTimeInSeconds()).isNotNegative();
+                    Integer previousPosition = premiumPositions.put(clientId, state.getPosition());
+                    if (previousPosition != null) {
+                        // Every client is added only once and nobody can get ahead of a premium order
+                        assertThat(state.getPosition()).isLessThanOrEqualTo(previousPosition);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        try {
+            for (Future<?> producer : producers) {
+                producer.get(1, TimeUnit.MINUTES);
+            }
+            producing.set(false);
+            for (Future<?> worker : workers) {
+                worker.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            // A failed or stuck producer must not leave the workers running
+            producing.set(false);
+            executor.shutdownNow();
+        }
+        for (List<OrderItem> delivery = orderQueueService.getNextDelivery(); !delivery.isEmpty();
+             delivery = orderQueueService.getNextDelivery()) {
+            deliveries.add(delivery);
+        }
+
+        assertThat(added).hasSize(PRODUCERS * CLIENTS_PER_PRODUCER);
+        assertThat(orderQueueService.getAllOrders()).isEmpty();
+
+        Map<Long, OrderItem> delivered = new HashMap<>();
+        for (List<OrderItem> delivery : deliveries) {
+            assertThat(delivery.stream().mapToInt(OrderItem::getQuantity).sum()).isLessThanOrEqualTo(CART_CAPACITY);
+            boolean regularOrderSeen = false;
+            for (OrderItem order : delivery) {
+                assertThat(delivered.put(order.getClientId(), order)).as("Order delivered twice").isNull();
+                assertThat(cancelled).as("Cancelled order delivered").doesNotContainKey(order.getClientId());
+                boolean premium = OrderItem.isPremiumClient(order.getClientId());
+                assertThat(premium && regularOrderSeen).as("Premium order after regular one in a cart").isFalse();
+                regularOrderSeen |= !premium;
+            }
+        }
+        assertThat(delivered.size() + cancelled.size()).as("Orders lost").isEqualTo(added.size());
+
+        verifyTierOrder(deliveries, true);
+        verifyTierOrder(deliveries, false);
+    }
+
+    @Test
+    public void concurrentPickersClaimDisjointCarts() throws Exception {
+        Random random = new Random(7);
+        List<OrderItem> orders = new ArrayList<>();
+        for (long clientId = 1; clientId <= MAX_CLIENT_ID; clientId++) {
+            orders.add(new OrderItem(clientId, 1 + random.nextInt(CART_CAPACITY)));
+        }
+        orderQueueService.addOrders(orders);
+
+        int pickers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(pickers);
+        CountDownLatch start = new CountDownLatch(1);
+        Map<Long, Integer> deliveries = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < pickers; i++) {
+            String pickerId = "picker-" + i;
+            Random pickerRandom = new Random(i);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (CartReservation reservation = orderQueueService.reserveNextDelivery(pickerId); reservation != null;
+                     reservation = orderQueueService.reserveNextDelivery(pickerId)) {
+                    // Some carts are given up and claimed again later
+                    if (pickerRandom.nextInt(5) == 0) {
+                        assertThat(orderQueueService.returnDelivery(reservation.getReservationId())).isTrue();
+                    } else {
+                        List<OrderItem> delivered = orderQueueService.confirmDelivery(reservation.getReservationId());
+                        assertThat(delivered).isEqualTo(reservation.getOrders());
+                        delivered.forEach(order -> deliveries.merge(order.getClientId(), 1, Integer::sum));
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(deliveries).hasSize((int) MAX_CLIENT_ID);
+        assertThat(deliveries.values()).containsOnly(1);
+        assertThat(orderQueueService.getAllOrders()).isEmpty();
+    }
+
+    /**
+     * Orders of the same tier should leave the queue in the order they were added. The order of the carts
+     * is not known, but then the orders of the tier in two carts cannot interleave: sorting the carts
+     * by their first order should give all the orders of the tier sorted by the time they were added.
+     */
+    private static void verifyTierOrder(List<List<OrderItem>> deliveries, boolean premium) {
+        List<List<OrderItem>> tierCarts = new ArrayList<>();
+        for (List<OrderItem> delivery : deliveries) {
+            List<OrderItem> tierCart = new ArrayList<>();
+            for (OrderItem order : delivery) {
+                if (OrderItem.isPremiumClient(order.getClientId()) == premium) {
+                    tierCart.add(order);
+                }
+            }
+            if (!tierCart.isEmpty()) {
+                tierCarts.add(tierCart);
+            }
+        }
+        tierCarts.sort(Comparator.comparing(cart -> cart.get(0).getOrderAdded()));
+        List<OrderItem> tierOrders = new ArrayList<>();
+        tierCarts.forEach(tierOrders::addAll);
+        for (int i = 1; i < tierOrders.size(); i++) {
+            assertThat(tierOrders.get(i).getOrderAdded()).isAfterOrEqualTo(tierOrders.get(i - 1).getOrderAdded());
+        }
+    }
+
+    /**
+     * @return true while the producers are running, pausing the worker between its operations
+     */
+    private static boolean working(AtomicBoolean producing) {
+        LockSupport.parkNanos(BACKOFF_NANOS);
+        return producing.get() && !Thread.currentThread().isInterrupted();
+    }
+
+}
@@ -0,0 +1,540 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.CartReservation;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs the whole {@link InMemoryCustomPriorityOrderQueueServiceTest} suite against the tiered queue,
+ * plus the cases where a cart or a state calculation crosses the tier boundary.
+ */
+public class InMemoryTieredPriorityOrderQueueServiceTest extends InMemoryCustomPriorityOrderQueueServiceTest {
+
+    private static final long RESERVATION_TIMEOUT = 600L;
+
+    @Override
+    protected OrderQueueService createOrderQueueService() {
+        return new InMemoryTieredPriorityOrderQueueService();
+    }
+
+    @BeforeEach
+    public void setUpReservations() {
+        ReflectionTestUtils.setField(orderQueueService, "reservationTimeoutSeconds", RESERVATION_TIMEOUT);
+    }
+
+    @Test
+    public void getNextDeliveryTakesPremiumOrdersFirstAndFillsCartFromRegularTier() throws InvalidOrderParameterException {
+        OrderItem regular1 = new OrderItem(2001L, 5);
+        OrderItem regular2 = new OrderItem(2002L, 10);
+        OrderItem premium1 = new OrderItem(101L, 10);
+        OrderItem premium2 = new OrderItem(102L, 5);
+
+        orderQueueService.addOrder(regular1);
+        orderQueueService.addOrder(regular2);
+        orderQueueService.addOrder(premium1);
+        orderQueueService.addOrder(premium2);
+
+        List<OrderItem> delivery1 = orderQueueService.getNextDelivery();
+        assertThat(delivery1).containsExactly(premium1, premium2, regular1);
+
+        List<OrderItem> delivery2 = orderQueueService.getNextDelivery();
+        assertThat(delivery2).containsExactly(regular2);
+        assertThat(orderQueueService.getAllOrders()).isEmpty();
+    }
+
+    @Test
+    public void getClientOrderStateCountsPremiumOrdersAhead() throws InvalidOrderParameterException {
+        final long regularClientId = 2001L;
+        orderQueueService.addOrder(new OrderItem(regularClientId, 1));
+        orderQueueService.addOrder(new OrderItem(101L, CART_CAPACITY));
+        orderQueueService.addOrder(new OrderItem(102L, 1));
+
+        ClientOrderState orderState = orderQueueService.getClientOrderState(regularClientId);
+
+        assertThat(orderState).isNotNull();
+        assertThat(orderState.getPosition()).isEqualTo(3);
+        assertThat(orderState.getWaitTimeInSeconds()).isEqualTo(PICKUP_TIMEOUT);
+    }
+
+    @Test
+    public void removeOrderKeepsOrderOfRemainingOrders() throws InvalidOrderParameterException {
+        OrderItem o1 = new OrderItem(2001L, 1);
+        OrderItem o2 = new OrderItem(2002L, 1);
+        OrderItem o3 = new OrderItem(2003L, 1);
+        orderQueueService.addOrder(o1);
+        orderQueueService.addOrder(o2);
+        orderQueueService.addOrder(o3);
+
+        assertThat(orderQueueService.removeOrder(o2.getClientId())).isTrue();
+
+        assertThat(orderQueueService.getAllOrders()).containsExactly(o1, o3);
+    }
+
+    @Test
+    public void addOrderAgainAfterDeliveryAndCancellation() throws InvalidOrderParameterException {
+        final long clientId = 2001L;
+        orderQueueService.addOrder(new OrderItem(clientId, 1));
+        assertThat(orderQueueService.getNextDelivery()).hasSize(1);
+
+        orderQueueService.addOrder(new OrderItem(clientId, 2));
+        assertThat(orderQueueService.removeOrder(clientId)).isTrue();
+        assertThat(orderQueueService.removeOrder(clientId)).isFalse();
+        assertThat(orderQueueService.getClientOrderState(clientId)).isNull();
+
+        orderQueueService.addOrder(new OrderItem(clientId, 3));
+        assertThat(orderQueueService.getClientOrderState(clientId).getPosition()).isEqualTo(1);
+    }
+
+    @Test
+    public void addOrdersKeepsStateConsistentWithSingleAdds() throws InvalidOrderParameterException {
+        OrderQueueService referenceService = super.createOrderQueueService();
+        ReflectionTestUtils.setField(referenceService, "maxClientId", MAX_CLIENT_ID);
+        ReflectionTestUtils.setField(referenceService, "cartCapacity", CART_CAPACITY);
+        ReflectionTestUtils.setField(referenceService, "pickupTimeoutSeconds", PICKUP_TIMEOUT);
+        final long existingClientId = 500L;
+        orderQueueService.addOrder(new OrderItem(existingClientId, 1));
+        referenceService.addOrder(new OrderItem(existingClientId, 1));
+        Random random = new Random(7);
+        List<OrderItem> batch = new ArrayList<>();
+        for (long clientId = 1; clientId <= 3000; clientId += 1 + random.nextInt(3)) {
+            int quantity = 1 + random.nextInt(CART_CAPACITY);
+            batch.add(new OrderItem(clientId, quantity));
+            if (clientId != existingClientId) {
+                referenceService.addOrder(new OrderItem(clientId, quantity));
+            }
+        }
+        batch.add(new OrderItem(existingClientId, 2));
+
+        orderQueueService.addOrders(batch);
+
+        assertThat(clientIds(orderQueueService.getAllOrders())).isEqualTo(clientIds(referenceService.getAllOrders()));
+        for (OrderItem order : referenceService.getAllOrders()) {
+            assertThat(orderQueueService.getClientOrderState(order.getClientId()))
+                    .isEqualTo(referenceService.getClientOrderState(order.getClientId()));
+        }
+    }
+
+    @Test
+    public void queuedOrdersAreNotChangedThroughReturnedItems() throws InvalidOrderParameterException {
+        OrderItem order = new OrderItem(2001L, 5);
+        orderQueueService.addOrder(order);
+        order.setQuantity(CART_CAPACITY);
+        orderQueueService.getAllOrders().get(0).setQuantity(CART_CAPACITY);
+
+        assertThat(orderQueueService.getAllOrders()).containsExactly(new OrderItem(2001L, 5, order.getOrderAdded()));
+        assertThat(orderQueueService.getNextDelivery()).extracting(OrderItem::getQuantity).containsExactly(5);
+    }
+
+    @Test
+    public void getOrdersCursorSurvivesDeliveryOfReturnedOrders() throws InvalidOrderParameterException {
+        OrderItem o1 = new OrderItem(101L, 10);
+        OrderItem o2 = new OrderItem(102L, 10);
+        OrderItem o3 = new OrderItem(2001L, 10);
+        OrderItem o4 = new OrderItem(2002L, 10);
+        orderQueueService.addOrders(Arrays.asList(o1, o2, o3, o4));
+
+        OrderPage page1 = orderQueueService.getOrders(null, 3);
+        assertThat(page1.getOrders()).containsExactly(o1, o2, o3);
+        assertThat(orderQueueService.getNextDelivery()).containsExactly(o1, o2);
+        assertThat(orderQueueService.removeOrder(o3.getClientId())).isTrue();
+        OrderItem o5 = new OrderItem(2003L, 1);
+        orderQueueService.addOrder(o5);
+
+        OrderPage page2 = orderQueueService.getOrders(page1.getNextCursor(), 3);
+        assertThat(page2.getOrders()).containsExactly(o4, o5);
+        assertThat(page2.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void getClientOrderStateMatchesQueueWalkAfterRandomOperations() throws InvalidOrderParameterException {
+        OrderQueueService referenceService = super.createOrderQueueService();
+        ReflectionTestUtils.setField(referenceService, "maxClientId", MAX_CLIENT_ID);
+        ReflectionTestUtils.setField(referenceService, "cartCapacity", CART_CAPACITY);
+        ReflectionTestUtils.setField(referenceService, "pickupTimeoutSeconds", PICKUP_TIMEOUT);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 5000; i++) {
+            long clientId = 1 + random.nextInt(3000);
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                OrderItem order = new OrderItem(clientId, 1 + random.nextInt(CART_CAPACITY));
+                if (referenceService.getClientOrderState(clientId) == null) {
+                    referenceService.addOrder(new OrderItem(clientId, order.getQuantity()));
+                    orderQueueService.addOrder(order);
+                }
+            } else if (operation < 9) {
+                assertThat(orderQueueService.removeOrder(clientId)).isEqualTo(referenceService.removeOrder(clientId));
+            } else {
+                assertThat(clientIds(orderQueueService.getNextDelivery()))
+                        .isEqualTo(clientIds(referenceService.getNextDelivery()));
+            }
+            if (i % 100 == 0) {
+                for (OrderItem order : referenceService.getAllOrders()) {
+                    assertThat(orderQueueService.getClientOrderState(order.getClientId()))
+                            .isEqualTo(referenceService.getClientOrderState(order.getClientId()));
+                }
+            }
+        }
+        assertThat(clientIds(orderQueueService.getAllOrders())).isEqualTo(clientIds(referenceService.getAllOrders()));
+    }
+
+    @Test
+    public void pickersReserveDisjointCarts() throws InvalidOrderParameterException {
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        orderQueueService.addOrder(new OrderItem(101L, 5));
+
+        CartReservation first = orderQueueService.reserveNextDelivery("picker-1");
+        CartReservation second = orderQueueService.reserveNextDelivery("picker-2");
+        assertThat(clientIds(first.getOrders())).containsExactly(101L, 2001L);
+        assertThat(clientIds(second.getOrders())).containsExactly(2002L, 2003L);
+        assertThat(first.getReservationId()).isNotEqualTo(second.getReservationId());
+        assertThat(orderQueueService.reserveNextDelivery("picker-3")).isNull();
+        assertThat(orderQueueService.getAllOrders()).isEmpty();
+
+        // Reserved orders are being picked, they cannot be added again or cancelled
+        assertThat(orderQueueService.getClientOrderState(2001L)).isEqualTo(ClientOrderState.of(2001L, 0, 0L));
+        assertThrows(DuplicateClientOrderException.class,
+                () -> orderQueueService.addOrder(new OrderItem(2001L, 1)));
+        assertThat(orderQueueService.removeOrder(2001L)).isFalse();
+
+        assertThat(orderQueueService.confirmDelivery(first.getReservationId())).isEqualTo(first.getOrders());
+        assertThat(orderQueueService.confirmDelivery(first.getReservationId())).isNull();
+        assertThat(orderQueueService.getClientOrderState(2001L)).isNull();
+        assertThat(orderQueueService.returnDelivery(first.getReservationId())).isFalse();
+    }
+
+    @Test
+    public void returnedOrdersGetBackToTheirPlaces() throws InvalidOrderParameterException {
+        for (long clientId = 2001; clientId <= 2010; clientId++) {
+            orderQueueService.addOrder(new OrderItem(clientId, 10));
+        }
+        List<OrderItem> queued = orderQueueService.getAllOrders();
+        List<ClientOrderState> states = new ArrayList<>();
+        for (OrderItem order : queued) {
+            states.add(orderQueueService.getClientOrderState(order.getClientId()));
+        }
+        // Single picker, so the wait times stay the same
+        CartReservation first = orderQueueService.reserveNextDelivery("picker-1");
+        CartReservation second = orderQueueService.reserveNextDelivery("picker-1");
+        // New orders make the tier outgrow its slots while the carts are reserved
+        for (long clientId = 3001; clientId <= 3100; clientId++) {
+            orderQueueService.addOrder(new OrderItem(clientId, 1));
+        }
+        assertThat(orderQueueService.returnDelivery(second.getReservationId())).isTrue();
+        assertThat(orderQueueService.returnDelivery(first.getReservationId())).isTrue();
+
+        assertThat(orderQueueService.getAllOrders().subList(0, queued.size())).isEqualTo(queued);
+        for (ClientOrderState state : states) {
+            assertThat(orderQueueService.getClientOrderState(state.getClientId())).isEqualTo(state);
+        }
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2001L, 2002L);
+    }
+
+    @Test
+    public void expiredReservationIsReturnedToTheQueue() throws InvalidOrderParameterException {
+        ReflectionTestUtils.setField(orderQueueService, "reservationTimeoutSeconds", 0L);
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 20));
+        CartReservation expired = orderQueueService.reserveNextDelivery("picker-1");
+
+        // The next claim returns the expired cart first and gets it again
+        CartReservation next = orderQueueService.reserveNextDelivery("picker-2");
+        assertThat(next.getOrders()).isEqualTo(expired.getOrders());
+        assertThat(orderQueueService.confirmDelivery(expired.getReservationId())).isNull();
+
+        assertThat(((InMemoryTieredPriorityOrderQueueService) orderQueueService).returnExpiredReservations())
+                .isEqualTo(1);
+        assertThat(clientIds(orderQueueService.getAllOrders())).containsExactly(2001L, 2002L);
+    }
+
+    @Test
+    public void waitTimeIsSharedByActivePickers() throws InvalidOrderParameterException {
+        for (long clientId = 2001; clientId <= 2006; clientId++) {
+            orderQueueService.addOrder(new OrderItem(clientId, CART_CAPACITY));
+        }
+        assertThat(orderQueueService.getClientOrderState(2006L).getWaitTimeInSeconds()).isEqualTo(5 * PICKUP_TIMEOUT);
+
+        orderQueueService.reserveNextDelivery("picker-1");
+        orderQueueService.reserveNextDelivery("picker-2");
+        // Two carts ahead of 2006 are picked in parallel, the third one after them
+        assertThat(orderQueueService.getClientOrderState(2006L)).isEqualTo(ClientOrderState.of(2006L, 4, PICKUP_TIMEOUT));
+        assertThat(orderQueueService.getClientOrderState(2004L)).isEqualTo(ClientOrderState.of(2004L, 2, 0L));
+    }
+
+    @Test
+    public void reserveNextDeliveryRequiresPickerId() {
+        assertThrows(InvalidOrderParameterException.class, () -> orderQueueService.reserveNextDelivery(" "));
+    }
+
+    @Test
+    public void lookAheadFillsCartFromLaterOrdersOfTheSameTier() throws InvalidOrderParameterException {
+        ReflectionTestUtils.setField(orderQueueService, "lookAhead", 2);
+        orderQueueService.addOrder(new OrderItem(101L, 20));
+        orderQueueService.addOrder(new OrderItem(102L, 10));
+        orderQueueService.addOrder(new OrderItem(2001L, 5));
+        orderQueueService.addOrder(new OrderItem(2002L, 20));
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        orderQueueService.addOrder(new OrderItem(2004L, 5));
+        orderQueueService.addOrder(new OrderItem(2005L, 10));
+
+        // Regular orders don't overtake the premium ones, even though 2001 would fit into the first cart
+        assertThat(orderQueueService.getClientOrderState(2001L)).isEqualTo(ClientOrderState.of(2001L, 3, PICKUP_TIMEOUT));
+        assertThat(orderQueueService.getClientOrderState(2003L)).isEqualTo(ClientOrderState.of(2003L, 5, PICKUP_TIMEOUT));
+        assertThat(orderQueueService.getClientOrderState(2004L))
+                .isEqualTo(ClientOrderState.of(2004L, 6, 2 * PICKUP_TIMEOUT));
+        assertThat(orderQueueService.getClientOrderState(2005L))
+                .isEqualTo(ClientOrderState.of(2005L, 7, 3 * PICKUP_TIMEOUT));
+
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(101L);
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(102L, 2001L, 2003L);
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2002L, 2004L);
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2005L);
+    }
+
+    @Test
+    public void lookAheadDoesNotOvertakeFurtherThanTheBound() throws InvalidOrderParameterException {
+        ReflectionTestUtils.setField(orderQueueService, "lookAhead", 2);
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        orderQueueService.addOrder(new OrderItem(2004L, 10));
+        orderQueueService.addOrder(new OrderItem(2005L, 5));
+
+        // 2005 would fit into the first cart, but it is three places behind 2002
+        assertThat(orderQueueService.getClientOrderState(2005L)).isEqualTo(ClientOrderState.of(2005L, 5, PICKUP_TIMEOUT));
+        assertThat(orderQueueService.getClientOrderState(2004L))
+                .isEqualTo(ClientOrderState.of(2004L, 4, 2 * PICKUP_TIMEOUT));
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2001L);
+        // The order appended to the tail joins the last cart, which has space left within the bound
+        orderQueueService.addOrder(new OrderItem(2006L, 15));
+        assertThat(orderQueueService.getClientOrderState(2006L)).isEqualTo(ClientOrderState.of(2006L, 5, PICKUP_TIMEOUT));
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2002L, 2003L, 2005L);
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2004L, 2006L);
+    }
+
+    @Test
+    public void lookAheadStateMatchesPackingWalkAfterRandomOperations() throws InvalidOrderParameterException {
+        int lookAhead = 3;
+        ReflectionTestUtils.setField(orderQueueService, "lookAhead", lookAhead);
+        InMemoryTieredPriorityOrderQueueService service = (InMemoryTieredPriorityOrderQueueService) orderQueueService;
+        Random random = new Random(7);
+
+        for (int i = 0; i < 5000; i++) {
+            long clientId = random.nextInt(10) == 0 ? 1 + random.nextInt(300) : 1001 + random.nextInt(2000);
+            int operation = random.nextInt(20);
+            if (operation < 11) {
+                if (service.getClientOrderState(clientId) == null) {
+                    OrderItem order = new OrderItem(clientId, 1 + random.nextInt(CART_CAPACITY));
+                    if (operation == 0) {
+                        order.setOrderAdded(LocalDateTime.now());
+                        service.restoreOrders(Collections.singletonList(order));
+                    } else {
+                        service.addOrder(order);
+                    }
+                }
+            } else if (operation < 16) {
+                service.removeOrder(clientId);
+            } else if (operation < 19) {
+                List<Long> expected = clientIds(takeCartWithLookAhead(service.getAllOrders(), lookAhead));
+                assertThat(clientIds(service.getNextDelivery())).isEqualTo(expected);
+            } else {
+                CartReservation reservation = service.reserveNextDelivery("picker-1");
+                if (reservation != null) {
+                    service.returnDelivery(reservation.getReservationId());
+                }
+            }
+            if (i % 10 != 0) {
+                continue;
+            }
+            List<OrderItem> queued = service.getAllOrders();
+            List<List<Long>> carts = packWithLookAhead(queued, lookAhead);
+            Map<Long, Integer> positions = new HashMap<>();
+            for (OrderItem order : queued) {
+                positions.put(order.getClientId(), positions.size() + 1);
+            }
+            List<ClientOrderState> expected = new ArrayList<>();
+            for (int cart = 0; cart < carts.size(); cart++) {
+                for (Long cartClientId : carts.get(cart)) {
+                    expected.add(ClientOrderState.of(cartClientId, positions.get(cartClientId), cart * PICKUP_TIMEOUT));
+                }
+            }
+            // Queried in a random order, so the plan is extended from different places
+            Collections.shuffle(expected, random);
+            for (ClientOrderState state : i % 100 == 0 ? expected : expected.subList(0, Math.min(3, expected.size()))) {
+                assertThat(service.getClientOrderState(state.getClientId())).isEqualTo(state);
+            }
+        }
+    }
+
+    @Test
+    public void configuredTiersAreDeliveredFromTheHighestOne() throws InvalidOrderParameterException {
+        ReflectionTestUtils.setField(orderQueueService, "tierDefinitions", "gold:100, silver:1000, bronze");
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(501L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 20));
+        orderQueueService.addOrder(new OrderItem(1L, 20));
+
+        assertThat(orderQueueService.getTierDepths()).containsExactly(
+                Map.entry("gold", 1), Map.entry("silver", 1), Map.entry("bronze", 2));
+        assertThat(orderQueueService.getTierName(501L)).isEqualTo("silver");
+        assertThat(orderQueueService.getClientOrderState(2001L)).isEqualTo(ClientOrderState.of(2001L, 3, 2 * PICKUP_TIMEOUT));
+        assertThat(clientIds(orderQueueService.getAllOrders())).containsExactly(1L, 501L, 2001L, 2002L);
+    }
+
+    @Test
+    public void orderIsQueuedInTheTierItNames() throws InvalidOrderParameterException {
+        orderQueueService.addOrder(new OrderItem(101L, 20));
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 20, null, "premium"));
+        orderQueueService.addOrder(new OrderItem(102L, 20, null, "regular"));
+
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId, OrderItem::getTier)
+                .containsExactly(tuple(101L, null), tuple(2002L, "premium"), tuple(2001L, null),
+                        tuple(102L, "regular"));
+        assertThat(orderQueueService.getClientOrderState(2002L)).isEqualTo(ClientOrderState.of(2002L, 2, PICKUP_TIMEOUT));
+        assertThrows(InvalidOrderParameterException.class,
+                () -> orderQueueService.addOrder(new OrderItem(2003L, 20, null, "gold")));
+        assertThat(orderQueueService.addOrders(List.of(new OrderItem(2003L, 20, null, "gold"))))
+                .extracting(BatchOrderResult::isAccepted).containsExactly(false);
+    }
+
+    @Test
+    public void agedOrdersArePromotedTierByTier() throws Exception {
+        ReflectionTestUtils.setField(orderQueueService, "tierDefinitions", "gold:100,silver:1000,bronze");
+        ReflectionTestUtils.setField(orderQueueService, "promoteAfterMillis", 100L);
+        ReflectionTestUtils.setField(orderQueueService, "agingTickMillis", 5L);
+        InMemoryTieredPriorityOrderQueueService service = (InMemoryTieredPriorityOrderQueueService) orderQueueService;
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        assertThat(service.promoteAgedOrders()).isZero();
+
+        Thread.sleep(250);
+        orderQueueService.addOrder(new OrderItem(501L, 20));
+        // The order is promoted once per tick, and goes to the tail of the higher tier
+        assertThat(service.promoteAgedOrders()).isEqualTo(1);
+        assertThat(clientIds(orderQueueService.getAllOrders())).containsExactly(501L, 2001L);
+        assertThat(orderQueueService.getTierDepths()).containsEntry("silver", 2).containsEntry("bronze", 0);
+
+        Thread.sleep(20);
+        orderQueueService.addOrder(new OrderItem(1L, 20));
+        assertThat(service.promoteAgedOrders()).isEqualTo(1);
+        assertThat(service.promoteAgedOrders()).isZero();
+        assertThat(service.getPromotedOrders()).isEqualTo(2);
+        assertThat(orderQueueService.getAllOrders()).extracting(OrderItem::getClientId, OrderItem::getTier)
+                .containsExactly(tuple(1L, null), tuple(2001L, null), tuple(501L, null));
+        assertThat(orderQueueService.getClientOrderState(2001L)).isEqualTo(ClientOrderState.of(2001L, 2, PICKUP_TIMEOUT));
+
+        // Delivered orders are not promoted anymore
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(1L);
+        assertThat(clientIds(orderQueueService.getNextDelivery())).containsExactly(2001L);
+        Thread.sleep(120);
+        assertThat(service.promoteAgedOrders()).isEqualTo(1);
+        assertThat(orderQueueService.getTierDepths()).containsEntry("gold", 1);
+    }
+
+    @Test
+    public void restoredOrdersArePromotedByTheirAge() {
+        ReflectionTestUtils.setField(orderQueueService, "tierDefinitions", "gold:100,silver:1000,bronze");
+        ReflectionTestUtils.setField(orderQueueService, "promoteAfterMillis", 60_000L);
+        ReflectionTestUtils.setField(orderQueueService, "agingTickMillis", 1000L);
+        InMemoryTieredPriorityOrderQueueService service = (InMemoryTieredPriorityOrderQueueService) orderQueueService;
+        LocalDateTime now = LocalDateTime.now();
+        service.restoreOrders(List.of(
+                new OrderItem(2001L, 5, now.minusSeconds(150)),
+                new OrderItem(2002L, 5, now.minusSeconds(90)),
+                new OrderItem(2003L, 5, now.minusSeconds(10)),
+                new OrderItem(502L, 5, now.minusSeconds(10)),
+                new OrderItem(2004L, 5, now.minusSeconds(10), "gold")));
+
+        assertThat(orderQueueService.getTierDepths()).containsExactly(
+                Map.entry("gold", 2), Map.entry("silver", 2), Map.entry("bronze", 1));
+        assertThat(clientIds(orderQueueService.getAllOrders())).containsExactly(2001L, 2004L, 2002L, 502L, 2003L);
+    }
+
+    @Test
+    public void restoredOrdersFollowTheOrdersQueuedBeforeTheirPromotion() throws InvalidOrderParameterException {
+        ReflectionTestUtils.setField(orderQueueService, "tierDefinitions", "gold:100,silver:1000,bronze");
+        ReflectionTestUtils.setField(orderQueueService, "promoteAfterMillis", 60_000L);
+        ReflectionTestUtils.setField(orderQueueService, "agingTickMillis", 1000L);
+        InMemoryTieredPriorityOrderQueueService service = (InMemoryTieredPriorityOrderQueueService) orderQueueService;
+        LocalDateTime now = LocalDateTime.now();
+        // In the order they have been added, as they are replayed from the journal
+        service.restoreOrders(List.of(
+                new OrderItem(2002L, 5, now.minusSeconds(130)), // Promoted to gold 10 seconds ago
+                new OrderItem(2001L, 5, now.minusSeconds(100)), // Promoted to silver 40 seconds ago
+                new OrderItem(501L, 5, now.minusSeconds(50)),
+                new OrderItem(502L, 5, now.minusSeconds(30)),
+                new OrderItem(1L, 5, now.minusSeconds(20))));
+
+        assertThat(clientIds(orderQueueService.getAllOrders())).containsExactly(1L, 2002L, 501L, 2001L, 502L);
+        OrderPage page = orderQueueService.getOrders(null, 3);
+        assertThat(clientIds(page.getOrders())).containsExactly(1L, 2002L, 501L);
+        assertThat(clientIds(orderQueueService.getOrders(page.getNextCursor(), 3).getOrders()))
+                .containsExactly(2001L, 502L);
+        assertThat(orderQueueService.getClientOrderState(502L).getPosition()).isEqualTo(5);
+    }
+
+    /**
+     * Straightforward packing of the queue with a look-ahead, see {@link LookAheadCartPlan}
+     */
+    private static List<List<Long>> packWithLookAhead(List<OrderItem> queue, int lookAhead) {
+        List<OrderItem> remaining = new ArrayList<>(queue);
+        List<List<Long>> carts = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            carts.add(clientIds(takeCartWithLookAhead(remaining, lookAhead)));
+        }
+        return carts;
+    }
+
+    /**
+     * Remove the orders of the first cart from the queue
+     */
+    private static List<OrderItem> takeCartWithLookAhead(List<OrderItem> queue, int lookAhead) {
+        List<OrderItem> cart = new ArrayList<>();
+        int items = 0;
+        int firstSkipped = -1;
+        for (int i = 0; i < queue.size() && items < CART_CAPACITY; i++) {
+            OrderItem order = queue.get(i);
+            if (firstSkipped >= 0 && (i - firstSkipped > lookAhead || OrderItem.isPremiumClient(order.getClientId())
+                    != OrderItem.isPremiumClient(queue.get(firstSkipped).getClientId()))) {
+                break;
+            }
+            if (items + order.getQuantity() <= CART_CAPACITY) {
+                items += order.getQuantity();
+                cart.add(order);
+            } else if (firstSkipped < 0) {
+                firstSkipped = i;
+            }
+        }
+        queue.removeAll(new HashSet<>(cart));
+        return cart;
+    }
+
+    private static List<Long> clientIds(List<OrderItem> orders) {
+        return orders.stream().map(OrderItem::getClientId).collect(Collectors.toList());
+    }
+
+}
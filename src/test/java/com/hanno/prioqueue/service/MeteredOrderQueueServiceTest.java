@@ -0,0 +1,59 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MeteredOrderQueueServiceTest {
+
+    private MeterRegistry registry;
+    private OrderQueueService orderQueueService;
+
+    @BeforeEach
+    public void setUp() {
+        OrderQueueService delegate = createOrderQueueService();
+        registry = new SimpleMeterRegistry();
+        orderQueueService = new MeteredOrderQueueService(delegate, registry);
+    }
+
+    @Test
+    public void depthIsReportedPerTier() throws InvalidOrderParameterException {
+        orderQueueService.addOrder(new OrderItem(1L, 1));
+        orderQueueService.addOrder(new OrderItem(2001L, 1));
+        orderQueueService.addOrder(new OrderItem(2002L, 1));
+
+        assertThat(registry.get("orderqueue.depth").tag("tier", "premium").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.get("orderqueue.depth").tag("tier", "regular").gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void ordersAndOperationsAreCounted() throws InvalidOrderParameterException {
+        orderQueueService.addOrder(new OrderItem(1L, 1));
+        orderQueueService.addOrder(new OrderItem(2001L, 1));
+        orderQueueService.addOrder(new OrderItem(2002L, 1));
+        assertThrows(DuplicateClientOrderException.class,
+                () -> orderQueueService.addOrder(new OrderItem(1L, 2)));
+        assertThrows(InvalidOrderParameterException.class,
+                () -> orderQueueService.addOrder(new OrderItem(1L, 0)));
+        orderQueueService.removeOrder(2002L);
+        orderQueueService.getNextDelivery();
+
+        assertThat(registry.get("orderqueue.orders").tag("outcome", "added").counter().count()).isEqualTo(3.0);
+        assertThat(registry.get("orderqueue.orders").tag("outcome", "rejected").counter().count()).isEqualTo(2.0);
+        assertThat(registry.get("orderqueue.orders").tag("outcome", "cancelled").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("orderqueue.orders").tag("outcome", "delivered").counter().count()).isEqualTo(2.0);
+        assertThat(registry.get("orderqueue.operation").tag("operation", "add").timer().count()).isEqualTo(5L);
+        assertThat(registry.get("orderqueue.operation").tag("operation", "delivery").timer().count()).isEqualTo(1L);
+        assertThat(registry.get("orderqueue.wait").tag("tier", "premium").timer().count()).isEqualTo(1L);
+        assertThat(registry.get("orderqueue.wait").tag("tier", "regular").timer().count()).isEqualTo(1L);
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.hanno.prioqueue.service;
+
+import com.hanno.prioqueue.entity.BatchOrderResult;
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.entity.OrderPage;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.exception.UnsupportedQueueOperationException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.CART_CAPACITY;
+import static com.hanno.prioqueue.service.TestOrderQueues.PICKUP_TIMEOUT;
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class ShardedOrderQueueServiceTest {
+
+    @Test
+    public void ordersAreRoutedToShardsByClientId() throws InvalidOrderParameterException {
+        ShardedOrderQueueService sharded = new ShardedOrderQueueService(createOrderQueueService(), 4);
+        sharded.addOrder(new OrderItem(2001L, 20));
+        sharded.addOrder(new OrderItem(2002L, 10));
+        sharded.addOrder(new OrderItem(101L, 10));
+        sharded.addOrder(new OrderItem(2005L, 5));
+
+        assertThat(clientIds(sharded.getShards().get(1).getAllOrders())).containsExactly(101L, 2001L, 2005L);
+        assertThat(clientIds(sharded.getShards().get(2).getAllOrders())).containsExactly(2002L);
+        assertThat(clientIds(sharded.getAllOrders())).containsExactly(101L, 2001L, 2002L, 2005L);
+        assertThat(sharded.getTierDepths()).containsEntry("premium", 1).containsEntry("regular", 3);
+        assertThrows(DuplicateClientOrderException.class, () -> sharded.addOrder(new OrderItem(2001L, 1)));
+        assertThrows(InvalidOrderParameterException.class, () -> sharded.getClientOrderState(0L));
+        assertThrows(UnsupportedQueueOperationException.class, () -> sharded.reserveNextDelivery("picker-1"));
+        assertThat(sharded.addOrders(List.of(new OrderItem(2003L, 1), new OrderItem(2003L, 2), new OrderItem(2004L, 3))))
+                .extracting(BatchOrderResult::isAccepted).containsExactly(true, false, true);
+
+        // Carts are packed from the merged heads of the shards, the batch is added shard by shard
+        assertThat(clientIds(sharded.getNextDelivery())).containsExactly(101L);
+        assertThat(clientIds(sharded.getNextDelivery())).containsExactly(2001L);
+        assertThat(clientIds(sharded.getNextDelivery())).containsExactly(2002L, 2005L, 2004L, 2003L);
+        assertThat(sharded.getNextDelivery()).isEmpty();
+    }
+
+    @Test
+    public void shardedQueueMatchesSingleQueueAfterRandomOperations() throws InvalidOrderParameterException {
+        InMemoryTieredPriorityOrderQueueService single = createOrderQueueService();
+        ShardedOrderQueueService sharded = new ShardedOrderQueueService(createOrderQueueService(), 4);
+        ShardedOrderQueueService oneShard = new ShardedOrderQueueService(createOrderQueueService(), 1);
+        Random random = new Random(11);
+        for (int i = 0; i < 3000; i++) {
+            int operation = random.nextInt(10);
+            long clientId = random.nextInt(10) == 0 ? 1 + random.nextInt(1000) : 1001 + random.nextInt(2000);
+            if (operation < 6) {
+                OrderItem order = new OrderItem(clientId, 1 + random.nextInt(CART_CAPACITY));
+                boolean duplicate = single.getClientOrderState(clientId) != null;
+                addOrder(single, order, duplicate);
+                addOrder(sharded, new OrderItem(clientId, order.getQuantity()), duplicate);
+                addOrder(oneShard, new OrderItem(clientId, order.getQuantity()), duplicate);
+            } else if (operation < 8) {
+                boolean removed = single.removeOrder(clientId);
+                assertThat(sharded.removeOrder(clientId)).isEqualTo(removed);
+                assertThat(oneShard.removeOrder(clientId)).isEqualTo(removed);
+            } else {
+                List<Long> cart = clientIds(single.getNextDelivery());
+                assertThat(clientIds(sharded.getNextDelivery())).isEqualTo(cart);
+                assertThat(clientIds(oneShard.getNextDelivery())).isEqualTo(cart);
+            }
+            if (i % 50 == 0) {
+                List<OrderItem> queue = single.getAllOrders();
+                assertThat(clientIds(sharded.getAllOrders())).isEqualTo(clientIds(queue));
+                for (OrderItem order : queue) {
+                    ClientOrderState expected = single.getClientOrderState(order.getClientId());
+                    assertThat(sharded.getClientOrderState(order.getClientId())).isEqualTo(expected);
+                    assertThat(oneShard.getClientOrderState(order.getClientId())).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pagesFollowTheMergedQueue() throws InvalidOrderParameterException {
+        ShardedOrderQueueService sharded = new ShardedOrderQueueService(createOrderQueueService(), 3);
+        for (long clientId : new long[]{2001L, 2002L, 101L, 2003L, 2004L, 102L, 2005L}) {
+            sharded.addOrder(new OrderItem(clientId, 20));
+        }
+
+        OrderPage first = sharded.getOrders(null, 3);
+        assertThat(clientIds(first.getOrders())).containsExactly(101L, 102L, 2001L);
+        // Deliveries between the pages don't make the reader skip the orders
+        assertThat(clientIds(sharded.getNextDelivery())).containsExactly(101L);
+        assertThat(clientIds(sharded.getNextDelivery())).containsExactly(102L);
+        OrderPage second = sharded.getOrders(first.getNextCursor(), 3);
+        assertThat(clientIds(second.getOrders())).containsExactly(2002L, 2003L, 2004L);
+        OrderPage last = sharded.getOrders(second.getNextCursor(), 3);
+        assertThat(clientIds(last.getOrders())).containsExactly(2005L);
+        assertThat(last.getNextCursor()).isNull();
+        assertThrows(InvalidOrderParameterException.class, () -> sharded.getOrders("not a cursor", 3));
+    }
+
+    @Test
+    public void stateIsQueriedWithoutLockingTheShards() throws InvalidOrderParameterException {
+        ShardedOrderQueueService sharded = new ShardedOrderQueueService(createOrderQueueService(), 2);
+        sharded.addOrder(new OrderItem(2001L, 20));
+        sharded.addOrder(new OrderItem(2002L, 10));
+        sharded.addOrder(new OrderItem(2003L, 10));
+
+        List<InMemoryTieredPriorityOrderQueueService> shards = sharded.getShards();
+        long[] stamps = shards.stream().mapToLong(shard -> shard.lock().writeLock()).toArray();
+        try {
+            ClientOrderState state = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> sharded.getClientOrderState(2003L));
+            assertThat(state).isEqualTo(ClientOrderState.of(2003L, 3, PICKUP_TIMEOUT));
+        } finally {
+            for (int i = 0; i < stamps.length; i++) {
+                shards.get(i).lock().unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    private static void addOrder(OrderQueueService service, OrderItem order, boolean duplicate)
+            throws InvalidOrderParameterException {
+        if (duplicate) {
+            assertThrows(DuplicateClientOrderException.class, () -> service.addOrder(order));
+        } else {
+            service.addOrder(order);
+        }
+    }
+
+    private static List<Long> clientIds(List<OrderItem> orders) {
+        return orders.stream().map(OrderItem::getClientId).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.hanno.prioqueue.service;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Order queue services configured for the tests which run outside of the Spring context
+ */
+public final class TestOrderQueues {
+
+    public static final long MAX_CLIENT_ID = 20000L;
+    public static final int CART_CAPACITY = 25;
+    public static final long PICKUP_TIMEOUT = 300L;
+    public static final long RESERVATION_TIMEOUT = 600L;
+
+    private TestOrderQueues() {
+    }
+
+    public static InMemoryTieredPriorityOrderQueueService createOrderQueueService() {
+        return createOrderQueueService(MAX_CLIENT_ID);
+    }
+
+    public static InMemoryTieredPriorityOrderQueueService createOrderQueueService(long maxClientId) {
+        InMemoryTieredPriorityOrderQueueService orderQueueService = new InMemoryTieredPriorityOrderQueueService();
+        configure(orderQueueService, maxClientId);
+        ReflectionTestUtils.setField(orderQueueService, "reservationTimeoutSeconds", RESERVATION_TIMEOUT);
+        return orderQueueService;
+    }
+
+    /**
+     * Set the properties which every implementation has
+     */
+    public static <T extends OrderQueueService> T configure(T orderQueueService) {
+        return configure(orderQueueService, MAX_CLIENT_ID);
+    }
+
+    private static <T extends OrderQueueService> T configure(T orderQueueService, long maxClientId) {
+        ReflectionTestUtils.setField(orderQueueService, "maxClientId", maxClientId);
+        ReflectionTestUtils.setField(orderQueueService, "cartCapacity", CART_CAPACITY);
+        ReflectionTestUtils.setField(orderQueueService, "pickupTimeoutSeconds", PICKUP_TIMEOUT);
+        return orderQueueService;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.hanno.prioqueue.subscription;
+
+import com.hanno.prioqueue.entity.ClientOrderState;
+import com.hanno.prioqueue.entity.OrderItem;
+import com.hanno.prioqueue.exception.DuplicateClientOrderException;
+import com.hanno.prioqueue.exception.InvalidOrderParameterException;
+import com.hanno.prioqueue.service.InMemoryTieredPriorityOrderQueueService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.hanno.prioqueue.service.TestOrderQueues.PICKUP_TIMEOUT;
+import static com.hanno.prioqueue.service.TestOrderQueues.createOrderQueueService;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientOrderStateSubscriptionsTest {
+
+    private static final ClientOrderState REMOVED = ClientOrderState.of(-1L, -1, -1L);
+
+    private InMemoryTieredPriorityOrderQueueService orderQueueService;
+    private ClientOrderStateSubscriptions subscriptions;
+
+    @BeforeEach
+    public void setUp() {
+        orderQueueService = createOrderQueueService();
+        subscriptions = new ClientOrderStateSubscriptions(PICKUP_TIMEOUT);
+        subscriptions.attach(orderQueueService);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        subscriptions.close();
+    }
+
+    @Test
+    public void stateIsPushedWhenOrderMoves() throws Exception {
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriptions.subscribe(2003L, subscriber);
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2003L, 3, PICKUP_TIMEOUT));
+
+        orderQueueService.getNextDelivery();
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2003L, 2, 0L));
+
+        // Premium order gets ahead and changes the packing of the carts
+        orderQueueService.addOrder(new OrderItem(1L, 20));
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2003L, 3, PICKUP_TIMEOUT));
+
+        orderQueueService.removeOrder(2002L);
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2003L, 2, PICKUP_TIMEOUT));
+
+        orderQueueService.getNextDelivery();
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2003L, 1, 0L));
+
+        orderQueueService.getNextDelivery();
+        assertThat(subscriber.next()).isSameAs(REMOVED);
+        assertThat(subscriber.states.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void reservedOrderIsPushedUntilDelivered() throws Exception {
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        RecordingSubscriber reserved = new RecordingSubscriber();
+        RecordingSubscriber queued = new RecordingSubscriber();
+        subscriptions.subscribe(2001L, reserved);
+        subscriptions.subscribe(2003L, queued);
+        assertThat(reserved.next()).isEqualTo(ClientOrderState.of(2001L, 1, 0L));
+        assertThat(queued.next()).isEqualTo(ClientOrderState.of(2003L, 3, PICKUP_TIMEOUT));
+
+        long reservationId = orderQueueService.reserveNextDelivery("picker-1").getReservationId();
+        assertThat(reserved.next()).isEqualTo(ClientOrderState.of(2001L, 0, 0L));
+        assertThat(queued.next()).isEqualTo(ClientOrderState.of(2003L, 2, 0L));
+
+        orderQueueService.returnDelivery(reservationId);
+        assertThat(reserved.next()).isEqualTo(ClientOrderState.of(2001L, 1, 0L));
+        assertThat(queued.next()).isEqualTo(ClientOrderState.of(2003L, 3, PICKUP_TIMEOUT));
+
+        reservationId = orderQueueService.reserveNextDelivery("picker-1").getReservationId();
+        assertThat(reserved.next()).isEqualTo(ClientOrderState.of(2001L, 0, 0L));
+        assertThat(queued.next()).isEqualTo(ClientOrderState.of(2003L, 2, 0L));
+        orderQueueService.confirmDelivery(reservationId);
+        assertThat(reserved.next()).isSameAs(REMOVED);
+        assertThat(queued.states.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void changesBehindTheOrderAreNotPushed() throws Exception {
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 10));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriptions.subscribe(2001L, subscriber);
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2001L, 1, 0L));
+
+        orderQueueService.addOrder(new OrderItem(2003L, 10));
+        orderQueueService.removeOrder(2002L);
+        orderQueueService.removeOrder(2003L);
+        assertThat(subscriber.states.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void subscriptionWithoutOrderIsRemovedRightAway() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriptions.subscribe(2001L, subscriber);
+        assertThat(subscriber.next()).isSameAs(REMOVED);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void statesArePushedWhenPickersChangeOrOrdersAreRestored() throws Exception {
+        orderQueueService.addOrder(new OrderItem(2001L, 20));
+        orderQueueService.addOrder(new OrderItem(2002L, 20));
+        orderQueueService.addOrder(new OrderItem(2003L, 20));
+        orderQueueService.addOrder(new OrderItem(2004L, 10));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriptions.subscribe(2004L, subscriber);
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2004L, 4, 3 * PICKUP_TIMEOUT));
+
+        // Second picker shares the wait time, the queue itself doesn't change
+        Map<String, Long> pickerActivity = (Map<String, Long>) ReflectionTestUtils.getField(orderQueueService,
+                "pickerActivityNanos");
+        pickerActivity.put("picker-1", System.nanoTime());
+        pickerActivity.put("picker-2", System.nanoTime());
+        orderQueueService.returnExpiredReservations();
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2004L, 4, PICKUP_TIMEOUT));
+
+        OrderItem restored = new OrderItem(1L, 20);
+        restored.setOrderAdded(LocalDateTime.now());
+        orderQueueService.restoreOrders(Collections.singletonList(restored));
+        assertThat(subscriber.next()).isEqualTo(ClientOrderState.of(2004L, 5, 2 * PICKUP_TIMEOUT));
+    }
+
+    @Test
+    public void pushedStatesMatchQueueAfterRandomOperations() throws Exception {
+        Random random = new Random(13);
+        List<Long> clientIds = new ArrayList<>();
+        List<RecordingSubscriber> subscribers = new ArrayList<>();
+        for (long clientId = 1; clientId <= 400; clientId++) {
+            long id = clientId % 4 == 0 ? clientId : 1000 + clientId;
+            orderQueueService.addOrder(new OrderItem(id, 1 + random.nextInt(25)));
+            clientIds.add(id);
+        }
+        for (Long clientId : clientIds) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            subscriptions.subscribe(clientId, subscriber);
+            subscribers.add(subscriber);
+        }
+        for (int i = 0; i < 300; i++) {
+            int operation = random.nextInt(10);
+            try {
+                if (operation < 3) {
+                    orderQueueService.getNextDelivery();
+                } else if (operation < 6) {
+                    orderQueueService.removeOrder(1L + random.nextInt(2000));
+                } else {
+                    // Subscriptions end with the order, so the subscribed clients are not added again
+                    long clientId = random.nextBoolean() ? 401 + random.nextInt(599) : 2000 + random.nextInt(1000);
+                    orderQueueService.addOrder(new OrderItem(clientId, 1 + random.nextInt(25)));
+                }
+            } catch (DuplicateClientOrderException e) {
+                // Client has an order already
+            }
+        }
+
+        for (int i = 0; i < clientIds.size(); i++) {
+            ClientOrderState expected = orderQueueService.getClientOrderState(clientIds.get(i));
+            assertThat(subscribers.get(i).awaitLast(expected)).as("State of %d", clientIds.get(i)).isTrue();
+        }
+        // No more updates should follow the current states
+        Thread.sleep(100);
+        assertThat(subscribers).allMatch(subscriber -> subscriber.states.isEmpty());
+    }
+
+    private static class RecordingSubscriber implements ClientOrderStateSubscriber {
+
+        final BlockingQueue<ClientOrderState> states = new LinkedBlockingQueue<>();
+        private ClientOrderState last;
+
+        @Override
+        public void onStateChanged(ClientOrderState state) {
+            states.add(state);
+        }
+
+        @Override
+        public void onOrderRemoved(long clientId) {
+            states.add(REMOVED);
+        }
+
+        ClientOrderState next() throws InterruptedException {
+            return states.poll(10, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Wait until the last pushed state is the expected one, a null state means the order has left the queue
+         */
+        boolean awaitLast(ClientOrderState expected) throws InterruptedException {
+            ClientOrderState target = expected == null ? REMOVED : expected;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!Objects.equals(last, target)) {
+                ClientOrderState state = states.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (state == null) {
+                    return false;
+                }
+                last = state;
+            }
+            return true;
+        }
+
+    }
+
+}